@@ -13,6 +13,9 @@ module SBMLTools {
     */
     typedef string assembly_ref;
 
+    /* A boolean - 0 for false, 1 for true. */
+    typedef int boolean;
+
     /*
         A 'typedef' can also be used to define compound or container
         objects, like lists, maps, and structures.  The standard KBase
@@ -20,6 +23,15 @@ module SBMLTools {
         input and output of your function.  Here the input is a
         reference to the Assembly data object, a workspace to save
         output, and a length threshold for filtering.
+        If dedup is set to 1, contigs that are identical to an earlier contig
+        or to its reverse complement are removed as well.  If sort_by_length
+        is set to 1, the output contigs are sorted by descending length.
+        If n_shards is greater than 1, the output is split into that many
+        assemblies of about equal total length.
+        If min_kmer_entropy is set, contigs whose k-mer Shannon entropy is
+        below it are removed as low complexity.  The entropy is normalized to
+        between 0 and 1 by the largest value possible for the contig, and
+        kmer_size (1 to 8, default 4) sets k.
 
         To define lists and maps, use a syntax similar to C++ templates
         to indicate the type contained in the list or map.  For example:
@@ -31,15 +43,38 @@ module SBMLTools {
         assembly_ref assembly_input_ref;
         string workspace_name;
         int min_length;
+        boolean dedup;
+        boolean sort_by_length;
+        int n_shards;
+        float min_kmer_entropy;
+        int kmer_size;
     } FilterContigsParams;
 
 
+    /*
+        Summary statistics for the contigs of an assembly.
+        n50 is computed from a bounded length sketch and is accurate to within
+        1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+        is the fraction of unambiguous bases that are G or C.  Element i of
+        length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+    */
+    typedef structure {
+        int n_contigs;
+        int total_length;
+        int n50;
+        int l50;
+        float gc_content;
+        list<int> length_histogram;
+    } AssemblyStats;
+
     /*
         Here is the definition of the output of the function.  The output
         can be used by other SDK modules which call your code, or the output
         visualizations in the Narrative.  'report_name' and 'report_ref' are
         special output fields- if defined, the Narrative can automatically
         render your Report.
+        If the output was split into shards, shard_outputs lists the shard
+        assemblies and assembly_output is not set.
     */
     typedef structure {
         string report_name;
@@ -48,6 +83,11 @@ module SBMLTools {
         int n_initial_contigs;
         int n_contigs_removed;
         int n_contigs_remaining;
+        int n_duplicates_removed;
+        int n_low_complexity_removed;
+        AssemblyStats input_stats;
+        AssemblyStats output_stats;
+        list<assembly_ref> shard_outputs;
     } FilterContigsResults;
     
     /*
@@ -58,6 +98,39 @@ module SBMLTools {
     */
     funcdef filter_contigs_changed(FilterContigsParams params)
         returns (FilterContigsResults output) authentication required;
+
+    /*
+        Input for filtering several assemblies with the same settings.  The
+        filter settings have the same meaning as in FilterContigsParams.
+    */
+    typedef structure {
+        list<assembly_ref> assembly_input_refs;
+        string workspace_name;
+        int min_length;
+        boolean dedup;
+        boolean sort_by_length;
+        float min_kmer_entropy;
+        int kmer_size;
+    } FilterContigsBatchParams;
+
+    /*
+        Output of a batch filter.  results holds one entry per input
+        assembly, in the order of assembly_input_refs.
+    */
+    typedef structure {
+        string report_name;
+        string report_ref;
+        list<FilterContigsResults> results;
+    } FilterContigsBatchResults;
+
+    /*
+        Filter several assemblies with the same settings.  Downloads, filtering
+        and saves of the assemblies overlap, and one report covers all of them.
+        The per-assembly results do not have report fields.
+    */
+    funcdef filter_contigs_batch(FilterContigsBatchParams params)
+        returns (FilterContigsBatchResults output) authentication required;
+
     funcdef do_nothing() returns ();
     funcdef do_nothing_but_auth() returns () authentication required;
     
@@ -211,6 +211,118 @@ Apps that run in the Narrative, your function should have the
  
 
 
+=head2 filter_contigs_batch
+
+  $output = $obj->filter_contigs_batch($params)
+
+=over 4
+
+=item Parameter and return types
+
+=begin html
+
+<pre>
+$params is a SBMLTools.FilterContigsBatchParams
+$output is a SBMLTools.FilterContigsBatchResults
+FilterContigsBatchParams is a reference to a hash where the following keys are defined:
+	assembly_input_refs has a value which is a reference to a list where each element is a SBMLTools.assembly_ref
+	workspace_name has a value which is a string
+	min_length has a value which is an int
+	dedup has a value which is a SBMLTools.boolean
+	sort_by_length has a value which is a SBMLTools.boolean
+	min_kmer_entropy has a value which is a float
+	kmer_size has a value which is an int
+assembly_ref is a string
+boolean is an int
+FilterContigsBatchResults is a reference to a hash where the following keys are defined:
+	report_name has a value which is a string
+	report_ref has a value which is a string
+	results has a value which is a reference to a list where each element is a SBMLTools.FilterContigsResults
+
+</pre>
+
+=end html
+
+=begin text
+
+$params is a SBMLTools.FilterContigsBatchParams
+$output is a SBMLTools.FilterContigsBatchResults
+FilterContigsBatchParams is a reference to a hash where the following keys are defined:
+	assembly_input_refs has a value which is a reference to a list where each element is a SBMLTools.assembly_ref
+	workspace_name has a value which is a string
+	min_length has a value which is an int
+	dedup has a value which is a SBMLTools.boolean
+	sort_by_length has a value which is a SBMLTools.boolean
+	min_kmer_entropy has a value which is a float
+	kmer_size has a value which is an int
+assembly_ref is a string
+boolean is an int
+FilterContigsBatchResults is a reference to a hash where the following keys are defined:
+	report_name has a value which is a string
+	report_ref has a value which is a string
+	results has a value which is a reference to a list where each element is a SBMLTools.FilterContigsResults
+
+
+=end text
+
+=item Description
+
+Filter several assemblies with the same settings.  Downloads, filtering
+and saves of the assemblies overlap, and one report covers all of them.
+The per-assembly results do not have report fields.
+
+=back
+
+=cut
+
+ sub filter_contigs_batch
+{
+    my($self, @args) = @_;
+
+# Authentication: required
+
+    if ((my $n = @args) != 1)
+    {
+	Bio::KBase::Exceptions::ArgumentValidationError->throw(error =>
+							       "Invalid argument count for function filter_contigs_batch (received $n, expecting 1)");
+    }
+    {
+	my($params) = @args;
+
+	my @_bad_arguments;
+        (ref($params) eq 'HASH') or push(@_bad_arguments, "Invalid type for argument 1 \"params\" (value was \"$params\")");
+        if (@_bad_arguments) {
+	    my $msg = "Invalid arguments passed to filter_contigs_batch:\n" . join("", map { "\t$_\n" } @_bad_arguments);
+	    Bio::KBase::Exceptions::ArgumentValidationError->throw(error => $msg,
+								   method_name => 'filter_contigs_batch');
+	}
+    }
+
+    my $url = $self->{url};
+    my $result = $self->{client}->call($url, $self->{headers}, {
+	    method => "SBMLTools.filter_contigs_batch",
+	    params => \@args,
+    });
+    if ($result) {
+	if ($result->is_error) {
+	    Bio::KBase::Exceptions::JSONRPC->throw(error => $result->error_message,
+					       code => $result->content->{error}->{code},
+					       method_name => 'filter_contigs_batch',
+					       data => $result->content->{error}->{error} # JSON::RPC::ReturnObject only supports JSONRPC 1.1 or 1.O
+					      );
+	} else {
+	    return wantarray ? @{$result->result} : $result->result->[0];
+	}
+    } else {
+        Bio::KBase::Exceptions::HTTP->throw(error => "Error invoking method filter_contigs_batch",
+					    status_line => $self->{client}->status_line,
+					    method_name => 'filter_contigs_batch',
+				       );
+    }
+}
+ 
+
+
 =head2 do_nothing
 
   $obj->do_nothing()
@@ -23,7 +23,8 @@ class SBMLTools(object):
             self, url=None, timeout=30 * 60, user_id=None,
             password=None, token=None, ignore_authrc=False,
             trust_all_ssl_certificates=False,
-            auth_svc='https://kbase.us/services/authorization/Sessions/Login'):
+            auth_svc='https://kbase.us/services/authorization/Sessions/Login',
+            compression_min_size=1024):
         if url is None:
             raise ValueError('A url is required')
         self._service_ver = None
@@ -31,7 +32,7 @@ class SBMLTools(object):
             url, timeout=timeout, user_id=user_id, password=password,
             token=token, ignore_authrc=ignore_authrc,
             trust_all_ssl_certificates=trust_all_ssl_certificates,
-            auth_svc=auth_svc)
+            auth_svc=auth_svc, compression_min_size=compression_min_size)
 
     def filter_contigs_changed(self, params, context=None):
         """
@@ -74,6 +75,30 @@ class SBMLTools(object):
             'SBMLTools.filter_contigs_changed',
             [params], self._service_ver, context)
 
+    def filter_contigs_batch(self, params, context=None):
+        """
+        Filter several assemblies with the same settings.  Downloads, filtering
+        and saves of the assemblies overlap, and one report covers all of them.
+        The per-assembly results do not have report fields.
+        :param params: instance of type "FilterContigsBatchParams" (Input for
+           filtering several assemblies with the same settings.  The filter
+           settings have the same meaning as in FilterContigsParams.) ->
+           structure: parameter "assembly_input_refs" of list of type
+           "assembly_ref", parameter "workspace_name" of String, parameter
+           "min_length" of Long, parameter "dedup" of type "boolean" (A
+           boolean - 0 for false, 1 for true.), parameter "sort_by_length" of
+           type "boolean" (A boolean - 0 for false, 1 for true.), parameter
+           "min_kmer_entropy" of Double, parameter "kmer_size" of Long
+        :returns: instance of type "FilterContigsBatchResults" (Output of a
+           batch filter.  results holds one entry per input assembly, in the
+           order of assembly_input_refs.) -> structure: parameter
+           "report_name" of String, parameter "report_ref" of String,
+           parameter "results" of list of type "FilterContigsResults"
+        """
+        return self._client.call_method(
+            'SBMLTools.filter_contigs_batch',
+            [params], self._service_ver, context)
+
     def do_nothing(self, context=None):
         return self._client.call_method(
             'SBMLTools.do_nothing',
@@ -87,3 +112,18 @@ class SBMLTools(object):
     def status(self, context=None):
         return self._client.call_method('SBMLTools.status',
                                         [], self._service_ver, context)
+
+    def batch(self, calls, context=None):
+        """
+        Run several calls in one request. The calls run concurrently on the
+        server, so they must not depend on each other.
+        :param calls: a list of (method, params) pairs, where method is the
+           name of a method of this client and params the list of its
+           arguments, e.g. [('status', []),
+           ('filter_contigs_changed', [params])].
+        :returns: a list with the result of each call, in the order of the
+           calls. A call that failed has its ServerError in place of a result.
+        """
+        return self._client.call_batch(
+            [('SBMLTools.' + method, params) for method, params in calls],
+            self._service_ver, context)
@@ -11,6 +11,7 @@ import json as _json
 import requests as _requests
 import random as _random
 import os as _os
+import zlib as _zlib
 
 try:
     from configparser import ConfigParser as _ConfigParser  # py 3
@@ -26,6 +27,8 @@ import time
 _CT = 'content-type'
 _AJ = 'application/json'
 _URL_SCHEME = frozenset(['http', 'https'])
+_CE = 'content-encoding'
+_AE = 'accept-encoding'
 
 
 def _get_token(user_id, password, auth_svc):
@@ -93,6 +96,24 @@ class _JSONObjectEncoder(_json.JSONEncoder):
         return _json.JSONEncoder.default(self, obj)
 
 
+def _gzip(body):
+    # requests decompresses gzip responses, but does not compress requests
+    if not isinstance(body, bytes):
+        body = body.encode('utf-8')
+    comp = _zlib.compressobj(6, _zlib.DEFLATED, 16 + _zlib.MAX_WBITS)
+    return comp.compress(body) + comp.flush()
+
+
+def _unpack_result(resp):
+    if 'result' not in resp:
+        raise ServerError('Unknown', 0, 'An unknown server error occurred')
+    if not resp['result']:
+        return
+    if len(resp['result']) == 1:
+        return resp['result'][0]
+    return resp['result']
+
+
 class BaseClient(object):
     '''
     The KBase base client.
@@ -116,6 +137,9 @@ class BaseClient(object):
     lookup_url - set to true when contacting KBase dynamic services.
     async_job_check_time_ms - the wait time between checking job state for
         asynchronous jobs run with the run_job method.
+    compression_min_size - gzip compress requests of at least this many bytes,
+        once the service has said it accepts compressed requests. None
+        disables request compression. Default 1024.
     '''
     def __init__(
             self, url=None, timeout=30 * 60, user_id=None,
@@ -125,7 +149,8 @@ class BaseClient(object):
             lookup_url=False,
             async_job_check_time_ms=100,
             async_job_check_time_scale_percent=150,
-            async_job_check_max_time_ms=300000):
+            async_job_check_max_time_ms=300000,
+            compression_min_size=1024):
         if url is None:
             raise ValueError('A url is required')
         scheme, _, _, _, _, _ = _urlparse(url)
@@ -140,6 +165,9 @@ class BaseClient(object):
         self.async_job_check_time_scale_percent = (
             async_job_check_time_scale_percent)
         self.async_job_check_max_time = async_job_check_max_time_ms / 1000.0
+        self.compression_min_size = compression_min_size
+        # the hosts that have said they accept compressed requests
+        self._gzip_hosts = set()
         # token overrides user_id and password
         if token is not None:
             self._headers['AUTHORIZATION'] = token
@@ -161,6 +189,10 @@ class BaseClient(object):
             raise ValueError('Timeout value must be at least 1 second')
 
     def _call(self, url, method, params, context=None):
+        arg_hash = self._arg_hash(method, params, context)
+        return _unpack_result(self._post(url, arg_hash))
+
+    def _arg_hash(self, method, params, context=None):
         arg_hash = {'method': method,
                     'params': params,
                     'version': '1.1',
@@ -170,11 +202,22 @@ class BaseClient(object):
             if type(context) is not dict:
                 raise ValueError('context is not type dict as required.')
             arg_hash['context'] = context
+        return arg_hash
 
+    def _post(self, url, arg_hash):
         body = _json.dumps(arg_hash, cls=_JSONObjectEncoder)
-        ret = _requests.post(url, data=body, headers=self._headers,
+        headers = self._headers
+        host = _urlparse(url).netloc
+        if (self.compression_min_size is not None and
+                host in self._gzip_hosts and
+                len(body) >= self.compression_min_size):
+            body, headers = _gzip(body), dict(self._headers)
+            headers[_CE] = 'gzip'
+        ret = _requests.post(url, data=body, headers=headers,
                              timeout=self.timeout,
                              verify=not self.trust_all_ssl_certificates)
+        if 'gzip' in ret.headers.get(_AE, '').lower():
+            self._gzip_hosts.add(host)
         ret.encoding = 'utf-8'
         if ret.status_code == 500:
             if ret.headers.get(_CT) == _AJ:
@@ -187,14 +230,7 @@ class BaseClient(object):
                 raise ServerError('Unknown', 0, ret.text)
         if not ret.ok:
             ret.raise_for_status()
-        resp = ret.json()
-        if 'result' not in resp:
-            raise ServerError('Unknown', 0, 'An unknown server error occurred')
-        if not resp['result']:
-            return
-        if len(resp['result']) == 1:
-            return resp['result'][0]
-        return resp['result']
+        return ret.json()
 
     def _get_service_url(self, service_method, service_version):
         if not self.lookup_url:
@@ -266,3 +302,47 @@ class BaseClient(object):
         url = self._get_service_url(service_method, service_ver)
         context = self._set_up_context(service_ver, context)
         return self._call(url, service_method, args, context)
+
+    def call_batch(self, calls, service_ver=None, context=None):
+        '''
+        Call several methods of a standard or dynamic service in one
+        request. The service runs the calls concurrently, so they must not
+        depend on each other.
+        Required arguments:
+        calls - a list of (service_method, args) pairs, e.g.
+            [('myserv.mymeth', [params]), ('myserv.status', [])]. When
+            contacting a dynamic service, all the calls must be to the same
+            service.
+        Optional arguments:
+        service_ver - the version of the service to run, e.g. a git hash
+            or dev/beta/release.
+        context - the rpc context dict, used for every call.
+        Returns a list with the result of each call, in the order of the
+        calls. A call that failed has its ServerError in place of a result.
+        '''
+        if not calls:
+            return []
+        if self.lookup_url:
+            services = set(m.split('.')[0] for m, _ in calls)
+            if len(services) > 1:
+                raise ValueError('A batch to a dynamic service cannot call ' +
+                                 'more than one service: ' +
+                                 ', '.join(sorted(services)))
+        url = self._get_service_url(calls[0][0], service_ver)
+        context = self._set_up_context(service_ver, context)
+        arg_hashes = [self._arg_hash(m, a, context) for m, a in calls]
+        resp = self._post(url, arg_hashes)
+        if isinstance(resp, dict) and 'error' in resp:
+            # a service without batch support rejected the request as one call
+            raise ServerError(**resp['error'])
+        if not isinstance(resp, list) or len(resp) != len(calls):
+            raise ServerError('Unknown', 0,
+                              'Expected {} results from the batch'.format(
+                                  len(calls)))
+        results = []
+        for r in resp:
+            if r and r.get('error'):
+                results.append(ServerError(**r['error']))
+            else:
+                results.append(_unpack_result(r or {'result': None}))
+        return results
@@ -0,0 +1,290 @@
+package sbmltools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of downloaded assembly FASTA files on local disk, keyed by
+ * resolved workspace reference.
+ * <p>
+ * A versioned workspace object never changes, so a file downloaded for a
+ * <code>ws/obj/ver</code> reference can be served to any later request for the
+ * same reference. Callers must resolve references, and so check the user's
+ * access to the object, before looking them up. The total size of the cached
+ * files is bounded; the least recently used files are deleted first. A file
+ * is handed out as a {@link Lease} and is not deleted while leased, so the
+ * cache may exceed its limit until the leases on the files to be evicted are
+ * closed. Closing the cache deletes its files and directory. Instances are
+ * thread safe.
+ */
+public class AssemblyCache implements Closeable {
+
+    private final Path dir;
+    private final long maxBytes;
+    // in access order, so the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long fileCount = 0;
+    private boolean closed = false;
+
+    /** Create a cache.
+     * @param dir the directory in which to keep the cached files. It should be
+     * on the same file system as the downloaded files, so they are moved into
+     * it rather than copied.
+     * @param maxBytes the most bytes of files to keep.
+     * @throws IOException if the directory cannot be created.
+     */
+    public AssemblyCache(final Path dir, final long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes cannot be negative");
+        }
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+    }
+
+    /** Get the most bytes of files the cache keeps.
+     * @return the size limit.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Get the total size of the cached files.
+     * @return the size in bytes.
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    /** Get the number of cached files.
+     * @return the number of files.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /** Get the number of lookups that found a cached file.
+     * @return the hit count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Get the number of lookups that did not find a cached file.
+     * @return the miss count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Look up the file for an assembly.
+     * @param ref the resolved <code>ws/obj/ver</code> reference of the
+     * assembly.
+     * @return a lease on the cached file, or null if the assembly is not
+     * cached.
+     */
+    public synchronized Lease get(final String ref) {
+        final Entry e = entries.get(ref);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new Lease(e);
+    }
+
+    /** Add a downloaded assembly to the cache. The file is moved into the
+     * cache directory, unless it is larger than the cache or the assembly is
+     * already cached. A file larger than the cache is left where it is, and
+     * deleted when its last lease is closed; a file for an assembly already
+     * cached is deleted at once. Once the cache is closed, every file is
+     * treated as too large for it.
+     * @param ref the resolved <code>ws/obj/ver</code> reference of the
+     * assembly.
+     * @param file the downloaded FASTA file.
+     * @param assemblyName the name of the assembly.
+     * @return a lease on the file.
+     * @throws IOException if the file cannot be moved.
+     */
+    public Lease put(final String ref, final Path file, final String assemblyName)
+            throws IOException {
+        final long size = Files.size(file);
+        if (size > maxBytes) {
+            return new Lease(new Entry(ref, file, assemblyName, size));
+        }
+        synchronized (this) {
+            if (closed) {
+                return new Lease(new Entry(ref, file, assemblyName, size));
+            }
+            final Entry existing = entries.get(ref);
+            if (existing != null) {
+                Files.deleteIfExists(file);
+                return new Lease(existing);
+            }
+            final Path cached = dir.resolve("assembly_" + fileCount++ + ".fasta");
+            Files.move(file, cached);
+            final Entry e = new Entry(ref, cached, assemblyName, size);
+            e.cached = true;
+            final Lease lease = new Lease(e);
+            entries.put(ref, e);
+            bytes += size;
+            evict();
+            return lease;
+        }
+    }
+
+    private void evict() throws IOException {
+        final Iterator<Entry> iter = entries.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            final Entry e = iter.next();
+            if (e.leases == 0) {
+                iter.remove();
+                bytes -= e.size;
+                e.cached = false;
+                Files.deleteIfExists(e.path);
+            }
+        }
+    }
+
+    private synchronized void release(final Entry e) throws IOException {
+        e.leases--;
+        if (e.leases == 0) {
+            if (e.cached) {
+                evict();
+            } else {
+                // too large to cache, or already evicted
+                Files.deleteIfExists(e.path);
+                if (closed) {
+                    deleteDir();
+                }
+            }
+        }
+    }
+
+    /** Delete the cached files and the cache directory, and cache no more
+     * files. Files that are leased are deleted when their last leases are
+     * closed, and the directory with the last of them.
+     * @throws IOException if a file cannot be deleted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        final Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            final Entry e = iter.next();
+            iter.remove();
+            bytes -= e.size;
+            e.cached = false;
+            if (e.leases == 0) {
+                Files.deleteIfExists(e.path);
+            }
+        }
+        deleteDir();
+    }
+
+    private void deleteDir() throws IOException {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (DirectoryNotEmptyException e) {
+            // leased files remain
+        }
+    }
+
+    private static class Entry {
+
+        private final String ref;
+        private final Path path;
+        private final String assemblyName;
+        private final long size;
+        private int leases = 0;
+        private boolean cached = false;
+
+        private Entry(
+                final String ref,
+                final Path path,
+                final String assemblyName,
+                final long size) {
+            this.ref = ref;
+            this.path = path;
+            this.assemblyName = assemblyName;
+            this.size = size;
+        }
+    }
+
+    /** A cached assembly file, which is kept until the lease is closed. */
+    public class Lease implements Closeable {
+
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Lease(final Entry entry) {
+            this.entry = entry;
+            synchronized (AssemblyCache.this) {
+                entry.leases++;
+            }
+        }
+
+        /** Get the resolved reference of the assembly.
+         * @return the reference.
+         */
+        public String getRef() {
+            return entry.ref;
+        }
+
+        /** Get the path of the FASTA file.
+         * @return the path.
+         */
+        public Path getPath() {
+            return entry.path;
+        }
+
+        /** Get the name of the assembly.
+         * @return the assembly name.
+         */
+        public String getAssemblyName() {
+            return entry.assemblyName;
+        }
+
+        /** Get another lease on the same file, for another user of it. This
+         * lease must still be open.
+         * @return the new lease.
+         */
+        public Lease share() {
+            synchronized (AssemblyCache.this) {
+                if (closed) {
+                    throw new IllegalStateException("The lease is closed");
+                }
+                return new Lease(entry);
+            }
+        }
+
+        /** Check whether the file is kept in the cache, rather than being too
+         * large for it.
+         * @return true if the file is cached.
+         */
+        public boolean isCached() {
+            synchronized (AssemblyCache.this) {
+                return entry.cached;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (AssemblyCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(entry);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import assemblyutil.FastaAssemblyFile;
+import assemblyutil.GetAssemblyParams;
+import sbmltools.transport.JobFuture;
+
+/**
+ * Gets assembly FASTA files from an {@link AssemblyCache}, downloading them
+ * with AssemblyUtil on a miss.
+ * <p>
+ * Requests that need the same uncached assembly at once wait for a single
+ * download, and each gets its own lease on the cached file. Downloads are
+ * AssemblyUtil jobs polled by the client's job tracker, so no thread is held
+ * by a download; a request that waits for one stops waiting once its job is
+ * cancelled or runs out of time, and the download is left to finish into the
+ * cache, as other requests may be waiting for it. Instances are thread safe.
+ */
+public class AssemblyDownloads {
+
+    // how often a waiting job checks whether it was cancelled
+    private static final long CANCEL_CHECK_MS = 1000;
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private final AssemblyCache cache;
+    private final SingleFlight<String, AssemblyCache.Lease> flights =
+            new SingleFlight<String, AssemblyCache.Lease>(
+                    new SingleFlight.Sharing<AssemblyCache.Lease>() {
+                        @Override
+                        public AssemblyCache.Lease share(final AssemblyCache.Lease lease) {
+                            return lease.share();
+                        }
+
+                        @Override
+                        public void release(final AssemblyCache.Lease lease)
+                                throws IOException {
+                            lease.close();
+                        }
+                    });
+
+    /** Create a downloader.
+     * @param cache the cache that holds the downloaded files.
+     */
+    public AssemblyDownloads(final AssemblyCache cache) {
+        if (cache == null) {
+            throw new NullPointerException("cache");
+        }
+        this.cache = cache;
+    }
+
+    /** Get the cache that holds the downloaded files.
+     * @return the cache.
+     */
+    public AssemblyCache getCache() {
+        return cache;
+    }
+
+    /** Get the number of downloads in progress.
+     * @return the download count.
+     */
+    public int getInFlight() {
+        return flights.getInFlight();
+    }
+
+    /** Get an assembly from the cache, downloading it on a miss, or waiting for
+     * another request's download of it.
+     * @param assyUtil the client to download with.
+     * @param ref the reference to download, which may be a reference path the
+     * resolved reference alone would not grant access through.
+     * @param resolvedRef the resolved <code>ws/obj/ver</code> reference of the
+     * assembly, which the caller has checked the user can read.
+     * @param control the control of the job the assembly is for.
+     * @return a lease on the FASTA file.
+     * @throws JobControl.JobCancelledException if the job is cancelled or runs
+     * out of time while waiting for the download.
+     * @throws Exception if the download fails.
+     */
+    public AssemblyCache.Lease get(
+            final PooledAssemblyUtilClient assyUtil,
+            final String ref,
+            final String resolvedRef,
+            final JobControl control)
+            throws Exception {
+        final AssemblyCache.Lease cached = cache.get(resolvedRef);
+        if (cached != null) {
+            System.out.println("Using cached assembly " + resolvedRef);
+            return cached;
+        }
+        final SingleFlight<String, AssemblyCache.Lease>.Flight flight =
+                join(assyUtil, ref, resolvedRef);
+        try {
+            while (true) {
+                control.check();
+                try {
+                    return flight.get(Math.max(1, Math.min(
+                            CANCEL_CHECK_MS, control.getRemainingMs())), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // check again
+                }
+            }
+        } finally {
+            flight.leave();
+        }
+    }
+
+    /** Join the download of an assembly, starting it if the assembly is neither
+     * cached nor being downloaded. The flight completes with a lease on the
+     * file once it is in the cache. The caller must get the result of the
+     * flight or leave it.
+     * @param assyUtil the client to download with.
+     * @param ref the reference to download.
+     * @param resolvedRef the resolved <code>ws/obj/ver</code> reference of the
+     * assembly.
+     * @return the caller's place in the download.
+     * @throws Exception if the download cannot be started.
+     */
+    public SingleFlight<String, AssemblyCache.Lease>.Flight join(
+            final PooledAssemblyUtilClient assyUtil,
+            final String ref,
+            final String resolvedRef)
+            throws Exception {
+        final SingleFlight<String, AssemblyCache.Lease>.Flight flight = flights.join(resolvedRef);
+        if (!flight.isLeader()) {
+            return flight;
+        }
+        // a download that finished since the caller's lookup is in the cache now
+        final AssemblyCache.Lease cached = cache.get(resolvedRef);
+        if (cached != null) {
+            flight.complete(cached);
+            return flight;
+        }
+        final JobFuture<FastaAssemblyFile> download;
+        try {
+            download = assyUtil.getAssemblyAsFastaAsync(new GetAssemblyParams().withRef(ref));
+        } catch (Exception e) {
+            flight.fail(e);
+            flight.leave();
+            throw e;
+        }
+        download.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final FastaAssemblyFile file = download.get();
+                    flight.complete(cache.put(resolvedRef, Paths.get(file.getPath()),
+                            file.getAssemblyName()));
+                } catch (ExecutionException e) {
+                    flight.fail(e.getCause());
+                } catch (Throwable e) {
+                    flight.fail(e);
+                }
+            }
+        }, SAME_THREAD);
+        return flight;
+    }
+}
@@ -0,0 +1,195 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits an indexed FASTA file into shards of about equal total length.
+ * <p>
+ * Contigs are assigned with greedy bin packing: longest first, each to the
+ * shard with the fewest bases so far. No shard ends up more than one contig
+ * length above the mean. Each shard keeps the contigs in file order, and is
+ * written by copying the bytes of its records from the input, so headers and
+ * line breaks are preserved without parsing the sequences again.
+ */
+public class AssemblySharder {
+
+    private AssemblySharder() {}
+
+    /** Assign contigs to shards.
+     * @param lengths the contig lengths.
+     * @param shards the number of shards.
+     * @return the shard of each contig, in the order of lengths.
+     */
+    public static int[] assign(final long[] lengths, final int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be at least 1");
+        }
+        /* Sorting longs keeps this primitive: the high word orders by
+         * descending length and the low word is the contig.
+         */
+        final long[] keys = new long[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] < 0 || lengths[i] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid contig length: " + lengths[i]);
+            }
+            keys[i] = ((Integer.MAX_VALUE - lengths[i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        // shard totals in a binary heap, the smallest at the root
+        final long[] totals = new long[shards];
+        final int[] heap = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            heap[i] = i;
+        }
+        final int[] assignment = new int[lengths.length];
+        for (final long key: keys) {
+            final int contig = (int) key;
+            final int shard = heap[0];
+            assignment[contig] = shard;
+            totals[shard] += lengths[contig];
+            siftDown(heap, totals);
+        }
+        return assignment;
+    }
+
+    private static void siftDown(final int[] heap, final long[] totals) {
+        int i = 0;
+        while (true) {
+            final int left = 2 * i + 1;
+            if (left >= heap.length) {
+                return;
+            }
+            int child = left;
+            if (left + 1 < heap.length && less(heap[left + 1], heap[left], totals)) {
+                child = left + 1;
+            }
+            if (!less(heap[child], heap[i], totals)) {
+                return;
+            }
+            final int t = heap[i];
+            heap[i] = heap[child];
+            heap[child] = t;
+            i = child;
+        }
+    }
+
+    // ties go to the lower numbered shard so the assignment is deterministic
+    private static boolean less(final int a, final int b, final long[] totals) {
+        return totals[a] < totals[b] || (totals[a] == totals[b] && a < b);
+    }
+
+    /** Split a FASTA file into shards, writing the shards in parallel.
+     * Empty shards, which occur when there are fewer contigs than shards, are
+     * not written.
+     * @param fasta a FASTA file written by {@link FastaWriter}.
+     * @param index the index of the file.
+     * @param shards the number of shards.
+     * @param outputDir the directory in which to create the shard files.
+     * @param pool the threads on which to write the shards.
+     * @return the shard files.
+     * @throws IOException if a file cannot be read or written.
+     * @throws InterruptedException if interrupted while waiting for the
+     * shards to be written.
+     */
+    public static List<Path> shard(
+            final Path fasta,
+            final FastaIndex index,
+            final int shards,
+            final Path outputDir,
+            final ExecutorService pool)
+            throws IOException, InterruptedException {
+        final List<FastaIndex.Entry> entries = index.getEntries();
+        final long[] lengths = new long[entries.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = entries.get(i).getLength();
+        }
+        final int[] assignment = assign(lengths, shards);
+        // the byte range of each record runs from the end of the previous one
+        final List<List<long[]>> ranges = new ArrayList<List<long[]>>();
+        for (int i = 0; i < shards; i++) {
+            ranges.add(new ArrayList<long[]>());
+        }
+        long start = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            final long end = entries.get(i).getEnd();
+            final List<long[]> r = ranges.get(assignment[i]);
+            if (!r.isEmpty() && r.get(r.size() - 1)[1] == start) {
+                r.get(r.size() - 1)[1] = end;
+            } else {
+                r.add(new long[] {start, end});
+            }
+            start = end;
+        }
+        final List<Path> files = new ArrayList<Path>();
+        final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+        try {
+            for (final List<long[]> r: ranges) {
+                if (r.isEmpty()) {
+                    continue;
+                }
+                final Path out = Files.createTempFile(outputDir, "shard", ".fasta");
+                files.add(out);
+                writes.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        copyRanges(fasta, r, out);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> f: writes) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            cancel(writes, files);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write shard", e.getCause());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            cancel(writes, files);
+            throw e;
+        }
+        return files;
+    }
+
+    private static void cancel(final List<Future<Void>> writes, final List<Path> files)
+            throws IOException {
+        for (final Future<Void> f: writes) {
+            f.cancel(true);
+        }
+        for (final Path p: files) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    private static void copyRanges(final Path fasta, final List<long[]> ranges, final Path out)
+            throws IOException {
+        try (final FileChannel in = FileChannel.open(fasta, StandardOpenOption.READ);
+                final FileChannel o = FileChannel.open(out, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (final long[] r: ranges) {
+                long pos = r[0];
+                while (pos < r[1]) {
+                    final long n = in.transferTo(pos, r[1] - pos, o);
+                    if (n <= 0) {
+                        throw new IOException(String.format(
+                                "FASTA file %s is shorter than its index", fasta));
+                    }
+                    pos += n;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package sbmltools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.common.service.JsonServerSyslog;
+
+/**
+ * Runs asynchronous jobs from a queue directory in one long lived JVM, rather
+ * than starting a JVM for each job.
+ * <p>
+ * The server, with its assembly cache and anything else it keeps between
+ * calls, is created once and serves every job, and code compiled by the JIT
+ * stays compiled. The queue directory has three subdirectories:
+ * <ul>
+ * <li><code>incoming</code>, where a job is submitted as a directory holding
+ * the job's <code>input.json</code> and <code>token</code> files, in the form
+ * the one shot job script takes them. The job directory must be written
+ * elsewhere on the same file system and moved into <code>incoming</code>, so
+ * the worker never sees a partly written job. Jobs are run in the order of
+ * their directory names.</li>
+ * <li><code>running</code>, into which the worker moves a job while it runs.
+ * The move is atomic, so several workers may serve one queue. Before moving a
+ * job the worker locks a file named <code>worker.lock</code> in the job's
+ * directory, and it holds the lock until the job is done.</li>
+ * <li><code>done</code>, into which the worker moves a finished job, with its
+ * <code>output.json</code> and log. The token and lock files are deleted.</li>
+ * </ul>
+ * A job is cancelled by creating a file named <code>cancel</code> in its
+ * directory. A job cancelled before it starts is not run, and a running job
+ * is asked to stop, which a long job does at its next check, cleaning up what
+ * it wrote to scratch; either way the job's output is an error. While a job
+ * runs, the worker writes its progress, as reported by the job runner, to
+ * <code>progress.json</code> in the job's directory about once a second,
+ * replacing the file atomically, so the job's submitter can show it.
+ * The worker stops, after the job it is running, when a file named
+ * <code>stop</code> appears in the queue directory, or when no job has
+ * arrived for the idle time given on the command line. A job in
+ * <code>running</code> whose lock no worker holds when a worker starts was
+ * interrupted by a worker that died, since the operating system releases a
+ * dead process's locks; it is not run again, since it may have partly run,
+ * and is moved to <code>done</code> with an error as its output. Jobs locked
+ * by live workers are left to them.
+ */
+public class AsyncJobWorker {
+
+    /** The default time between checks for new jobs. */
+    public static final long DEFAULT_POLL_MS = 200;
+
+    // how long a stopped worker waits for its job to stop before exiting
+    private static final long SHUTDOWN_WAIT_MS = 30000;
+
+    // the least time between writes of a running job's progress
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+
+    // held by the worker running a job, in the job's directory
+    private static final String LOCK_FILE = "worker.lock";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Runs one job. */
+    public interface JobRunner {
+
+        /** Run a job.
+         * @param input the job's input file.
+         * @param output the file to write the job's output to.
+         * @param token the user's token.
+         * @throws Exception if the job could not be run. Errors in the called
+         * method should be written to the output instead.
+         */
+        void run(File input, File output, String token) throws Exception;
+
+        /** Cancel the job that is running. Called from another thread.
+         * @param reason why the job was cancelled.
+         */
+        void cancel(String reason);
+
+        /** Get the progress of the job that is running. Called from another
+         * thread.
+         * @return the progress, which is written as JSON, or null if there is
+         * none to report.
+         */
+        Object getProgress();
+    }
+
+    private final Path incoming;
+    private final Path running;
+    private final Path done;
+    private final Path stopFile;
+    private final JobRunner runner;
+    private long jobsRun = 0;
+    private long cancelPollMs = DEFAULT_POLL_MS;
+    private volatile boolean stopped = false;
+
+    /** Create a worker.
+     * @param queueDir the queue directory. Its subdirectories are created if
+     * they do not exist.
+     * @param runner runs each job.
+     * @throws IOException if the subdirectories cannot be created.
+     */
+    public AsyncJobWorker(final Path queueDir, final JobRunner runner) throws IOException {
+        this.incoming = Files.createDirectories(queueDir.resolve("incoming"));
+        this.running = Files.createDirectories(queueDir.resolve("running"));
+        this.done = Files.createDirectories(queueDir.resolve("done"));
+        this.stopFile = queueDir.resolve("stop");
+        this.runner = runner;
+    }
+
+    /** Set the time between checks for a cancel file in a running job's
+     * directory.
+     * @param pollMs the time in milliseconds.
+     */
+    public void setCancelPollMs(final long pollMs) {
+        if (pollMs < 1) {
+            throw new IllegalArgumentException("The poll time must be at least 1 ms");
+        }
+        cancelPollMs = pollMs;
+    }
+
+    /** Stop {@link #runUntilStopped(long, long)} after the job it is running.
+     * May be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /** Get the number of jobs this worker has run.
+     * @return the job count.
+     */
+    public long getJobsRun() {
+        return jobsRun;
+    }
+
+    /** Fail any jobs left running by a worker that died. Jobs that other
+     * workers are running are not touched.
+     * @return the number of jobs failed.
+     * @throws IOException if a job cannot be moved.
+     */
+    public int failInterruptedJobs() throws IOException {
+        int failed = 0;
+        for (final Path job: list(running)) {
+            final FileLock lock = lock(job);
+            if (lock == null) {
+                // a live worker is running it
+                continue;
+            }
+            try {
+                if (!Files.isDirectory(job)) {
+                    // it finished after it was listed
+                    continue;
+                }
+                final Path output = job.resolve("output.json");
+                if (!Files.exists(output)) {
+                    writeError(output, "The worker running the job stopped before it finished");
+                }
+                finish(job);
+                failed++;
+            } finally {
+                lock.channel().close();
+            }
+        }
+        return failed;
+    }
+
+    /** Run the next job in the queue, if there is one.
+     * @return true if a job was run.
+     * @throws IOException if the queue cannot be read or a job cannot be
+     * moved.
+     */
+    public boolean runNext() throws IOException {
+        for (final Path job: list(incoming)) {
+            // locked before the move, so the job is never in running unlocked
+            final FileLock lock = lock(job);
+            if (lock == null) {
+                // another worker is claiming it
+                continue;
+            }
+            try {
+                final Path claimed = running.resolve(job.getFileName());
+                try {
+                    Files.move(job, claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                    // another worker claimed it
+                    continue;
+                } catch (AtomicMoveNotSupportedException e) {
+                    throw new IOException("The queue directory must be on a file system " +
+                            "that supports atomic moves", e);
+                }
+                run(claimed);
+                finish(claimed);
+                jobsRun++;
+                return true;
+            } finally {
+                lock.channel().close();
+            }
+        }
+        return false;
+    }
+
+    /** Run jobs until stopped.
+     * @param pollMs the time between checks for new jobs.
+     * @param idleExitMs stop when no job has arrived for this long, or 0 to
+     * run until the stop file appears.
+     * @throws IOException if the queue cannot be read or a job cannot be
+     * moved.
+     * @throws InterruptedException if the worker is interrupted.
+     */
+    public void runUntilStopped(final long pollMs, final long idleExitMs)
+            throws IOException, InterruptedException {
+        long lastJob = System.nanoTime();
+        while (!stopped && !Files.exists(stopFile)) {
+            if (runNext()) {
+                lastJob = System.nanoTime();
+            } else if (idleExitMs > 0 &&
+                    (System.nanoTime() - lastJob) / 1000000 >= idleExitMs) {
+                return;
+            } else {
+                Thread.sleep(pollMs);
+            }
+        }
+    }
+
+    private void run(final Path job) throws IOException {
+        final Path input = job.resolve("input.json");
+        final Path tokenFile = job.resolve("token");
+        final Path output = job.resolve("output.json");
+        final Path cancelFile = job.resolve("cancel");
+        Thread watcher = null;
+        try {
+            if (!Files.isRegularFile(input)) {
+                writeError(output, "The job has no input.json file");
+                return;
+            }
+            if (Files.exists(cancelFile)) {
+                writeError(output, "The job was cancelled before it started");
+                return;
+            }
+            final String token = Files.isRegularFile(tokenFile) ? new String(
+                    Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim() : null;
+            watcher = watch(job);
+            runner.run(input.toFile(), output.toFile(), token);
+            if (!Files.exists(output)) {
+                writeError(output, "The job wrote no output");
+            }
+        } catch (Exception e) {
+            writeError(output, "The job could not be run: " + e);
+        } finally {
+            if (watcher != null) {
+                watcher.interrupt();
+            }
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /* Writes the running job's progress while it changes, and cancels the job
+     * when its cancel file appears.
+     */
+    private Thread watch(final Path job) {
+        final Path cancelFile = job.resolve("cancel");
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] written = null;
+                    long nextWrite = System.nanoTime();
+                    while (!Files.exists(cancelFile)) {
+                        final long now = System.nanoTime();
+                        if (now - nextWrite >= 0) {
+                            written = writeProgress(job, written);
+                            nextWrite = now + TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MS);
+                        }
+                        Thread.sleep(cancelPollMs);
+                    }
+                    runner.cancel("The job was cancelled");
+                } catch (InterruptedException e) {
+                    // the job finished
+                }
+            }
+        }, "async-job-watcher");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // returns what was written, or the previous progress if it has not changed
+    private byte[] writeProgress(final Path job, final byte[] previous) {
+        try {
+            final Object progress = runner.getProgress();
+            if (progress == null) {
+                return previous;
+            }
+            final byte[] bytes = MAPPER.writeValueAsBytes(progress);
+            if (previous != null && Arrays.equals(bytes, previous)) {
+                return previous;
+            }
+            final Path tmp = job.resolve("progress.json.tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, job.resolve("progress.json"), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return bytes;
+        } catch (IOException | RuntimeException e) {
+            // progress is only informational, and the job may have just finished
+            return previous;
+        }
+    }
+
+    private void finish(final Path job) throws IOException {
+        Files.deleteIfExists(job.resolve("token"));
+        Path target = done.resolve(job.getFileName());
+        for (int i = 1; Files.exists(target); i++) {
+            // a job of the same name was run before
+            target = done.resolve(job.getFileName() + "." + i);
+        }
+        Files.move(job, target, StandardCopyOption.ATOMIC_MOVE);
+        // deleted only once moved, so no other worker can lock a new file in its place
+        Files.deleteIfExists(target.resolve(LOCK_FILE));
+    }
+
+    /* Locks a job's lock file. The lock moves with the job's directory and is
+     * released when its channel is closed, or by the operating system when
+     * the worker dies. Returns null if another worker, in this process or
+     * another, holds the lock, or if the job is gone.
+     */
+    private static FileLock lock(final Path job) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(job.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+            return lock;
+        } catch (OverlappingFileLockException e) {
+            // held by another worker in this process
+            return null;
+        } finally {
+            if (lock == null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static List<Path> list(final Path dir) throws IOException {
+        final List<Path> ret = new ArrayList<Path>();
+        try (final DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (final Path p: ds) {
+                if (Files.isDirectory(p)) {
+                    ret.add(p);
+                }
+            }
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static void writeError(final Path output, final String message) throws IOException {
+        final Map<String, Object> error = new LinkedHashMap<String, Object>();
+        error.put("name", "JSONRPCError");
+        error.put("code", -32603);
+        error.put("message", message);
+        error.put("error", message);
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("version", "1.1");
+        ret.put("error", error);
+        Files.write(output, MAPPER.writeValueAsBytes(ret));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: <program> <queue_dir> [<idle_exit_seconds>]");
+            return;
+        }
+        final long idleExitMs = args.length > 1 ? Long.parseLong(args[1]) * 1000 : 0;
+        JsonServerSyslog.setStaticUseSyslog(false);
+        final SBMLToolsServer server = new SBMLToolsServer();
+        final AsyncJobWorker worker = new AsyncJobWorker(Paths.get(args[0]), new JobRunner() {
+            @Override
+            public void run(final File input, final File output, final String token) {
+                JsonServerSyslog.setStaticMlogFile(output.getPath() + ".log");
+                server.processJob(input, output, token);
+            }
+
+            @Override
+            public void cancel(final String reason) {
+                server.cancelRunningJobs(reason);
+            }
+
+            @Override
+            public Object getProgress() {
+                final List<Map<String, Object>> jobs = server.getRunningJobProgress();
+                return jobs.isEmpty() ? null : jobs.get(0);
+            }
+        });
+        /* a worker stopped by a signal, as when its container is stopped,
+         * cancels the running job and gives it time to clean up scratch and
+         * record its error
+         */
+        final Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                worker.stop();
+                server.cancelRunningJobs("The worker was stopped");
+                try {
+                    mainThread.join(SHUTDOWN_WAIT_MS);
+                } catch (InterruptedException e) {
+                    // exit now
+                }
+            }
+        });
+        final int failed = worker.failInterruptedJobs();
+        if (failed > 0) {
+            System.out.println("Failed " + failed + " jobs left running by a worker that died");
+        }
+        try {
+            worker.runUntilStopped(DEFAULT_POLL_MS, idleExitMs);
+        } finally {
+            server.destroy();
+        }
+        System.out.println("Worker stopped after " + worker.getJobsRun() + " jobs");
+    }
+}
@@ -0,0 +1,238 @@
+package sbmltools;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a BGZF (blocked gzip) stream, inflating blocks in parallel.
+ * <p>
+ * BGZF files are a series of independent gzip members of at most 64KB, each
+ * recording its compressed size in a 'BC' extra field. This stream reads the
+ * compressed blocks on the calling thread, which is cheap, hands them to a
+ * thread pool to inflate, and returns the inflated blocks in file order. At
+ * most a fixed number of blocks are in flight, which bounds memory use.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final InputStream in;
+    private final ExecutorService pool;
+    private final int readAhead;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private byte[] current = new byte[0];
+    private int pos = 0;
+    private boolean eof = false;
+    private long blocks = 0;
+
+    /** Create a stream.
+     * @param in the compressed data. The stream is closed with this stream.
+     * @param pool the threads on which to inflate blocks.
+     * @param readAhead the maximum number of blocks to inflate ahead of the
+     * reader.
+     */
+    public BgzfInputStream(final InputStream in, final ExecutorService pool, final int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead must be at least 1");
+        }
+        this.in = in;
+        this.pool = pool;
+        this.readAhead = readAhead;
+    }
+
+    /** Check whether the start of a stream is the header of a BGZF block.
+     * @param b the first bytes of the stream.
+     * @param length the number of valid bytes in b.
+     * @return true if the stream is BGZF.
+     */
+    public static boolean isBgzf(final byte[] b, final int length) {
+        if (length < 16 || (b[0] & 0xff) != 31 || (b[1] & 0xff) != 139 || b[2] != 8
+                || (b[3] & 4) == 0) {
+            return false;
+        }
+        return b[12] == 'B' && b[13] == 'C';
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        final int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (pos == current.length) {
+            fillQueue();
+            final Future<byte[]> f = pending.poll();
+            if (f == null) {
+                return false;
+            }
+            try {
+                current = f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while inflating BGZF block", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to inflate BGZF block", e.getCause());
+            }
+            pos = 0;
+        }
+        return true;
+    }
+
+    private void fillQueue() throws IOException {
+        while (!eof && pending.size() < readAhead) {
+            final byte[] block = readBlock();
+            if (block == null) {
+                eof = true;
+                return;
+            }
+            final long blockNum = blocks++;
+            pending.add(pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return inflate(block, blockNum);
+                }
+            }));
+        }
+    }
+
+    /* Returns the part of the block after the extra field, i.e. the deflated
+     * data followed by the CRC32 and the inflated size, or null at the end of
+     * the stream.
+     */
+    private byte[] readBlock() throws IOException {
+        final int first = readFully(header, 0, HEADER_SIZE);
+        if (first == 0) {
+            return null;
+        }
+        if (first < HEADER_SIZE || (header[0] & 0xff) != 31 || (header[1] & 0xff) != 139
+                || header[2] != 8 || (header[3] & 4) == 0) {
+            throw new IOException("Invalid BGZF block header at block " + blocks);
+        }
+        final int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        final byte[] extra = new byte[xlen];
+        if (readFully(extra, 0, xlen) < xlen) {
+            throw new EOFException("Truncated BGZF block " + blocks);
+        }
+        int bsize = -1;
+        for (int i = 0; i + 4 <= xlen; ) {
+            final int slen = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= xlen) {
+                bsize = (extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8;
+            }
+            i += 4 + slen;
+        }
+        if (bsize < 0) {
+            throw new IOException("BGZF block " + blocks + " has no BC extra field");
+        }
+        final int rest = bsize + 1 - HEADER_SIZE - xlen;
+        if (rest < TRAILER_SIZE) {
+            throw new IOException("Invalid BGZF block size at block " + blocks);
+        }
+        final byte[] block = new byte[rest];
+        if (readFully(block, 0, rest) < rest) {
+            throw new EOFException("Truncated BGZF block " + blocks);
+        }
+        return block;
+    }
+
+    private static byte[] inflate(final byte[] block, final long blockNum) throws IOException {
+        final int t = block.length - TRAILER_SIZE;
+        final long crc = (block[t] & 0xffL) | (block[t + 1] & 0xffL) << 8
+                | (block[t + 2] & 0xffL) << 16 | (block[t + 3] & 0xffL) << 24;
+        final int isize = (block[t + 4] & 0xff) | (block[t + 5] & 0xff) << 8
+                | (block[t + 6] & 0xff) << 16 | (block[t + 7] & 0xff) << 24;
+        if (isize < 0 || isize > 1 << 16) {
+            throw new IOException("Invalid inflated size in BGZF block " + blockNum);
+        }
+        final byte[] out = new byte[isize];
+        final Inflater inf = INFLATER.get();
+        inf.reset();
+        inf.setInput(block, 0, t);
+        int n = 0;
+        try {
+            while (n < isize) {
+                final int k = inf.inflate(out, n, isize - n);
+                if (k == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block " + blockNum + ": " + e.getMessage(), e);
+        }
+        if (n != isize) {
+            throw new IOException("BGZF block " + blockNum + " inflated to " + n +
+                    " bytes, expected " + isize);
+        }
+        final CRC32 check = new CRC32();
+        check.update(out, 0, n);
+        if (check.getValue() != crc) {
+            throw new IOException("CRC mismatch in BGZF block " + blockNum);
+        }
+        return out;
+    }
+
+    private int readFully(final byte[] b, final int off, final int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            final int k = in.read(b, off + n, len - n);
+            if (k < 0) {
+                break;
+            }
+            n += k;
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Future<byte[]> f: pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        in.close();
+    }
+}
@@ -0,0 +1,163 @@
+package sbmltools;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens files that may be plain, gzip compressed or BGZF compressed. The
+ * format is detected from the first bytes of the file, not its name.
+ */
+public final class CompressedInput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int GZIP_HEADER_SIZE = 12;
+    private static final long ISIZE_MODULUS = 1L << 32;
+
+    private static ExecutorService inflatePool = null;
+
+    private CompressedInput() {}
+
+    /* The pool is shared by all BGZF streams in the process, so concurrent
+     * jobs do not each start a thread per core.
+     */
+    private static synchronized ExecutorService getInflatePool() {
+        if (inflatePool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            inflatePool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "bgzf-inflate-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return inflatePool;
+    }
+
+    /** Open a file for reading, decompressing it if required. BGZF files are
+     * inflated in parallel, other gzip files on the calling thread.
+     * @param file the file to open.
+     * @return a stream of the uncompressed contents of the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static InputStream open(final Path file) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(
+                Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            final byte[] magic = new byte[16];
+            in.mark(magic.length);
+            int n = 0;
+            while (n < magic.length) {
+                final int k = in.read(magic, n, magic.length - n);
+                if (k < 0) {
+                    break;
+                }
+                n += k;
+            }
+            in.reset();
+            if (BgzfInputStream.isBgzf(magic, n)) {
+                return new BgzfInputStream(in, getInflatePool(), THREADS * 4);
+            }
+            if (n >= 2 && (magic[0] & 0xff) == 31 && (magic[1] & 0xff) == 139) {
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /** Get the size of the uncompressed contents of a file without
+     * decompressing it. The size of a BGZF file is the sum of the inflated
+     * sizes recorded in its blocks. Other gzip files record the inflated size
+     * of their last member modulo 2^32, which is taken to be at least the
+     * compressed size; a gzip file of several members, which only BGZF files
+     * usually are, may be larger than this.
+     * @param file the file.
+     * @return the size in bytes of the stream {@link #open(Path)} returns.
+     * @throws IOException if the file cannot be read or is not valid BGZF.
+     */
+    public static long uncompressedSize(final Path file) throws IOException {
+        try (final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = ch.size();
+            final ByteBuffer magic = readAt(ch, 0, 16);
+            if (BgzfInputStream.isBgzf(magic.array(), magic.limit())) {
+                return bgzfSize(ch, size);
+            }
+            if (size < 18 || (magic.get(0) & 0xff) != 31
+                    || (magic.get(1) & 0xff) != 139) {
+                return size;
+            }
+            long isize = readAt(ch, size - 4, 4).getInt(0) & 0xffffffffL;
+            while (isize < size) {
+                isize += ISIZE_MODULUS;
+            }
+            return isize;
+        }
+    }
+
+    private static long bgzfSize(final FileChannel ch, final long size) throws IOException {
+        long total = 0;
+        long offset = 0;
+        while (offset < size) {
+            final ByteBuffer header = readAt(ch, offset, GZIP_HEADER_SIZE);
+            if (header.limit() < GZIP_HEADER_SIZE) {
+                throw new IOException("Truncated BGZF block at offset " + offset);
+            }
+            final int xlen = header.getShort(10) & 0xffff;
+            final ByteBuffer extra = readAt(ch, offset + GZIP_HEADER_SIZE, xlen);
+            int bsize = -1;
+            for (int i = 0; i + 4 <= extra.limit(); ) {
+                final int slen = extra.getShort(i + 2) & 0xffff;
+                if (extra.get(i) == 'B' && extra.get(i + 1) == 'C' && slen == 2
+                        && i + 6 <= extra.limit()) {
+                    bsize = extra.getShort(i + 4) & 0xffff;
+                }
+                i += 4 + slen;
+            }
+            if (bsize < 0) {
+                throw new IOException("BGZF block at offset " + offset +
+                        " has no BC extra field");
+            }
+            if (bsize + 1 < GZIP_HEADER_SIZE + xlen + 8) {
+                throw new IOException("Invalid BGZF block size at offset " + offset);
+            }
+            final long next = offset + bsize + 1;
+            final ByteBuffer isize = readAt(ch, next - 4, 4);
+            if (next > size || isize.limit() < 4) {
+                throw new IOException("Truncated BGZF block at offset " + offset);
+            }
+            total += isize.getInt(0) & 0xffffffffL;
+            offset = next;
+        }
+        return total;
+    }
+
+    // reads up to length bytes at a position, stopping early at the end of the file
+    private static ByteBuffer readAt(final FileChannel ch, final long position, final int length)
+            throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            if (ch.read(b, position + b.position()) < 0) {
+                break;
+            }
+        }
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,287 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Removes short contigs, and optionally low complexity contigs and exact
+ * duplicates, from a FASTA file in a single streaming pass, collecting
+ * statistics for the input and the output assembly as it goes. The output
+ * can optionally be sorted by descending length.
+ */
+public class ContigFilter {
+
+    private final long minLength;
+    private final ContigStats inputStats = new ContigStats();
+    private final ContigStats outputStats = new ContigStats();
+    private final long[] hash = new long[2];
+    private SequenceHashSet seen = null;
+    private long duplicates = 0;
+    private KmerEntropy entropy = null;
+    private double minEntropy = 0;
+    private long lowComplexity = 0;
+    private Path sortDir = null;
+    private long sortRunSize = ContigSorter.DEFAULT_RUN_SIZE;
+    private boolean reordered = false;
+    private JobControl control = null;
+
+    /** Create a filter.
+     * @param minLength the minimum length of contigs to keep.
+     */
+    public ContigFilter(final long minLength) {
+        if (minLength < 0) {
+            throw new IllegalArgumentException(
+                    "min_length parameter cannot be negative (" + minLength + ")");
+        }
+        this.minLength = minLength;
+    }
+
+    /** Set whether contigs that duplicate an earlier contig, or its reverse
+     * complement, are removed. Only the 128-bit hashes of the kept contigs are
+     * held in memory.
+     * @param dedup true to remove duplicate contigs.
+     */
+    public void setDeduplicate(final boolean dedup) {
+        if (!dedup) {
+            seen = null;
+        } else if (seen == null) {
+            seen = new SequenceHashSet();
+        }
+    }
+
+    /** Set a minimum k-mer entropy for contigs to keep. See
+     * {@link KmerEntropy} for how the entropy is computed. Contigs are checked
+     * after the length filter and before deduplication.
+     * @param k the k-mer size, from 1 to {@link KmerEntropy#MAX_K}.
+     * @param minEntropy the minimum normalized entropy, from 0 to 1, or 0 to
+     * turn the check off.
+     */
+    public void setMinEntropy(final int k, final double minEntropy) {
+        if (!(minEntropy >= 0 && minEntropy <= 1)) {
+            throw new IllegalArgumentException(
+                    "min_kmer_entropy parameter must be between 0 and 1 (" + minEntropy + ")");
+        }
+        this.minEntropy = minEntropy;
+        entropy = minEntropy > 0 ? new KmerEntropy(k) : null;
+    }
+
+    /** Set whether the output is sorted by descending length. Contigs of
+     * equal length keep their input order. See {@link ContigSorter}.
+     * @param tempDir the directory for the sort's run files, or null to
+     * write the output in input order.
+     * @param maxRunSize the number of bases to sort in memory at once.
+     */
+    public void setSortByLength(final Path tempDir, final long maxRunSize) {
+        sortDir = tempDir;
+        sortRunSize = maxRunSize;
+    }
+
+    /** Set the control of the job the filter runs for. The filter checks it
+     * before each contig, and the sort before each contig it merges, and a
+     * filter that is stopped deletes its sort's run files but leaves its
+     * partial output for the caller to delete. The filter counts the contigs
+     * and bytes it reads, and the contigs it sorts, in the job's progress.
+     * @param control the job's control, or null to run to the end.
+     */
+    public void setJobControl(final JobControl control) {
+        this.control = control;
+    }
+
+    /** Check whether the output is in a different order than the input. This
+     * can only be true if sorting is on and the input was not already sorted.
+     * @return true if the contigs were reordered.
+     */
+    public boolean isReordered() {
+        return reordered;
+    }
+
+    /** Filter a FASTA file. Statistics accumulate across calls.
+     * @param input the FASTA file to filter.
+     * @param output the file to which the remaining contigs will be written.
+     * A .fai index of the output is written next to it, see
+     * {@link FastaIndex#indexPath(Path)}.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public void filter(final Path input, final Path output) throws IOException {
+        final JobProgress progress = control == null ? null : control.getProgress();
+        if (progress != null) {
+            progress.startFile(Files.size(input));
+        }
+        long parsed = 0;
+        try (final FastaReader reader = new FastaReader(input);
+                final ContigSorter sorter = newSorter();
+                final FastaWriter writer = newWriter(sorter, output)) {
+            while (reader.next()) {
+                check();
+                final byte[] seq = reader.getSequence();
+                final int length = reader.getLength();
+                inputStats.add(seq, length);
+                final boolean keep = length >= minLength && isComplex(seq, length)
+                        && isFirstCopy(seq, length);
+                if (keep) {
+                    outputStats.add(seq, length);
+                    write(reader.getHeader(), seq, length, writer, sorter);
+                }
+                if (progress != null) {
+                    progress.contigScanned(length, keep);
+                    progress.bytesParsed(reader.getBytesRead() - parsed);
+                    parsed = reader.getBytesRead();
+                }
+            }
+            finish(sorter, output);
+        }
+    }
+
+    /** Filter the contigs held in a packed store. Lengths and base
+     * composition are read from the packed form, and only the contigs that
+     * pass the length filter are decoded. Statistics accumulate across calls.
+     * @param input the contigs to filter.
+     * @param output the file to which the remaining contigs will be written,
+     * along with its .fai index.
+     * @throws IOException if the output cannot be written.
+     */
+    public void filter(final PackedSequenceStore input, final Path output) throws IOException {
+        byte[] seq = null;
+        try (final ContigSorter sorter = newSorter();
+                final FastaWriter writer = newWriter(sorter, output)) {
+            for (int i = 0; i < input.size(); i++) {
+                check();
+                final int length = input.getLength(i);
+                input.addStats(i, inputStats);
+                boolean keep = false;
+                if (length >= minLength) {
+                    seq = input.getSequence(i, seq);
+                    keep = isComplex(seq, length) && isFirstCopy(seq, length);
+                    if (keep) {
+                        input.addStats(i, outputStats);
+                        write(input.getHeader(i), seq, length, writer, sorter);
+                    }
+                }
+                if (control != null) {
+                    control.getProgress().contigScanned(length, keep);
+                }
+            }
+            finish(sorter, output);
+        }
+    }
+
+    private void check() {
+        if (control != null) {
+            control.check();
+        }
+    }
+
+    // null if the output is not sorted
+    private ContigSorter newSorter() {
+        if (sortDir == null) {
+            return null;
+        }
+        final ContigSorter sorter = new ContigSorter(sortDir, sortRunSize);
+        sorter.setJobControl(control);
+        return sorter;
+    }
+
+    // null if the output is sorted, in which case the sorter writes it
+    private static FastaWriter newWriter(final ContigSorter sorter, final Path output)
+            throws IOException {
+        return sorter != null ? null : new FastaWriter(
+                output, FastaWriter.DEFAULT_LINE_WIDTH, true);
+    }
+
+    private static void write(
+            final String header,
+            final byte[] seq,
+            final int length,
+            final FastaWriter writer,
+            final ContigSorter sorter)
+            throws IOException {
+        if (sorter != null) {
+            sorter.add(header, seq, length);
+        } else {
+            writer.write(header, seq, length);
+        }
+    }
+
+    private void finish(final ContigSorter sorter, final Path output) throws IOException {
+        if (sorter != null) {
+            if (control != null) {
+                control.getProgress().setStage("sorting");
+            }
+            sorter.writeSorted(output);
+            reordered |= !sorter.wasSorted();
+        }
+    }
+
+    private boolean isComplex(final byte[] seq, final int length) {
+        if (entropy == null || entropy.entropy(seq, length) >= minEntropy) {
+            return true;
+        }
+        lowComplexity++;
+        return false;
+    }
+
+    private boolean isFirstCopy(final byte[] seq, final int length) {
+        if (seen == null) {
+            return true;
+        }
+        SequenceHash.canonical(seq, length, hash);
+        if (seen.add(hash[0], hash[1])) {
+            return true;
+        }
+        duplicates++;
+        return false;
+    }
+
+    /** Get the statistics of the contigs read.
+     * @return the input statistics.
+     */
+    public ContigStats getInputStats() {
+        return inputStats;
+    }
+
+    /** Get the statistics of the contigs kept.
+     * @return the output statistics.
+     */
+    public ContigStats getOutputStats() {
+        return outputStats;
+    }
+
+    /** Get the number of contigs read.
+     * @return the input contig count.
+     */
+    public long getInitialContigs() {
+        return inputStats.getContigCount();
+    }
+
+    /** Get the number of contigs kept.
+     * @return the output contig count.
+     */
+    public long getRemainingContigs() {
+        return outputStats.getContigCount();
+    }
+
+    /** Get the number of contigs removed for low k-mer entropy. Contigs that
+     * are also too short are counted only as short contigs.
+     * @return the low complexity contig count.
+     */
+    public long getLowComplexityContigs() {
+        return lowComplexity;
+    }
+
+    /** Get the number of contigs removed as duplicates. Duplicates that are
+     * also too short or of low complexity are counted only once, for the
+     * first check they failed.
+     * @return the duplicate contig count.
+     */
+    public long getDuplicateContigs() {
+        return duplicates;
+    }
+
+    /** Get the number of contigs removed for any reason.
+     * @return the removed contig count.
+     */
+    public long getRemovedContigs() {
+        return getInitialContigs() - getRemainingContigs();
+    }
+}
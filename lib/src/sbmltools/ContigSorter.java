@@ -0,0 +1,308 @@
+package sbmltools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts contigs by descending length with an external merge sort, so
+ * assemblies larger than the heap can be sorted.
+ * <p>
+ * Contigs are buffered in a {@link PackedSequenceStore} until the run size is
+ * reached, then sorted and spilled to a run file in the temporary directory.
+ * The runs are merged at most {@link #MAX_MERGE_WIDTH} at a time, in extra
+ * passes if needed, so only one contig per run is in memory while merging.
+ * The sort is stable: contigs of equal length keep their input order. If the
+ * contigs fit in a single run nothing is written to disk.
+ */
+public class ContigSorter implements Closeable {
+
+    /** The default run size, 256M bases or about 64MB of packed sequence. */
+    public static final long DEFAULT_RUN_SIZE = 256L << 20;
+    /** The most run files read at once during a merge. */
+    public static final int MAX_MERGE_WIDTH = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path tempDir;
+    private final long maxRunSize;
+    private final List<Path> runs = new ArrayList<Path>();
+    private PackedSequenceStore current = new PackedSequenceStore();
+    private long currentSize = 0;
+    private long lastLength = Long.MAX_VALUE;
+    private boolean sorted = true;
+    private JobControl control = null;
+
+    /** Create a sorter.
+     * @param tempDir the directory for run files.
+     * @param maxRunSize the number of bases, plus header characters, to
+     * buffer in memory before spilling a run to disk.
+     */
+    public ContigSorter(final Path tempDir, final long maxRunSize) {
+        if (maxRunSize < 1) {
+            throw new IllegalArgumentException("maxRunSize must be at least 1");
+        }
+        this.tempDir = tempDir;
+        this.maxRunSize = maxRunSize;
+    }
+
+    /** Set the control of the job the sort runs for, which is checked before
+     * each contig is merged, and in whose progress each contig written to the
+     * output is counted. Run files are deleted when the sorter is closed,
+     * whether or not the job was stopped.
+     * @param control the job's control, or null to run to the end.
+     */
+    public void setJobControl(final JobControl control) {
+        this.control = control;
+    }
+
+    /** Add a contig.
+     * @param header the header line, without the leading '>'.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     * @throws IOException if a run cannot be written.
+     */
+    public void add(final String header, final byte[] seq, final int length)
+            throws IOException {
+        if (length > lastLength) {
+            sorted = false;
+        }
+        lastLength = length;
+        if (current.size() > 0 && currentSize + length + header.length() > maxRunSize) {
+            spill();
+        }
+        current.add(header, seq, length);
+        currentSize += length + header.length();
+    }
+
+    /** Check whether the contigs were added in sorted order, in which case
+     * the sorted output is the same as the input.
+     * @return true if no contig was longer than the contig before it.
+     */
+    public boolean wasSorted() {
+        return sorted;
+    }
+
+    /** Get the number of runs spilled to disk so far.
+     * @return the run count.
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /** Write the contigs added so far, sorted by descending length, along
+     * with a .fai index of the output.
+     * @param output the FASTA file to write.
+     * @throws IOException if a run cannot be read or the output written.
+     */
+    public void writeSorted(final Path output) throws IOException {
+        try (final FastaWriter writer = new FastaWriter(
+                output, FastaWriter.DEFAULT_LINE_WIDTH, true)) {
+            final Sink sink = new Sink() {
+                @Override
+                public void write(final String header, final byte[] seq, final int length)
+                        throws IOException {
+                    writer.write(header, seq, length);
+                    if (control != null) {
+                        control.getProgress().contigSorted();
+                    }
+                }
+            };
+            if (runs.isEmpty()) {
+                writeRun(current, sink);
+                return;
+            }
+            if (current.size() > 0) {
+                spill();
+            }
+            while (runs.size() > MAX_MERGE_WIDTH) {
+                final List<Path> merged = new ArrayList<Path>();
+                try {
+                    for (int i = 0; i < runs.size(); i += MAX_MERGE_WIDTH) {
+                        final List<Path> group = runs.subList(
+                                i, Math.min(runs.size(), i + MAX_MERGE_WIDTH));
+                        final Path run = newRunFile();
+                        merged.add(run);
+                        try (final RunWriter w = new RunWriter(run)) {
+                            merge(group, w);
+                        }
+                        for (final Path p: group) {
+                            Files.delete(p);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // close only deletes the runs of the last complete pass
+                    for (final Path p: merged) {
+                        Files.deleteIfExists(p);
+                    }
+                    throw e;
+                }
+                runs.clear();
+                runs.addAll(merged);
+            }
+            merge(runs, sink);
+        }
+    }
+
+    private void spill() throws IOException {
+        final Path run = newRunFile();
+        runs.add(run);
+        try (final RunWriter w = new RunWriter(run)) {
+            writeRun(current, w);
+        }
+        current = new PackedSequenceStore();
+        currentSize = 0;
+    }
+
+    private Path newRunFile() throws IOException {
+        final Path run = Files.createTempFile(tempDir, "contigsort", ".run");
+        run.toFile().deleteOnExit();
+        return run;
+    }
+
+    private static void writeRun(final PackedSequenceStore store, final Sink sink)
+            throws IOException {
+        /* Sorting longs keeps this primitive: the high word orders by
+         * descending length and the low word by input order.
+         */
+        final long[] keys = new long[store.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) (Integer.MAX_VALUE - store.getLength(i)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        byte[] seq = null;
+        for (final long key: keys) {
+            final int i = (int) key;
+            seq = store.getSequence(i, seq);
+            sink.write(store.getHeader(i), seq, store.getLength(i));
+        }
+    }
+
+    private void merge(final List<Path> runFiles, final Sink sink) throws IOException {
+        final List<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                    Math.max(1, runFiles.size()));
+            for (final Path p: runFiles) {
+                final RunReader r = new RunReader(p, readers.size());
+                readers.add(r);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            while (!queue.isEmpty()) {
+                if (control != null) {
+                    control.check();
+                }
+                final RunReader r = queue.poll();
+                sink.write(r.header, r.seq, r.length);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+        } finally {
+            for (final RunReader r: readers) {
+                r.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Path p: runs) {
+            Files.deleteIfExists(p);
+        }
+        runs.clear();
+        current = new PackedSequenceStore();
+        currentSize = 0;
+    }
+
+    private interface Sink {
+        void write(String header, byte[] seq, int length) throws IOException;
+    }
+
+    /* Run files are a sequence of records, each the header as a length
+     * prefixed ISO-8859-1 string followed by the length prefixed bases.
+     */
+    private static class RunWriter implements Sink, Closeable {
+
+        private final DataOutputStream out;
+
+        private RunWriter(final Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file), BUFFER_SIZE));
+        }
+
+        @Override
+        public void write(final String header, final byte[] seq, final int length)
+                throws IOException {
+            final byte[] h = header.getBytes(StandardCharsets.ISO_8859_1);
+            out.writeInt(h.length);
+            out.write(h);
+            out.writeInt(length);
+            out.write(seq, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+
+        private final DataInputStream in;
+        private final int order;
+        private String header;
+        private byte[] seq = new byte[256];
+        private int length;
+
+        private RunReader(final Path file, final int order) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), BUFFER_SIZE));
+            this.order = order;
+        }
+
+        private boolean next() throws IOException {
+            final int headerLength;
+            try {
+                headerLength = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            final byte[] h = new byte[headerLength];
+            in.readFully(h);
+            header = new String(h, StandardCharsets.ISO_8859_1);
+            length = in.readInt();
+            if (seq.length < length) {
+                seq = new byte[Math.max(length, seq.length * 2)];
+            }
+            in.readFully(seq, 0, length);
+            return true;
+        }
+
+        @Override
+        public int compareTo(final RunReader other) {
+            if (length != other.length) {
+                return length > other.length ? -1 : 1;
+            }
+            return Integer.compare(order, other.order);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
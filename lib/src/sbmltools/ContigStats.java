@@ -0,0 +1,184 @@
+package sbmltools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming summary statistics for the contigs of an assembly.
+ * <p>
+ * Contig lengths are recorded in a fixed size log-linear sketch rather than
+ * in a list, so memory use does not depend on the number of contigs. Lengths
+ * below 128 are recorded exactly; longer lengths fall into buckets that are
+ * less than 1% wide, which bounds the error of the reported N50. The L50 is
+ * estimated from the mean length of the bucket in which the halfway point
+ * falls, and has no such bound. Total length and GC content are exact.
+ */
+public class ContigStats {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private final long[] sums = new long[BUCKETS];
+    private long contigs = 0;
+    private long totalLength = 0;
+    private long maxLength = 0;
+    private long gc = 0;
+    private long at = 0;
+
+    /** Record a contig.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     */
+    public void add(final byte[] seq, final int length) {
+        long g = 0;
+        long a = 0;
+        for (int i = 0; i < length; i++) {
+            switch (seq[i]) {
+                case 'G': case 'C': case 'g': case 'c': case 'S': case 's':
+                    g++;
+                    break;
+                case 'A': case 'T': case 'a': case 't': case 'W': case 'w':
+                    a++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        add(length, g, a);
+    }
+
+    /** Record a contig whose base composition has already been counted.
+     * @param length the contig length.
+     * @param gcCount the number of G or C bases.
+     * @param atCount the number of A or T bases.
+     */
+    public void add(final long length, final long gcCount, final long atCount) {
+        final int i = bucket(length);
+        counts[i]++;
+        sums[i] += length;
+        contigs++;
+        totalLength += length;
+        maxLength = Math.max(maxLength, length);
+        gc += gcCount;
+        at += atCount;
+    }
+
+    private static int bucket(final long length) {
+        if (length < SUB_BUCKETS) {
+            return (int) length;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(length);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int sub = (int) (length >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /** Get the number of contigs recorded.
+     * @return the contig count.
+     */
+    public long getContigCount() {
+        return contigs;
+    }
+
+    /** Get the summed length of all contigs.
+     * @return the total length.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /** Get the fraction of unambiguous bases that are G or C.
+     * @return the GC content, or 0 if there are no unambiguous bases.
+     */
+    public double getGCContent() {
+        return gc + at == 0 ? 0 : (double) gc / (gc + at);
+    }
+
+    /** Get the N50, the length of the shortest contig in the smallest set of
+     * longest contigs that covers half of the total length.
+     * @return the N50, or 0 if no contigs have been recorded.
+     */
+    public long getN50() {
+        return n50(false);
+    }
+
+    /** Get the L50, the number of contigs in the smallest set of longest
+     * contigs that covers half of the total length.
+     * @return the L50, or 0 if no contigs have been recorded.
+     */
+    public long getL50() {
+        return n50(true);
+    }
+
+    /* Walks the buckets from the longest contigs down. Within the bucket that
+     * crosses the halfway point all contigs are assumed to have the bucket's
+     * mean length, which is exact for the narrow buckets below 128.
+     */
+    private long n50(final boolean returnCount) {
+        if (totalLength == 0) {
+            return 0;
+        }
+        final double half = totalLength / 2.0;
+        long covered = 0;
+        long n = 0;
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (covered + sums[i] >= half) {
+                final double mean = (double) sums[i] / counts[i];
+                final long needed = Math.min(counts[i],
+                        Math.max(1, (long) Math.ceil((half - covered) / mean)));
+                return returnCount ? n + needed : Math.min(maxLength, Math.round(mean));
+            }
+            covered += sums[i];
+            n += counts[i];
+        }
+        return returnCount ? n : 0;
+    }
+
+    /** Get a histogram of contig lengths in power of two bins. Element i is
+     * the number of contigs with a length in [2^i, 2^(i + 1)); contigs of
+     * length zero are counted in the first bin. The list ends at the last
+     * non-empty bin.
+     * @return the histogram.
+     */
+    public List<Long> getLengthHistogram() {
+        final List<Long> hist = new ArrayList<Long>();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            final int bin = 63 - Long.numberOfLeadingZeros(Math.max(1, lowerBound(i)));
+            while (hist.size() <= bin) {
+                hist.add(0L);
+            }
+            hist.set(bin, hist.get(bin) + counts[i]);
+        }
+        return hist;
+    }
+
+    private static long lowerBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        final int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub)) << shift;
+    }
+
+    /** Convert these statistics to the type returned by the service.
+     * @return the assembly statistics.
+     */
+    public AssemblyStats toAssemblyStats() {
+        return new AssemblyStats()
+                .withNContigs(contigs)
+                .withTotalLength(totalLength)
+                .withN50(getN50())
+                .withL50(getL50())
+                .withGcContent(getGCContent())
+                .withLengthHistogram(getLengthHistogram());
+    }
+}
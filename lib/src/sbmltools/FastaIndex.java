@@ -0,0 +1,180 @@
+package sbmltools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A samtools compatible FASTA index (.fai).
+ * <p>
+ * Each line of the index holds the contig name, the number of bases, the byte
+ * offset of the first base, the number of bases per line and the number of
+ * bytes per line including the line terminator.
+ */
+public class FastaIndex {
+
+    /** The location of a single contig in a FASTA file. */
+    public static class Entry {
+
+        private final String name;
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        /** Create an entry.
+         * @param name the contig name.
+         * @param length the number of bases.
+         * @param offset the byte offset of the first base.
+         * @param lineBases the number of bases per line.
+         * @param lineWidth the number of bytes per line, including the line
+         * terminator.
+         */
+        public Entry(
+                final String name,
+                final long length,
+                final long offset,
+                final int lineBases,
+                final int lineWidth) {
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /** Get the contig name.
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /** Get the number of bases in the contig.
+         * @return the length.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /** Get the byte offset of the first base.
+         * @return the offset.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** Get the number of bases per line.
+         * @return the bases per line.
+         */
+        public int getLineBases() {
+            return lineBases;
+        }
+
+        /** Get the number of bytes per line, including the line terminator.
+         * @return the line width.
+         */
+        public int getLineWidth() {
+            return lineWidth;
+        }
+
+        /** Get the byte offset of a base.
+         * @param position the zero based position of the base in the contig.
+         * @return the byte offset of the base in the file.
+         */
+        public long offsetOf(final long position) {
+            return offset + (position / lineBases) * lineWidth + position % lineBases;
+        }
+
+        /** Get the byte offset just past the sequence of the contig. This
+         * assumes the last line is terminated like the others, as
+         * {@link FastaWriter} writes it, in which case it is also the offset
+         * of the header of the next contig.
+         * @return the offset of the end of the contig.
+         */
+        public long getEnd() {
+            final long rest = length % lineBases;
+            return offset + (length / lineBases) * lineWidth +
+                    (rest == 0 ? 0 : rest + lineWidth - lineBases);
+        }
+
+        /** Format this entry as a line of a .fai file, without the line
+         * terminator.
+         * @return the index line.
+         */
+        public String toIndexLine() {
+            return name + "\t" + length + "\t" + offset + "\t" + lineBases + "\t" + lineWidth;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private FastaIndex(final Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Get the path of the index for a FASTA file, which is the FASTA path
+     * with .fai appended.
+     * @param fasta the FASTA file.
+     * @return the index file.
+     */
+    public static Path indexPath(final Path fasta) {
+        return fasta.resolveSibling(fasta.getFileName() + ".fai");
+    }
+
+    /** Read an index file.
+     * @param index the .fai file.
+     * @return the index.
+     * @throws IOException if the index cannot be read or is malformed.
+     */
+    public static FastaIndex read(final Path index) throws IOException {
+        final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        try (final BufferedReader r = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            int lineNum = 0;
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                lineNum++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] f = line.split("\t");
+                if (f.length < 5) {
+                    throw new IOException(String.format(
+                            "Line %s of FASTA index %s does not have 5 fields",
+                            lineNum, index));
+                }
+                try {
+                    entries.put(f[0], new Entry(f[0], Long.parseLong(f[1]),
+                            Long.parseLong(f[2]), Integer.parseInt(f[3]),
+                            Integer.parseInt(f[4])));
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format(
+                            "Line %s of FASTA index %s has an invalid number: %s",
+                            lineNum, index, e.getMessage()), e);
+                }
+            }
+        }
+        return new FastaIndex(entries);
+    }
+
+    /** Get the entry for a contig.
+     * @param name the contig name.
+     * @return the entry, or null if the contig is not in the index.
+     */
+    public Entry get(final String name) {
+        return entries.get(name);
+    }
+
+    /** Get all entries in file order.
+     * @return the entries.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+}
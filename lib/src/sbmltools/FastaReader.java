@@ -0,0 +1,195 @@
+package sbmltools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming FASTA reader that holds a single record in memory at a time.
+ * <p>
+ * The header and sequence buffers are reused between records, so the memory
+ * footprint is bounded by the longest contig rather than by the size of the
+ * assembly. Line breaks and other whitespace inside the sequence are dropped;
+ * the case of the bases is preserved.
+ */
+public class FastaReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    private byte[] header = new byte[256];
+    private int headerLength = 0;
+    private byte[] seq = new byte[BUFFER_SIZE];
+    private int seqLength = 0;
+    private String headerString = null;
+    private long records = 0;
+    private long bytesRead = 0;
+
+    /** Create a reader over a stream. The stream is closed with the reader.
+     * @param in the FASTA data.
+     */
+    public FastaReader(final InputStream in) {
+        this.in = in;
+    }
+
+    /** Create a reader over a file. The file may be gzip or BGZF compressed.
+     * @param file the FASTA file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FastaReader(final Path file) throws IOException {
+        this(CompressedInput.open(file));
+    }
+
+    /** Advance to the next record.
+     * @return false if there are no more records.
+     * @throws IOException if the input cannot be read or is not FASTA.
+     */
+    public boolean next() throws IOException {
+        headerString = null;
+        headerLength = 0;
+        seqLength = 0;
+        int b = read();
+        while (b == '\n' || b == '\r' || b == ' ' || b == '\t') {
+            b = read();
+        }
+        if (b < 0) {
+            return false;
+        }
+        if (b != '>') {
+            throw new IOException(String.format(
+                    "Expected '>' at the start of FASTA record %s, found '%s'",
+                    records + 1, (char) b));
+        }
+        for (b = read(); b >= 0 && b != '\n'; b = read()) {
+            if (b != '\r') {
+                if (headerLength == header.length) {
+                    header = Arrays.copyOf(header, header.length * 2);
+                }
+                header[headerLength++] = (byte) b;
+            }
+        }
+        readSequence();
+        records++;
+        return true;
+    }
+
+    /* Copies sequence bytes up to the next '>' at the start of a line. Runs of
+     * bases are copied straight out of the read buffer rather than byte by byte.
+     */
+    private void readSequence() throws IOException {
+        boolean lineStart = true;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return;
+            }
+            if (lineStart && buf[pos] == '>') {
+                return;
+            }
+            final int start = pos;
+            while (pos < limit && buf[pos] > ' ') {
+                pos++;
+            }
+            append(start, pos - start);
+            if (pos < limit) {
+                lineStart = buf[pos] == '\n';
+                pos++;
+            } else {
+                lineStart = false;
+            }
+        }
+    }
+
+    private void append(final int start, final int length) {
+        if (length == 0) {
+            return;
+        }
+        if (seqLength + length > seq.length) {
+            seq = Arrays.copyOf(seq, Math.max(seq.length * 2, seqLength + length));
+        }
+        System.arraycopy(buf, start, seq, seqLength, length);
+        seqLength += length;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int n = in.read(buf, 0, buf.length);
+        while (n == 0) {
+            n = in.read(buf, 0, buf.length);
+        }
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        bytesRead += n;
+        return true;
+    }
+
+    /** Get the full header line of the current record, without the leading '>'.
+     * @return the header.
+     */
+    public String getHeader() {
+        if (headerString == null) {
+            headerString = new String(header, 0, headerLength, StandardCharsets.ISO_8859_1);
+        }
+        return headerString;
+    }
+
+    /** Get the contig id of the current record, i.e. the header up to the
+     * first whitespace.
+     * @return the contig id.
+     */
+    public String getId() {
+        int end = 0;
+        while (end < headerLength && (header[end] & 0xff) > ' ') {
+            end++;
+        }
+        return new String(header, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Get the sequence buffer of the current record. Only the first
+     * {@link #getLength()} bytes are valid, and the buffer is overwritten by
+     * the next call to {@link #next()}.
+     * @return the sequence buffer.
+     */
+    public byte[] getSequence() {
+        return seq;
+    }
+
+    /** Get the sequence length of the current record.
+     * @return the number of bases.
+     */
+    public int getLength() {
+        return seqLength;
+    }
+
+    /** Get the number of bytes parsed so far, after decompression.
+     * @return the byte count.
+     */
+    public long getBytesRead() {
+        return bytesRead - (limit - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
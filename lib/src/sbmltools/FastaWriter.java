@@ -0,0 +1,117 @@
+package sbmltools;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * FASTA writer that wraps every sequence at a fixed line width. The writer can
+ * also produce a samtools compatible .fai index as it goes, since the fixed
+ * width makes the index entry of each record known when it is written.
+ */
+public class FastaWriter implements Closeable {
+
+    /** The default number of bases per line, matching samtools faidx. */
+    public static final int DEFAULT_LINE_WIDTH = 60;
+
+    private final OutputStream out;
+    private final int lineWidth;
+    private final Writer index;
+    private long records = 0;
+    private long offset = 0;
+
+    /** Create a writer with the default line width.
+     * @param file the file to write. Any existing file is overwritten.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FastaWriter(final Path file) throws IOException {
+        this(file, DEFAULT_LINE_WIDTH);
+    }
+
+    /** Create a writer.
+     * @param file the file to write. Any existing file is overwritten.
+     * @param lineWidth the number of bases per line.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FastaWriter(final Path file, final int lineWidth) throws IOException {
+        this(file, lineWidth, false);
+    }
+
+    /** Create a writer.
+     * @param file the file to write. Any existing file is overwritten.
+     * @param lineWidth the number of bases per line.
+     * @param writeIndex true to write an index of the file to
+     * {@link FastaIndex#indexPath(Path)}.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FastaWriter(final Path file, final int lineWidth, final boolean writeIndex)
+            throws IOException {
+        if (lineWidth < 1) {
+            throw new IllegalArgumentException("lineWidth must be at least 1");
+        }
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        this.lineWidth = lineWidth;
+        if (writeIndex) {
+            index = Files.newBufferedWriter(FastaIndex.indexPath(file), StandardCharsets.UTF_8);
+        } else {
+            index = null;
+        }
+    }
+
+    /** Write a record.
+     * @param header the header line, without the leading '>'.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer to write.
+     * @throws IOException if the record cannot be written.
+     */
+    public void write(final String header, final byte[] seq, final int length)
+            throws IOException {
+        final byte[] h = header.getBytes(StandardCharsets.ISO_8859_1);
+        out.write('>');
+        out.write(h);
+        out.write('\n');
+        offset += h.length + 2;
+        if (index != null) {
+            index.write(new FastaIndex.Entry(id(h), length, offset, lineWidth, lineWidth + 1)
+                    .toIndexLine());
+            index.write('\n');
+        }
+        for (int i = 0; i < length; i += lineWidth) {
+            out.write(seq, i, Math.min(lineWidth, length - i));
+            out.write('\n');
+        }
+        offset += length + (length + lineWidth - 1) / lineWidth;
+        records++;
+    }
+
+    private static String id(final byte[] header) {
+        int end = 0;
+        while (end < header.length && (header[end] & 0xff) > ' ') {
+            end++;
+        }
+        return new String(header, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Get the number of records written so far.
+     * @return the record count.
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+}
@@ -20,6 +20,15 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * input and output of your function.  Here the input is a
  * reference to the Assembly data object, a workspace to save
  * output, and a length threshold for filtering.
+ * If dedup is set to 1, contigs that are identical to an earlier contig
+ * or to its reverse complement are removed as well.  If sort_by_length
+ * is set to 1, the output contigs are sorted by descending length.
+ * If n_shards is greater than 1, the output is split into that many
+ * assemblies of about equal total length.
+ * If min_kmer_entropy is set, contigs whose k-mer Shannon entropy is
+ * below it are removed as low complexity.  The entropy is normalized to
+ * between 0 and 1 by the largest value possible for the contig, and
+ * kmer_size (1 to 8, default 4) sets k.
  * To define lists and maps, use a syntax similar to C++ templates
  * to indicate the type contained in the list or map.  For example:
  *     list <string> list_of_strings;
@@ -32,7 +41,12 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @JsonPropertyOrder({
     "assembly_input_ref",
     "workspace_name",
-    "min_length"
+    "min_length",
+    "dedup",
+    "sort_by_length",
+    "n_shards",
+    "min_kmer_entropy",
+    "kmer_size"
 })
 public class FilterContigsParams {
 
@@ -42,6 +56,16 @@ public class FilterContigsParams {
     private String workspaceName;
     @JsonProperty("min_length")
     private Long minLength;
+    @JsonProperty("dedup")
+    private Long dedup;
+    @JsonProperty("sort_by_length")
+    private Long sortByLength;
+    @JsonProperty("n_shards")
+    private Long nShards;
+    @JsonProperty("min_kmer_entropy")
+    private Double minKmerEntropy;
+    @JsonProperty("kmer_size")
+    private Long kmerSize;
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     @JsonProperty("assembly_input_ref")
@@ -89,6 +113,81 @@ public class FilterContigsParams {
         return this;
     }
 
+    @JsonProperty("dedup")
+    public Long getDedup() {
+        return dedup;
+    }
+
+    @JsonProperty("dedup")
+    public void setDedup(Long dedup) {
+        this.dedup = dedup;
+    }
+
+    public FilterContigsParams withDedup(Long dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    @JsonProperty("sort_by_length")
+    public Long getSortByLength() {
+        return sortByLength;
+    }
+
+    @JsonProperty("sort_by_length")
+    public void setSortByLength(Long sortByLength) {
+        this.sortByLength = sortByLength;
+    }
+
+    public FilterContigsParams withSortByLength(Long sortByLength) {
+        this.sortByLength = sortByLength;
+        return this;
+    }
+
+    @JsonProperty("n_shards")
+    public Long getNShards() {
+        return nShards;
+    }
+
+    @JsonProperty("n_shards")
+    public void setNShards(Long nShards) {
+        this.nShards = nShards;
+    }
+
+    public FilterContigsParams withNShards(Long nShards) {
+        this.nShards = nShards;
+        return this;
+    }
+
+    @JsonProperty("min_kmer_entropy")
+    public Double getMinKmerEntropy() {
+        return minKmerEntropy;
+    }
+
+    @JsonProperty("min_kmer_entropy")
+    public void setMinKmerEntropy(Double minKmerEntropy) {
+        this.minKmerEntropy = minKmerEntropy;
+    }
+
+    public FilterContigsParams withMinKmerEntropy(Double minKmerEntropy) {
+        this.minKmerEntropy = minKmerEntropy;
+        return this;
+    }
+
+    @JsonProperty("kmer_size")
+    public Long getKmerSize() {
+        return kmerSize;
+    }
+
+    @JsonProperty("kmer_size")
+    public void setKmerSize(Long kmerSize) {
+        this.kmerSize = kmerSize;
+    }
+
+    public FilterContigsParams withKmerSize(Long kmerSize) {
+        this.kmerSize = kmerSize;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -101,7 +200,7 @@ public class FilterContigsParams {
 
     @Override
     public String toString() {
-        return ((((((((("FilterContigsParams"+" [assemblyInputRef=")+ assemblyInputRef)+", workspaceName=")+ workspaceName)+", minLength=")+ minLength)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((((("FilterContigsParams"+" [assemblyInputRef=")+ assemblyInputRef)+", workspaceName=")+ workspaceName)+", minLength=")+ minLength)+", dedup=")+ dedup)+", sortByLength=")+ sortByLength)+", nShards=")+ nShards)+", minKmerEntropy=")+ minKmerEntropy)+", kmerSize=")+ kmerSize)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -2,6 +2,7 @@
 package sbmltools;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Generated;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
@@ -19,6 +20,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * visualizations in the Narrative.  'report_name' and 'report_ref' are
  * special output fields- if defined, the Narrative can automatically
  * render your Report.
+ * If the output was split into shards, shard_outputs lists the shard
+ * assemblies and assembly_output is not set.
  * </pre>
  * 
  */
@@ -30,7 +33,12 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
     "assembly_output",
     "n_initial_contigs",
     "n_contigs_removed",
-    "n_contigs_remaining"
+    "n_contigs_remaining",
+    "n_duplicates_removed",
+    "n_low_complexity_removed",
+    "input_stats",
+    "output_stats",
+    "shard_outputs"
 })
 public class FilterContigsResults {
 
@@ -46,6 +54,38 @@ public class FilterContigsResults {
     private Long nContigsRemoved;
     @JsonProperty("n_contigs_remaining")
     private Long nContigsRemaining;
+    @JsonProperty("n_duplicates_removed")
+    private Long nDuplicatesRemoved;
+    @JsonProperty("n_low_complexity_removed")
+    private Long nLowComplexityRemoved;
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("input_stats")
+    private AssemblyStats inputStats;
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("output_stats")
+    private AssemblyStats outputStats;
+    @JsonProperty("shard_outputs")
+    private List<String> shardOutputs;
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     @JsonProperty("report_name")
@@ -138,6 +178,125 @@ public class FilterContigsResults {
         return this;
     }
 
+    @JsonProperty("n_duplicates_removed")
+    public Long getNDuplicatesRemoved() {
+        return nDuplicatesRemoved;
+    }
+
+    @JsonProperty("n_duplicates_removed")
+    public void setNDuplicatesRemoved(Long nDuplicatesRemoved) {
+        this.nDuplicatesRemoved = nDuplicatesRemoved;
+    }
+
+    public FilterContigsResults withNDuplicatesRemoved(Long nDuplicatesRemoved) {
+        this.nDuplicatesRemoved = nDuplicatesRemoved;
+        return this;
+    }
+
+    @JsonProperty("n_low_complexity_removed")
+    public Long getNLowComplexityRemoved() {
+        return nLowComplexityRemoved;
+    }
+
+    @JsonProperty("n_low_complexity_removed")
+    public void setNLowComplexityRemoved(Long nLowComplexityRemoved) {
+        this.nLowComplexityRemoved = nLowComplexityRemoved;
+    }
+
+    public FilterContigsResults withNLowComplexityRemoved(Long nLowComplexityRemoved) {
+        this.nLowComplexityRemoved = nLowComplexityRemoved;
+        return this;
+    }
+
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("input_stats")
+    public AssemblyStats getInputStats() {
+        return inputStats;
+    }
+
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("input_stats")
+    public void setInputStats(AssemblyStats inputStats) {
+        this.inputStats = inputStats;
+    }
+
+    public FilterContigsResults withInputStats(AssemblyStats inputStats) {
+        this.inputStats = inputStats;
+        return this;
+    }
+
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("output_stats")
+    public AssemblyStats getOutputStats() {
+        return outputStats;
+    }
+
+    /**
+     * <p>Original spec-file type: AssemblyStats</p>
+     * <pre>
+     * Summary statistics for the contigs of an assembly.
+     * n50 is computed from a bounded length sketch and is accurate to within
+     * 1%.  l50 is estimated from the same sketch and is approximate.  gc_content
+     * is the fraction of unambiguous bases that are G or C.  Element i of
+     * length_histogram is the number of contigs with a length in [2^i, 2^(i+1)).
+     * </pre>
+     * 
+     */
+    @JsonProperty("output_stats")
+    public void setOutputStats(AssemblyStats outputStats) {
+        this.outputStats = outputStats;
+    }
+
+    public FilterContigsResults withOutputStats(AssemblyStats outputStats) {
+        this.outputStats = outputStats;
+        return this;
+    }
+
+    @JsonProperty("shard_outputs")
+    public List<String> getShardOutputs() {
+        return shardOutputs;
+    }
+
+    @JsonProperty("shard_outputs")
+    public void setShardOutputs(List<String> shardOutputs) {
+        this.shardOutputs = shardOutputs;
+    }
+
+    public FilterContigsResults withShardOutputs(List<String> shardOutputs) {
+        this.shardOutputs = shardOutputs;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -150,7 +309,7 @@ public class FilterContigsResults {
 
     @Override
     public String toString() {
-        return ((((((((((((((("FilterContigsResults"+" [reportName=")+ reportName)+", reportRef=")+ reportRef)+", assemblyOutput=")+ assemblyOutput)+", nInitialContigs=")+ nInitialContigs)+", nContigsRemoved=")+ nContigsRemoved)+", nContigsRemaining=")+ nContigsRemaining)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((((((((((("FilterContigsResults"+" [reportName=")+ reportName)+", reportRef=")+ reportRef)+", assemblyOutput=")+ assemblyOutput)+", nInitialContigs=")+ nInitialContigs)+", nContigsRemoved=")+ nContigsRemoved)+", nContigsRemaining=")+ nContigsRemaining)+", nDuplicatesRemoved=")+ nDuplicatesRemoved)+", nLowComplexityRemoved=")+ nLowComplexityRemoved)+", inputStats=")+ inputStats)+", outputStats=")+ outputStats)+", shardOutputs=")+ shardOutputs)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -0,0 +1,338 @@
+package sbmltools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import sbmltools.transport.GzipTransport;
+
+/**
+ * A servlet filter that lets JSON-RPC clients send and receive gzip compressed
+ * bodies.
+ * <p>
+ * Requests with a <code>Content-Encoding: gzip</code> header are decompressed
+ * before they reach the servlet. Responses are compressed when the request's
+ * <code>Accept-Encoding</code> header allows gzip and the body is at least
+ * the <code>min-size</code> init parameter in bytes, by default
+ * {@link #DEFAULT_MIN_SIZE}; smaller bodies are not worth the time. Every
+ * response carries <code>Accept-Encoding: gzip</code>, which tells clients
+ * they may compress their requests, as in RFC 7694.
+ */
+public class GzipFilter implements Filter {
+
+    /** The default size below which responses are not compressed. */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final String GZIP = "gzip";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private int minSize = DEFAULT_MIN_SIZE;
+
+    @Override
+    public void init(final FilterConfig config) throws ServletException {
+        final String size = config.getInitParameter("min-size");
+        if (size != null) {
+            try {
+                minSize = Integer.parseInt(size.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid min-size for GzipFilter: " + size, e);
+            }
+            if (minSize < 0) {
+                throw new ServletException("Invalid min-size for GzipFilter: " + size);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    @Override
+    public void doFilter(
+            final ServletRequest request,
+            final ServletResponse response,
+            final FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) ||
+                !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        final HttpServletResponse resp = (HttpServletResponse) response;
+        resp.setHeader(ACCEPT_ENCODING, GZIP);
+        final String encoding = req.getHeader(CONTENT_ENCODING);
+        if (encoding != null && !encoding.trim().isEmpty() &&
+                !encoding.trim().equalsIgnoreCase("identity")) {
+            if (!GzipTransport.isGzip(encoding.trim())) {
+                resp.sendError(415, "Unsupported Content-Encoding: " + encoding);
+                return;
+            }
+            req = new GunzipRequest(req);
+        }
+        if (!GzipTransport.acceptsGzip(req.getHeader(ACCEPT_ENCODING))) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        final GzipResponse gzipResponse = new GzipResponse(resp, minSize);
+        chain.doFilter(req, gzipResponse);
+        gzipResponse.finish();
+    }
+
+    private static class GunzipRequest extends HttpServletRequestWrapper {
+
+        private ServletInputStream in = null;
+        private BufferedReader reader = null;
+
+        private GunzipRequest(final HttpServletRequest request) {
+            super(request);
+        }
+
+        private static boolean isHidden(final String name) {
+            return CONTENT_ENCODING.equalsIgnoreCase(name) ||
+                    CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (in == null) {
+                final InputStream gz = new GZIPInputStream(super.getInputStream(), 8192);
+                in = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        return gz.read();
+                    }
+
+                    @Override
+                    public int read(final byte[] b, final int off, final int len)
+                            throws IOException {
+                        return gz.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        gz.close();
+                    }
+                };
+            }
+            return in;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                final String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(),
+                        charset == null ? "UTF-8" : charset));
+            }
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Enumeration<String> getHeaders(final String name) {
+            return isHidden(name) ? Collections.enumeration(Collections.<String>emptyList()) :
+                    super.getHeaders(name);
+        }
+
+        @Override
+        public int getIntHeader(final String name) {
+            return isHidden(name) ? -1 : super.getIntHeader(name);
+        }
+    }
+
+    /* Buffers the body until it reaches the minimum size, then switches to
+     * writing it compressed. A body that never reaches the minimum is written
+     * as is when the response is finished.
+     */
+    private static class GzipResponse extends HttpServletResponseWrapper {
+
+        private final HttpServletResponse response;
+        private final int minSize;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream gzip = null;
+        private ServletOutputStream out = null;
+        private PrintWriter writer = null;
+        private boolean finished = false;
+
+        private GzipResponse(final HttpServletResponse response, final int minSize) {
+            super(response);
+            this.response = response;
+            this.minSize = minSize;
+        }
+
+        // the length of the body is only known once it is compressed, or finished
+        @Override
+        public void setContentLength(final int len) {}
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(final String name, final int value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(final String name, final int value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (out == null) {
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len)
+                            throws IOException {
+                        writeBody(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        // a buffered body is not sent until it is large enough
+                        if (gzip != null) {
+                            gzip.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        finish();
+                    }
+                };
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                final String charset = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                        charset == null ? "ISO-8859-1" : charset));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (gzip != null) {
+                gzip.flush();
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBody();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            resetBody();
+        }
+
+        private void resetBody() {
+            if (gzip != null) {
+                throw new IllegalStateException("The compressed response has been committed");
+            }
+            buffer.reset();
+        }
+
+        private void writeBody(final byte[] b, final int off, final int len)
+                throws IOException {
+            if (finished) {
+                throw new IOException("The response is finished");
+            }
+            if (gzip != null) {
+                gzip.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if (buffer.size() >= minSize) {
+                response.setHeader(CONTENT_ENCODING, GZIP);
+                response.addHeader("Vary", ACCEPT_ENCODING);
+                gzip = new GZIPOutputStream(response.getOutputStream(), 8192);
+                buffer.writeTo(gzip);
+                buffer = null;
+            }
+        }
+
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            finished = true;
+            if (gzip != null) {
+                gzip.close();
+            } else if (buffer.size() > 0 || !response.isCommitted()) {
+                response.setContentLength(buffer.size());
+                final OutputStream o = response.getOutputStream();
+                buffer.writeTo(o);
+                o.close();
+            }
+        }
+    }
+}
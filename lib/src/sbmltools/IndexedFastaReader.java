@@ -0,0 +1,118 @@
+package sbmltools;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to the contigs of an indexed FASTA file. Only the bytes of
+ * the requested region are read.
+ */
+public class IndexedFastaReader implements Closeable {
+
+    private final FileChannel channel;
+    private final FastaIndex index;
+
+    /** Open a FASTA file whose index is at the default location.
+     * @param fasta the FASTA file.
+     * @throws IOException if the file or its index cannot be read.
+     */
+    public IndexedFastaReader(final Path fasta) throws IOException {
+        this(fasta, FastaIndex.read(FastaIndex.indexPath(fasta)));
+    }
+
+    /** Open a FASTA file with a given index.
+     * @param fasta the FASTA file.
+     * @param index the index of the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public IndexedFastaReader(final Path fasta, final FastaIndex index) throws IOException {
+        this.index = index;
+        this.channel = FileChannel.open(fasta, StandardOpenOption.READ);
+    }
+
+    /** Get the index of the file.
+     * @return the index.
+     */
+    public FastaIndex getIndex() {
+        return index;
+    }
+
+    /** Read the whole sequence of a contig.
+     * @param name the contig name.
+     * @return the sequence.
+     * @throws IOException if the contig is not in the index or cannot be read.
+     */
+    public byte[] getSequence(final String name) throws IOException {
+        return getSequence(name, 0, getEntry(name).getLength());
+    }
+
+    /** Read part of the sequence of a contig.
+     * @param name the contig name.
+     * @param start the zero based start position, inclusive.
+     * @param end the zero based end position, exclusive.
+     * @return the bases in the region.
+     * @throws IOException if the contig is not in the index or cannot be read.
+     */
+    public byte[] getSequence(final String name, final long start, final long end)
+            throws IOException {
+        final FastaIndex.Entry e = getEntry(name);
+        if (start < 0 || end > e.getLength() || start > end) {
+            throw new IllegalArgumentException(String.format(
+                    "Region %s-%s is outside contig %s of length %s",
+                    start, end, name, e.getLength()));
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Region is too large: " + (end - start));
+        }
+        final byte[] seq = new byte[(int) (end - start)];
+        if (seq.length == 0) {
+            return seq;
+        }
+        final long first = e.offsetOf(start);
+        final long last = e.offsetOf(end - 1);
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(last - first + 1, 1 << 20));
+        long pos = first;
+        int n = 0;
+        while (n < seq.length) {
+            if (pos > last) {
+                throw new IOException(String.format(
+                        "FASTA file does not match its index at contig %s", name));
+            }
+            buf.clear();
+            if (last - pos + 1 < buf.capacity()) {
+                buf.limit((int) (last - pos + 1));
+            }
+            final int read = channel.read(buf, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of FASTA file reading contig " + name);
+            }
+            pos += read;
+            buf.flip();
+            while (buf.hasRemaining() && n < seq.length) {
+                final byte b = buf.get();
+                if (b != '\n' && b != '\r') {
+                    seq[n++] = b;
+                }
+            }
+        }
+        return seq;
+    }
+
+    private FastaIndex.Entry getEntry(final String name) throws IOException {
+        final FastaIndex.Entry e = index.get(name);
+        if (e == null) {
+            throw new IOException("No such contig in FASTA index: " + name);
+        }
+        return e;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,117 @@
+package sbmltools;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a running job be cancelled, and limits the time it may run.
+ * <p>
+ * Cancellation is cooperative: the job calls {@link #check()} between stages
+ * of its work and regularly in long loops, and stops by throwing the
+ * {@link JobCancelledException} it gets once the job is cancelled, its time
+ * budget is spent, or its thread is interrupted. Code that catches the
+ * exception, or any other, on the way out must delete the files the job
+ * wrote, as for any other failure. A check costs a volatile read and a clock
+ * read, so it may be made for each contig. Instances are thread safe, so the
+ * job's worker threads may check the same instance, and it may be cancelled
+ * from any thread.
+ */
+public class JobControl {
+
+    private final long timeBudgetMs;
+    private final long deadline;
+    private final JobProgress progress;
+    private volatile String cancelReason = null;
+
+    /** A job cancelled by {@link JobControl#cancel(String)}, or one that ran
+     * past its time budget.
+     */
+    public static class JobCancelledException extends CancellationException {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Create the exception.
+         * @param message why the job was stopped.
+         */
+        public JobCancelledException(final String message) {
+            super(message);
+        }
+    }
+
+    /** Create a control for a job that starts now.
+     * @param timeBudgetMs the most time the job may run, or 0 for no limit.
+     */
+    public JobControl(final long timeBudgetMs) {
+        this(timeBudgetMs, new JobProgress(null));
+    }
+
+    /** Create a control for a job that starts now.
+     * @param timeBudgetMs the most time the job may run, or 0 for no limit.
+     * @param progress the job's progress, which code that checks the control
+     * updates as it goes.
+     */
+    public JobControl(final long timeBudgetMs, final JobProgress progress) {
+        if (progress == null) {
+            throw new NullPointerException("progress");
+        }
+        if (timeBudgetMs < 0) {
+            throw new IllegalArgumentException("The time budget cannot be negative");
+        }
+        this.timeBudgetMs = timeBudgetMs;
+        this.progress = progress;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMs);
+    }
+
+    /** Get the job's progress.
+     * @return the progress.
+     */
+    public JobProgress getProgress() {
+        return progress;
+    }
+
+    /** Cancel the job. The job stops at its next check. Only the first reason
+     * given is kept.
+     * @param reason why the job was cancelled.
+     */
+    public synchronized void cancel(final String reason) {
+        if (cancelReason == null) {
+            cancelReason = reason == null ? "The job was cancelled" : reason;
+        }
+    }
+
+    /** Check whether the job should stop.
+     * @return true if the job was cancelled or its time budget is spent.
+     */
+    public boolean isCancelled() {
+        return cancelReason != null || getRemainingMs() == 0;
+    }
+
+    /** Get the time left in the job's budget.
+     * @return the time in milliseconds, or {@link Long#MAX_VALUE} if the job
+     * has no time budget.
+     */
+    public long getRemainingMs() {
+        if (timeBudgetMs == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /** Stop the job if it should stop.
+     * @throws JobCancelledException if the job was cancelled, its time budget
+     * is spent, or the thread was interrupted. The interrupt is left set.
+     */
+    public void check() {
+        final String reason = cancelReason;
+        if (reason != null) {
+            throw new JobCancelledException(reason);
+        }
+        if (timeBudgetMs != 0 && deadline - System.nanoTime() <= 0) {
+            throw new JobCancelledException(String.format(
+                    "The job ran past its time budget of %s seconds", timeBudgetMs / 1000));
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new JobCancelledException("The job was interrupted");
+        }
+    }
+}
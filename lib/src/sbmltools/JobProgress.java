@@ -0,0 +1,138 @@
+package sbmltools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a running job, for reporting while the job runs.
+ * <p>
+ * The job updates the counters for each contig it reads, so updates are lock
+ * free. The per contig counters have a single writer, the thread filtering
+ * the contigs, and are published with ordered writes that cost little more
+ * than plain stores; they must not be updated from two threads at once. A
+ * {@link #toMap() snapshot} may be taken from any thread at any time; its
+ * values are each current, but not necessarily from the same moment.
+ */
+public class JobProgress {
+
+    private final String method;
+    private final long startedMs = System.currentTimeMillis();
+    private volatile String stage = "starting";
+    private final AtomicLong assembliesDone = new AtomicLong();
+    private volatile long assembliesTotal = 0;
+    private final AtomicLong contigsScanned = new AtomicLong();
+    private final AtomicLong contigsKept = new AtomicLong();
+    private final AtomicLong basesScanned = new AtomicLong();
+    private final AtomicLong bytesParsed = new AtomicLong();
+    private final AtomicLong bytesTotal = new AtomicLong();
+    private final AtomicLong contigsSorted = new AtomicLong();
+
+    /** Create the progress of a job that starts now.
+     * @param method the name of the method the job runs, or null.
+     */
+    public JobProgress(final String method) {
+        this.method = method;
+    }
+
+    /** Set the stage the job is in, e.g. <code>downloading</code>.
+     * @param stage the stage.
+     */
+    public void setStage(final String stage) {
+        this.stage = stage;
+    }
+
+    /** Get the stage the job is in.
+     * @return the stage.
+     */
+    public String getStage() {
+        return stage;
+    }
+
+    /** Set the number of assemblies the job processes.
+     * @param total the assembly count.
+     */
+    public void setAssembliesTotal(final long total) {
+        assembliesTotal = total;
+    }
+
+    /** Record that the job finished filtering an assembly. May be called from
+     * any thread.
+     */
+    public void assemblyDone() {
+        assembliesDone.incrementAndGet();
+    }
+
+    /** Record the start of a FASTA file the job parses.
+     * @param bytes the size of the file.
+     */
+    public void startFile(final long bytes) {
+        bytesTotal.addAndGet(bytes);
+    }
+
+    /** Record a contig read from the input.
+     * @param length the contig length.
+     * @param kept true if the filter kept the contig.
+     */
+    public void contigScanned(final long length, final boolean kept) {
+        contigsScanned.lazySet(contigsScanned.get() + 1);
+        basesScanned.lazySet(basesScanned.get() + length);
+        if (kept) {
+            contigsKept.lazySet(contigsKept.get() + 1);
+        }
+    }
+
+    /** Record bytes of input parsed since the last call.
+     * @param bytes the byte count.
+     */
+    public void bytesParsed(final long bytes) {
+        bytesParsed.lazySet(bytesParsed.get() + bytes);
+    }
+
+    /** Record a contig written by a sort. */
+    public void contigSorted() {
+        contigsSorted.lazySet(contigsSorted.get() + 1);
+    }
+
+    /** Get the number of contigs read.
+     * @return the contig count.
+     */
+    public long getContigsScanned() {
+        return contigsScanned.get();
+    }
+
+    /** Get the number of input bytes parsed.
+     * @return the byte count.
+     */
+    public long getBytesParsed() {
+        return bytesParsed.get();
+    }
+
+    /** Get a snapshot of the progress, with the keys <code>method</code>,
+     * <code>stage</code>, <code>started</code> (epoch milliseconds),
+     * <code>elapsed_ms</code>, <code>assemblies_done</code>,
+     * <code>assemblies_total</code>, <code>contigs_scanned</code>,
+     * <code>contigs_kept</code>, <code>bases_scanned</code>,
+     * <code>bytes_parsed</code>, <code>bytes_total</code> and
+     * <code>contigs_sorted</code>. The bytes parsed are of decompressed FASTA,
+     * and the total is of the input files as stored, so the fraction parsed
+     * is only exact for uncompressed input.
+     * @return the snapshot.
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("method", method);
+        ret.put("stage", stage);
+        ret.put("started", startedMs);
+        ret.put("elapsed_ms", System.currentTimeMillis() - startedMs);
+        ret.put("assemblies_done", assembliesDone.get());
+        ret.put("assemblies_total", assembliesTotal);
+        ret.put("contigs_scanned", contigsScanned.get());
+        ret.put("contigs_kept", contigsKept.get());
+        ret.put("bases_scanned", basesScanned.get());
+        ret.put("bytes_parsed", bytesParsed.get());
+        ret.put("bytes_total", bytesTotal.get());
+        ret.put("contigs_sorted", contigsSorted.get());
+        return ret;
+    }
+}
@@ -0,0 +1,599 @@
+package sbmltools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A servlet filter that lets JSON-RPC clients send several calls in one HTTP
+ * request.
+ * <p>
+ * A request whose body is a JSON array is a batch: each element is a call,
+ * which is passed to the servlet as a request of its own with the batch's
+ * headers, so authentication applies to every call. The calls in a batch are
+ * independent and run concurrently, on at most <code>threads</code> threads
+ * shared by all batches, by default {@link #DEFAULT_THREADS}. Callers, told
+ * apart by their Authorization header, take turns at the threads, so a caller
+ * with a large batch does not make other callers wait for all of its calls.
+ * The response is
+ * a JSON array of the calls' responses in the order of the calls, including
+ * the responses of calls that failed. A batch of more than
+ * <code>max-calls</code> calls, by default {@link #DEFAULT_MAX_CALLS}, is
+ * refused. Requests that are not batches are passed on unchanged.
+ * <p>
+ * Methods that run as long jobs, such as filtering an assembly, may run for
+ * hours when called directly, and a few such calls would hold every shared
+ * thread while other callers' short calls waited behind them. They cannot be
+ * batched: each such call in a batch fails at once with an error response,
+ * without taking a thread, and the batch's other calls run as usual. The
+ * methods are given, comma separated, as <code>long-running-methods</code>,
+ * by default {@link #DEFAULT_LONG_RUNNING_METHODS}.
+ */
+public class JsonRpcBatchFilter implements Filter {
+
+    /** The default number of threads running the calls of batches. */
+    public static final int DEFAULT_THREADS = 8;
+    /** The default largest number of calls in a batch. */
+    public static final int DEFAULT_MAX_CALLS = 1000;
+    /** The default methods that cannot be batched. */
+    public static final String DEFAULT_LONG_RUNNING_METHODS =
+            "SBMLTools.filter_contigs_changed,SBMLTools.filter_contigs_batch";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String JSON = "application/json";
+
+    private int maxCalls = DEFAULT_MAX_CALLS;
+    private Set<String> longRunningMethods = Collections.emptySet();
+    private FairExecutor executor = null;
+
+    @Override
+    public void init(final FilterConfig config) throws ServletException {
+        final int threads = getIntParam(config, "threads", DEFAULT_THREADS);
+        maxCalls = getIntParam(config, "max-calls", DEFAULT_MAX_CALLS);
+        final String methods = config.getInitParameter("long-running-methods");
+        longRunningMethods = new TreeSet<String>();
+        for (final String m: (methods == null ? DEFAULT_LONG_RUNNING_METHODS : methods)
+                .split(",")) {
+            if (!m.trim().isEmpty()) {
+                longRunningMethods.add(m.trim());
+            }
+        }
+        executor = new FairExecutor(threads);
+    }
+
+    private static int getIntParam(
+            final FilterConfig config,
+            final String name,
+            final int defaultValue)
+            throws ServletException {
+        final String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int i = Integer.parseInt(value.trim());
+            if (i < 1) {
+                throw new ServletException(String.format(
+                        "Invalid %s for JsonRpcBatchFilter: %s", name, value));
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw new ServletException(String.format(
+                    "Invalid %s for JsonRpcBatchFilter: %s", name, value), e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void doFilter(
+            final ServletRequest request,
+            final ServletResponse response,
+            final FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) ||
+                !(response instanceof HttpServletResponse) ||
+                !"POST".equalsIgnoreCase(((HttpServletRequest) request).getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final HttpServletRequest req = (HttpServletRequest) request;
+        final HttpServletResponse resp = (HttpServletResponse) response;
+        // look at the first character of the body without consuming it
+        final InputStream in = req.getInputStream();
+        final ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            prefix.write(c);
+            if (!Character.isWhitespace(c)) {
+                break;
+            }
+        }
+        if (c != '[') {
+            chain.doFilter(new ReplayRequest(req, prefix.toByteArray(), in), response);
+            return;
+        }
+        final JsonNode calls;
+        try {
+            calls = MAPPER.readTree(new SequenceInputStream(
+                    new ByteArrayInputStream(prefix.toByteArray()), in));
+        } catch (IOException e) {
+            resp.sendError(400, "Invalid JSON-RPC batch: " + e.getMessage());
+            return;
+        }
+        if (calls.size() > maxCalls) {
+            resp.sendError(413, String.format(
+                    "A JSON-RPC batch may have at most %s calls", maxCalls));
+            return;
+        }
+        final String auth = req.getHeader("Authorization");
+        final String caller = auth == null ? "" : auth;
+        final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+        try {
+            for (final JsonNode call: calls) {
+                final String method = call.path("method").asText();
+                if (longRunningMethods.contains(method)) {
+                    results.add(done(error(call, -32600, "JSONRPCError", String.format(
+                            "%s runs as a long job and cannot be called in a batch",
+                            method))));
+                    continue;
+                }
+                results.add(executor.submit(caller, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return runCall(req, resp, call, chain);
+                    }
+                }));
+            }
+            resp.setStatus(200);
+            resp.setContentType(JSON);
+            final OutputStream out = resp.getOutputStream();
+            out.write('[');
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(getResult(results.get(i), calls.get(i)));
+            }
+            out.write(']');
+            out.flush();
+        } finally {
+            // only left running if the request thread was interrupted
+            for (final Future<byte[]> f: results) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private static Future<byte[]> done(final byte[] result) {
+        final FutureTask<byte[]> f = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return result;
+            }
+        });
+        f.run();
+        return f;
+    }
+
+    private static byte[] getResult(final Future<byte[]> result, final JsonNode call)
+            throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running a JSON-RPC batch", e);
+        } catch (ExecutionException e) {
+            return error(call, -32603, "JSONRPCError", "Call failed: " + e.getCause());
+        }
+    }
+
+    private static byte[] runCall(
+            final HttpServletRequest request,
+            final HttpServletResponse response,
+            final JsonNode call,
+            final FilterChain chain)
+            throws IOException, ServletException {
+        if (!call.isObject()) {
+            return error(call, -32600, "JSONRPCError", "A batched call must be an object");
+        }
+        final CallResponse resp = new CallResponse(response);
+        chain.doFilter(new CallRequest(request, MAPPER.writeValueAsBytes(call)), resp);
+        final byte[] body = resp.getBody();
+        if (body.length == 0) {
+            return "null".getBytes("UTF-8");
+        }
+        final String type = resp.getContentType();
+        if (type != null && !type.toLowerCase().startsWith(JSON)) {
+            return error(call, -32603, "JSONRPCError", String.format(
+                    "Call failed with HTTP status %s: %s", resp.status,
+                    new String(body, "UTF-8")));
+        }
+        return body;
+    }
+
+    private static byte[] error(
+            final JsonNode call,
+            final int code,
+            final String name,
+            final String message)
+            throws IOException {
+        final Map<String, Object> err = new LinkedHashMap<String, Object>();
+        err.put("name", name);
+        err.put("code", code);
+        err.put("message", message);
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("version", "1.1");
+        ret.put("id", call.isObject() && call.has("id") ? call.get("id") : null);
+        ret.put("error", err);
+        return MAPPER.writeValueAsBytes(ret);
+    }
+
+    private static ServletInputStream toServletStream(final InputStream in) {
+        return new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return in.read(b, off, len);
+            }
+        };
+    }
+
+    /* Runs tasks on a fixed set of threads, taking tasks from each caller with
+     * tasks waiting in turn. A caller's own tasks run in the order submitted.
+     */
+    private static class FairExecutor {
+
+        // callers with tasks waiting, in the order they next get a turn
+        private final LinkedHashMap<String, ArrayDeque<FutureTask<?>>> queues =
+                new LinkedHashMap<String, ArrayDeque<FutureTask<?>>>();
+        private final List<Thread> threads = new ArrayList<Thread>();
+        private boolean shutdown = false;
+
+        private FairExecutor(final int threadCount) {
+            for (int i = 0; i < threadCount; i++) {
+                final Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (true) {
+                            // clears an interrupt left by cancelling the last task
+                            Thread.interrupted();
+                            final FutureTask<?> task = take();
+                            if (task == null) {
+                                return;
+                            }
+                            task.run();
+                        }
+                    }
+                }, "jsonrpc-batch-" + (i + 1));
+                t.setDaemon(true);
+                threads.add(t);
+                t.start();
+            }
+        }
+
+        private synchronized <T> Future<T> submit(final String caller, final Callable<T> task) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The batch filter has been destroyed");
+            }
+            final FutureTask<T> f = new FutureTask<T>(task);
+            ArrayDeque<FutureTask<?>> q = queues.get(caller);
+            if (q == null) {
+                q = new ArrayDeque<FutureTask<?>>();
+                queues.put(caller, q);
+            }
+            q.add(f);
+            notify();
+            return f;
+        }
+
+        private synchronized FutureTask<?> take() {
+            while (!shutdown && queues.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // only shutdownNow interrupts a waiting thread
+                }
+            }
+            if (shutdown) {
+                return null;
+            }
+            final Iterator<Map.Entry<String, ArrayDeque<FutureTask<?>>>> it =
+                    queues.entrySet().iterator();
+            final Map.Entry<String, ArrayDeque<FutureTask<?>>> next = it.next();
+            it.remove();
+            final FutureTask<?> task = next.getValue().poll();
+            if (!next.getValue().isEmpty()) {
+                // the caller's next task waits for the other callers' turns
+                queues.put(next.getKey(), next.getValue());
+            }
+            return task;
+        }
+
+        private void shutdownNow() {
+            synchronized (this) {
+                shutdown = true;
+                for (final ArrayDeque<FutureTask<?>> q: queues.values()) {
+                    for (final FutureTask<?> f: q) {
+                        f.cancel(false);
+                    }
+                }
+                queues.clear();
+                notifyAll();
+            }
+            for (final Thread t: threads) {
+                t.interrupt();
+            }
+        }
+    }
+
+    /* A request whose first bytes have been read already. */
+    private static class ReplayRequest extends HttpServletRequestWrapper {
+
+        private final ServletInputStream in;
+        private BufferedReader reader = null;
+
+        private ReplayRequest(
+                final HttpServletRequest request,
+                final byte[] prefix,
+                final InputStream rest) {
+            super(request);
+            in = toServletStream(new SequenceInputStream(
+                    new ByteArrayInputStream(prefix), rest));
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                final String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(in,
+                        charset == null ? "UTF-8" : charset));
+            }
+            return reader;
+        }
+    }
+
+    /* One call of a batch. Attributes are kept per call, since calls run
+     * concurrently.
+     */
+    private static class CallRequest extends ReplayRequest {
+
+        private final int length;
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private CallRequest(final HttpServletRequest request, final byte[] body) {
+            super(request, body, new ByteArrayInputStream(new byte[0]));
+            length = body.length;
+        }
+
+        @Override
+        public int getContentLength() {
+            return length;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                return String.valueOf(length);
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public synchronized Object getAttribute(final String name) {
+            return attributes.containsKey(name) ? attributes.get(name) : super.getAttribute(name);
+        }
+
+        @Override
+        public synchronized Enumeration<String> getAttributeNames() {
+            final List<String> names = new ArrayList<String>(attributes.keySet());
+            @SuppressWarnings("unchecked")
+            final Enumeration<String> e = super.getAttributeNames();
+            while (e.hasMoreElements()) {
+                final String n = e.nextElement();
+                if (!attributes.containsKey(n)) {
+                    names.add(n);
+                }
+            }
+            return Collections.enumeration(names);
+        }
+
+        @Override
+        public synchronized void setAttribute(final String name, final Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public synchronized void removeAttribute(final String name) {
+            attributes.put(name, null);
+        }
+    }
+
+    /* Collects the response to one call of a batch. Headers other than the
+     * content type do not apply to the batch response, and are dropped.
+     */
+    private static class CallResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private ServletOutputStream out = null;
+        private PrintWriter writer = null;
+        private String contentType = null;
+        private String charset = null;
+        private int status = 200;
+
+        private CallResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        private byte[] getBody() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return body.toByteArray();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (out == null) {
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) {
+                        body.write(b, off, len);
+                    }
+                };
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                        getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return charset == null ? "UTF-8" : charset;
+        }
+
+        @Override
+        public void setCharacterEncoding(final String charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public void setContentType(final String type) {
+            contentType = type;
+        }
+
+        @Override
+        public void setStatus(final int sc) {
+            status = sc;
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException {
+            sendError(sc, "HTTP status " + sc);
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException {
+            status = sc;
+            contentType = "text/plain";
+            body.reset();
+            body.write(String.valueOf(msg).getBytes("UTF-8"));
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        @Override
+        public void flushBuffer() {}
+
+        @Override
+        public void resetBuffer() {
+            body.reset();
+        }
+
+        @Override
+        public void reset() {
+            body.reset();
+            status = 200;
+            contentType = null;
+        }
+
+        @Override
+        public void setContentLength(final int len) {}
+
+        @Override
+        public void setHeader(final String name, final String value) {}
+
+        @Override
+        public void addHeader(final String name, final String value) {}
+
+        @Override
+        public void setIntHeader(final String name, final int value) {}
+
+        @Override
+        public void addIntHeader(final String name, final int value) {}
+
+        @Override
+        public void setDateHeader(final String name, final long date) {}
+
+        @Override
+        public void addDateHeader(final String name, final long date) {}
+
+        @Override
+        public boolean containsHeader(final String name) {
+            return false;
+        }
+    }
+}
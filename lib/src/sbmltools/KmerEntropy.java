@@ -0,0 +1,98 @@
+package sbmltools;
+
+import java.util.Arrays;
+
+/**
+ * Computes the Shannon entropy of the k-mer distribution of a sequence, as a
+ * measure of its complexity.
+ * <p>
+ * The entropy is normalized to [0, 1] by the largest entropy possible for the
+ * number of k-mers in the sequence, so short and long contigs can be compared
+ * against one threshold. Tandem repeats and homopolymer runs score near 0.
+ * K-mers containing a base other than A, C, G or T are skipped. The count
+ * array is allocated once and only the entries touched by a sequence are
+ * reset afterwards, so no memory is allocated per sequence. Instances are not
+ * thread safe.
+ */
+public class KmerEntropy {
+
+    /** The largest supported k. */
+    public static final int MAX_K = 8;
+
+    private static final double LN2 = Math.log(2);
+    private static final byte[] CODES = new byte[256];
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        final String bases = "ACGT";
+        for (int i = 0; i < bases.length(); i++) {
+            CODES[bases.charAt(i)] = (byte) i;
+            CODES[Character.toLowerCase(bases.charAt(i))] = (byte) i;
+        }
+    }
+
+    private final int k;
+    private final int mask;
+    private final int[] counts;
+    private final int[] touched;
+
+    /** Create an entropy calculator.
+     * @param k the k-mer size, from 1 to {@link #MAX_K}.
+     */
+    public KmerEntropy(final int k) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException(
+                    "k-mer size must be between 1 and " + MAX_K + " (" + k + ")");
+        }
+        this.k = k;
+        this.mask = (1 << (2 * k)) - 1;
+        this.counts = new int[1 << (2 * k)];
+        this.touched = new int[counts.length];
+    }
+
+    /** Get the k-mer size.
+     * @return k.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /** Compute the normalized k-mer entropy of a sequence.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     * @return the entropy, from 0 to 1. Sequences with fewer than 2 k-mers
+     * score 0.
+     */
+    public double entropy(final byte[] seq, final int length) {
+        int distinct = 0;
+        long total = 0;
+        int kmer = 0;
+        int valid = 0;
+        for (int i = 0; i < length; i++) {
+            final int code = CODES[seq[i] & 0xff];
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & mask;
+            if (++valid >= k) {
+                if (counts[kmer]++ == 0) {
+                    touched[distinct++] = kmer;
+                }
+                total++;
+            }
+        }
+        // H = log2(n) - sum(c * log2(c)) / n
+        double sum = 0;
+        for (int i = 0; i < distinct; i++) {
+            final int c = counts[touched[i]];
+            sum += c * Math.log(c);
+            counts[touched[i]] = 0;
+        }
+        if (total < 2) {
+            return 0;
+        }
+        final double h = (Math.log(total) - sum / total) / LN2;
+        final double max = Math.min(2.0 * k, Math.log(total) / LN2);
+        return Math.max(0, Math.min(1, h / max));
+    }
+}
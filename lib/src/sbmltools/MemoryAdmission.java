@@ -0,0 +1,399 @@
+package sbmltools;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Admits jobs to run only while the sum of their estimated peak heap use fits
+ * in a budget.
+ * <p>
+ * A job estimates its peak heap use, usually from the size of its input, and
+ * acquires a {@link Permit} for that many bytes before the memory hungry part
+ * of its work, closing the permit when done. Jobs that do not fit wait in a
+ * bounded queue. A job that would wait when the queue is full, or when its
+ * user already has the most jobs a user may have waiting, is rejected at once.
+ * An estimate larger than the whole budget is reduced to the budget, so such a
+ * job runs, but only alone.
+ * <p>
+ * Waiting jobs are admitted by start time fair queuing among their users: each
+ * job is tagged, on arrival, with the virtual time at which its user's
+ * previous job finishes, and each job advances its user's virtual time by the
+ * inverse of the user's weight. The waiting job with the earliest tag is
+ * admitted next, once it fits; jobs are not admitted around it, so a large job
+ * is not starved by a stream of small ones. A user who submits many jobs at
+ * once therefore shares admission with other users in proportion to their
+ * weights, rather than making them wait behind all of the jobs, and a user's
+ * own jobs are admitted in the order they arrived. A job that stops waiting,
+ * because it was interrupted or cancelled, gives its share of the virtual time
+ * back to its user. Instances are thread safe.
+ */
+public class MemoryAdmission {
+
+    /** The fraction of the maximum heap used as the budget by default. */
+    public static final double DEFAULT_HEAP_FRACTION = 0.6;
+    /** The default number of jobs that may wait for admission. */
+    public static final int DEFAULT_MAX_QUEUED = 32;
+    /** The default number of jobs one user may have waiting for admission. */
+    public static final int DEFAULT_MAX_QUEUED_PER_USER = 8;
+
+    // how often a waiting job checks whether it was cancelled
+    private static final long CANCEL_CHECK_MS = 1000;
+
+    private final long budgetBytes;
+    private final int maxQueued;
+    private final int maxQueuedPerUser;
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+    private final Map<String, Integer> queuedByUser = new HashMap<String, Integer>();
+    // the virtual time at which each user's last job finishes
+    private final Map<String, Double> finishTags = new HashMap<String, Double>();
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+    private double virtualTime = 0;
+    private long arrivals = 0;
+    private long admittedBytes = 0;
+    private int running = 0;
+    private long rejected = 0;
+
+    /** Create an admission controller with no limit on the jobs one user may
+     * have waiting other than the queue size.
+     * @param budgetBytes the budget in bytes.
+     * @param maxQueued the most jobs that may wait for admission at once.
+     */
+    public MemoryAdmission(final long budgetBytes, final int maxQueued) {
+        this(budgetBytes, maxQueued, maxQueued);
+    }
+
+    /** Create an admission controller.
+     * @param budgetBytes the budget in bytes.
+     * @param maxQueued the most jobs that may wait for admission at once.
+     * @param maxQueuedPerUser the most jobs one user may have waiting for
+     * admission at once.
+     */
+    public MemoryAdmission(
+            final long budgetBytes,
+            final int maxQueued,
+            final int maxQueuedPerUser) {
+        if (budgetBytes < 1) {
+            throw new IllegalArgumentException("The budget must be at least 1 byte");
+        }
+        if (maxQueued < 0 || maxQueuedPerUser < 0) {
+            throw new IllegalArgumentException("The queue size cannot be negative");
+        }
+        this.budgetBytes = budgetBytes;
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+    }
+
+    /** Set a user's weight. A user's share of admissions, while users compete
+     * for the budget, is proportional to their weight. Users have a weight of
+     * 1 unless it is set.
+     * @param user the user name.
+     * @param weight the weight, which must be positive.
+     */
+    public synchronized void setWeight(final String user, final double weight) {
+        if (!(weight > 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("A weight must be a positive number: " +
+                    weight);
+        }
+        weights.put(key(user), weight);
+    }
+
+    /** Get a user's weight.
+     * @param user the user name.
+     * @return the weight.
+     */
+    public synchronized double getWeight(final String user) {
+        final Double w = weights.get(key(user));
+        return w == null ? 1 : w;
+    }
+
+    private static String key(final String user) {
+        return user == null ? "" : user;
+    }
+
+    /** Get a budget of {@link #DEFAULT_HEAP_FRACTION} of this JVM's maximum
+     * heap.
+     * @return the budget in bytes.
+     */
+    public static long getDefaultBudgetBytes() {
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+    }
+
+    /** Wait until a job fits in the budget, and admit it, as a job of an
+     * anonymous user.
+     * @param estimateBytes the job's estimated peak heap use.
+     * @return the job's permit, which must be closed when the job no longer
+     * needs the memory.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws RejectedExecutionException if the job would have to wait and the
+     * queue is full.
+     */
+    public Permit acquire(final long estimateBytes) throws InterruptedException {
+        return acquire(null, estimateBytes);
+    }
+
+    /** Wait until a job fits in the budget and is next in the fair order, and
+     * admit it.
+     * @param user the name of the user the job runs for, or null for an
+     * anonymous user.
+     * @param estimateBytes the job's estimated peak heap use.
+     * @return the job's permit, which must be closed when the job no longer
+     * needs the memory.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws RejectedExecutionException if the job would have to wait and the
+     * queue, or the user's share of it, is full.
+     */
+    public Permit acquire(final String user, final long estimateBytes)
+            throws InterruptedException {
+        return acquire(user, estimateBytes, null);
+    }
+
+    /** Wait until a job fits in the budget and is next in the fair order, or
+     * until the job is stopped, and admit it.
+     * @param user the name of the user the job runs for, or null for an
+     * anonymous user.
+     * @param estimateBytes the job's estimated peak heap use.
+     * @param control the job's control, checked while the job waits, or null.
+     * @return the job's permit, which must be closed when the job no longer
+     * needs the memory.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws RejectedExecutionException if the job would have to wait and the
+     * queue, or the user's share of it, is full.
+     * @throws JobControl.JobCancelledException if the job is cancelled or
+     * runs out of time while waiting.
+     */
+    public Permit acquire(
+            final String user,
+            final long estimateBytes,
+            final JobControl control)
+            throws InterruptedException {
+        if (estimateBytes < 0) {
+            throw new IllegalArgumentException("The estimate cannot be negative");
+        }
+        final String u = key(user);
+        final long bytes = Math.min(estimateBytes, budgetBytes);
+        synchronized (this) {
+            if (queue.isEmpty() && fits(bytes)) {
+                return admit(tag(u, 1 / getWeight(u)), bytes);
+            }
+            final int queued = queuedOf(u);
+            if (queue.size() >= maxQueued || queued >= maxQueuedPerUser) {
+                rejected++;
+                throw new RejectedExecutionException(String.format(
+                        "The server is busy: %s jobs are already waiting for memory to " +
+                        "run%s. Try again later.", queue.size(), queued == 0 ? "" :
+                                String.format(", %s of them yours", queued)));
+            }
+            final double cost = 1 / getWeight(u);
+            final Waiter waiter = new Waiter(u, virtualTime, tag(u, cost), cost, arrivals++);
+            queue.add(waiter);
+            queuedByUser.put(u, queued + 1);
+            try {
+                while (queue.peek() != waiter || !fits(bytes)) {
+                    if (control == null) {
+                        wait();
+                    } else {
+                        control.check();
+                        wait(Math.max(1, Math.min(CANCEL_CHECK_MS, control.getRemainingMs())));
+                    }
+                }
+            } catch (InterruptedException | JobControl.JobCancelledException e) {
+                queue.remove(waiter);
+                abandoned(waiter);
+                dequeued(u);
+                // the job behind this one may now be first and fit
+                notifyAll();
+                throw e;
+            }
+            queue.poll();
+            dequeued(u);
+            // the next job may fit in what is left
+            notifyAll();
+            return admit(waiter.start, bytes);
+        }
+    }
+
+    private int queuedOf(final String user) {
+        final Integer queued = queuedByUser.get(user);
+        return queued == null ? 0 : queued;
+    }
+
+    private void dequeued(final String user) {
+        final int queued = queuedOf(user) - 1;
+        if (queued == 0) {
+            queuedByUser.remove(user);
+        } else {
+            queuedByUser.put(user, queued);
+        }
+    }
+
+    // returns the start tag of a user's next job, and advances the user's tag
+    private double tag(final String user, final double cost) {
+        final Double finish = finishTags.get(user);
+        final double start = finish == null ? virtualTime : Math.max(virtualTime, finish);
+        finishTags.put(user, start + cost);
+        return start;
+    }
+
+    /* retags the jobs of a waiter's user that arrived after it as if the
+     * waiter had never arrived, so the user is not charged for a job that
+     * never ran
+     */
+    private void abandoned(final Waiter waiter) {
+        final List<Waiter> later = new ArrayList<Waiter>();
+        for (final Waiter w: queue) {
+            if (w.user.equals(waiter.user) && w.arrival > waiter.arrival) {
+                later.add(w);
+            }
+        }
+        // a user's jobs have tags in the order they arrived
+        Collections.sort(later);
+        queue.removeAll(later);
+        double finish = waiter.start;
+        for (final Waiter w: later) {
+            w.start = Math.max(w.arrivalTime, finish);
+            finish = w.start + w.cost;
+            queue.add(w);
+        }
+        finishTags.put(waiter.user, finish);
+    }
+
+    private boolean fits(final long bytes) {
+        return admittedBytes + bytes <= budgetBytes;
+    }
+
+    private Permit admit(final double start, final long bytes) {
+        if (start > virtualTime) {
+            virtualTime = start;
+            /* a user whose jobs all finish before the virtual time would be
+             * tagged with the virtual time anyway
+             */
+            final Iterator<Map.Entry<String, Double>> it = finishTags.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Double> e = it.next();
+                if (e.getValue() <= virtualTime && !queuedByUser.containsKey(e.getKey())) {
+                    it.remove();
+                }
+            }
+        }
+        admittedBytes += bytes;
+        running++;
+        return new Permit(bytes);
+    }
+
+    private synchronized void release(final long bytes) {
+        admittedBytes -= bytes;
+        running--;
+        notifyAll();
+    }
+
+    /** Get the budget.
+     * @return the budget in bytes.
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Get the sum of the estimates of the jobs running.
+     * @return the admitted bytes.
+     */
+    public synchronized long getAdmittedBytes() {
+        return admittedBytes;
+    }
+
+    /** Get the number of jobs running.
+     * @return the running job count.
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /** Get the number of jobs waiting for admission.
+     * @return the queued job count.
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /** Get the number of jobs rejected because the queue was full.
+     * @return the rejected job count.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /** Get the number of jobs of a user waiting for admission.
+     * @param user the user name.
+     * @return the queued job count.
+     */
+    public synchronized int getQueued(final String user) {
+        return queuedOf(key(user));
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+
+        private final String user;
+        // the virtual time when the job arrived
+        private final double arrivalTime;
+        private double start;
+        private final double cost;
+        private final long arrival;
+
+        private Waiter(
+                final String user,
+                final double arrivalTime,
+                final double start,
+                final double cost,
+                final long arrival) {
+            this.user = user;
+            this.arrivalTime = arrivalTime;
+            this.start = start;
+            this.cost = cost;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(final Waiter w) {
+            final int c = Double.compare(start, w.start);
+            return c != 0 ? c : Long.compare(arrival, w.arrival);
+        }
+    }
+
+    /** An admitted job's share of the budget. */
+    public class Permit implements Closeable {
+
+        private final long bytes;
+        private boolean closed = false;
+
+        private Permit(final long bytes) {
+            this.bytes = bytes;
+        }
+
+        /** Get the bytes of the budget this permit holds.
+         * @return the admitted bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Return the permit's bytes to the budget. Closing a permit more than
+         * once has no further effect.
+         */
+        @Override
+        public void close() {
+            synchronized (MemoryAdmission.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory store of assembly sequences at 2 bits per base.
+ * <p>
+ * A, C, G and T are packed 32 to a long. Any other base, such as N or an IUPAC
+ * ambiguity code, is packed as A and recorded in a side table of runs, and
+ * soft-masked (lower case) regions are recorded in a second run table, so
+ * sequences are returned exactly as they were added. Contig lengths and GC
+ * counts are computed from the packed words without decoding, which lets
+ * repeated passes over an assembly run without going back to the FASTA file.
+ */
+public class PackedSequenceStore {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[256];
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < BASES.length; i++) {
+            CODES[BASES[i]] = (byte) i;
+            CODES[Character.toLowerCase(BASES[i])] = (byte) i;
+        }
+    }
+    private static final long GC_BITS = 0x5555555555555555L;
+
+    private long[] words = new long[1024];
+    private long bases = 0;
+
+    private final List<String> headers = new ArrayList<String>();
+    private long[] starts = new long[256];
+    private int[] lengths = new int[256];
+
+    // runs of bases other than ACGT, sorted by start
+    private long[] ambigStarts = new long[64];
+    private int[] ambigLengths = new int[64];
+    private byte[] ambigCodes = new byte[64];
+    private int ambigRuns = 0;
+
+    // runs of lower case bases, sorted by start
+    private long[] maskStarts = new long[64];
+    private int[] maskLengths = new int[64];
+    private int maskRuns = 0;
+
+    /** Load every contig of a FASTA file into a new store.
+     * @param fasta the FASTA file, which may be compressed.
+     * @return the store.
+     * @throws IOException if the file cannot be read.
+     */
+    public static PackedSequenceStore load(final Path fasta) throws IOException {
+        final PackedSequenceStore store = new PackedSequenceStore();
+        try (final FastaReader reader = new FastaReader(fasta)) {
+            while (reader.next()) {
+                store.add(reader.getHeader(), reader.getSequence(), reader.getLength());
+            }
+        }
+        return store;
+    }
+
+    /** Add a contig.
+     * @param header the FASTA header of the contig, without the leading '>'.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     */
+    public void add(final String header, final byte[] seq, final int length) {
+        final int n = headers.size();
+        if (n == starts.length) {
+            starts = Arrays.copyOf(starts, n * 2);
+            lengths = Arrays.copyOf(lengths, n * 2);
+        }
+        headers.add(header);
+        starts[n] = bases;
+        lengths[n] = length;
+        final long needed = ((bases + length) >>> 5) + 1;
+        if (needed > words.length) {
+            if (needed > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many bases for a packed store");
+            }
+            words = Arrays.copyOf(words, (int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(needed, words.length + (words.length >> 1))));
+        }
+        long pos = bases;
+        for (int i = 0; i < length; i++, pos++) {
+            final int b = seq[i] & 0xff;
+            int code = CODES[b];
+            if (code < 0) {
+                addAmbiguous(pos, (byte) (b >= 'a' && b <= 'z' ? b - 32 : b));
+                code = 0;
+            }
+            if (b >= 'a' && b <= 'z') {
+                addMasked(pos);
+            }
+            words[(int) (pos >>> 5)] |= ((long) code) << ((pos & 31) << 1);
+        }
+        bases = pos;
+    }
+
+    private void addAmbiguous(final long pos, final byte code) {
+        final int last = ambigRuns - 1;
+        if (last >= 0 && ambigCodes[last] == code
+                && ambigStarts[last] + ambigLengths[last] == pos
+                && ambigLengths[last] < Integer.MAX_VALUE) {
+            ambigLengths[last]++;
+            return;
+        }
+        if (ambigRuns == ambigStarts.length) {
+            ambigStarts = Arrays.copyOf(ambigStarts, ambigRuns * 2);
+            ambigLengths = Arrays.copyOf(ambigLengths, ambigRuns * 2);
+            ambigCodes = Arrays.copyOf(ambigCodes, ambigRuns * 2);
+        }
+        ambigStarts[ambigRuns] = pos;
+        ambigLengths[ambigRuns] = 1;
+        ambigCodes[ambigRuns] = code;
+        ambigRuns++;
+    }
+
+    private void addMasked(final long pos) {
+        final int last = maskRuns - 1;
+        if (last >= 0 && maskStarts[last] + maskLengths[last] == pos
+                && maskLengths[last] < Integer.MAX_VALUE) {
+            maskLengths[last]++;
+            return;
+        }
+        if (maskRuns == maskStarts.length) {
+            maskStarts = Arrays.copyOf(maskStarts, maskRuns * 2);
+            maskLengths = Arrays.copyOf(maskLengths, maskRuns * 2);
+        }
+        maskStarts[maskRuns] = pos;
+        maskLengths[maskRuns] = 1;
+        maskRuns++;
+    }
+
+    /** Get the number of contigs in the store.
+     * @return the contig count.
+     */
+    public int size() {
+        return headers.size();
+    }
+
+    /** Get the total number of bases in the store.
+     * @return the base count.
+     */
+    public long getTotalLength() {
+        return bases;
+    }
+
+    /** Get the FASTA header of a contig.
+     * @param contig the index of the contig, in the order they were added.
+     * @return the header.
+     */
+    public String getHeader(final int contig) {
+        return headers.get(contig);
+    }
+
+    /** Get the length of a contig.
+     * @param contig the index of the contig.
+     * @return the number of bases.
+     */
+    public int getLength(final int contig) {
+        checkIndex(contig);
+        return lengths[contig];
+    }
+
+    /** Get an estimate of the heap used by the store.
+     * @return the estimated size in bytes.
+     */
+    public long getMemoryUsage() {
+        long size = words.length * 8L + starts.length * 12L
+                + ambigStarts.length * 13L + maskStarts.length * 12L;
+        for (final String h: headers) {
+            size += 40 + h.length() * 2;
+        }
+        return size;
+    }
+
+    /** Decode the sequence of a contig.
+     * @param contig the index of the contig.
+     * @param buf a buffer to reuse, or null. A larger buffer is allocated if
+     * the contig does not fit.
+     * @return the buffer holding the sequence in its first
+     * {@link #getLength(int)} bytes.
+     */
+    public byte[] getSequence(final int contig, byte[] buf) {
+        final int length = getLength(contig);
+        if (buf == null || buf.length < length) {
+            buf = new byte[Math.max(length, 16)];
+        }
+        final long start = starts[contig];
+        final long end = start + length;
+        for (long p = start; p < end; p++) {
+            buf[(int) (p - start)] = BASES[(int) (words[(int) (p >>> 5)] >>> ((p & 31) << 1)) & 3];
+        }
+        for (int r = firstRun(ambigStarts, ambigLengths, ambigRuns, start); r < ambigRuns
+                && ambigStarts[r] < end; r++) {
+            final long from = Math.max(start, ambigStarts[r]);
+            final long to = Math.min(end, ambigStarts[r] + ambigLengths[r]);
+            Arrays.fill(buf, (int) (from - start), (int) (to - start), ambigCodes[r]);
+        }
+        for (int r = firstRun(maskStarts, maskLengths, maskRuns, start); r < maskRuns
+                && maskStarts[r] < end; r++) {
+            final long from = Math.max(start, maskStarts[r]);
+            final long to = Math.min(end, maskStarts[r] + maskLengths[r]);
+            for (int i = (int) (from - start); i < to - start; i++) {
+                buf[i] = (byte) Character.toLowerCase((char) buf[i]);
+            }
+        }
+        return buf;
+    }
+
+    /** Add a contig to a set of statistics, computing its base composition
+     * from the packed words.
+     * @param contig the index of the contig.
+     * @param stats the statistics to update.
+     */
+    public void addStats(final int contig, final ContigStats stats) {
+        final int length = getLength(contig);
+        final long start = starts[contig];
+        final long end = start + length;
+        long gc = 0;
+        if (length > 0) {
+            final int firstWord = (int) (start >>> 5);
+            final int lastWord = (int) ((end - 1) >>> 5);
+            for (int w = firstWord; w <= lastWord; w++) {
+                final long x = words[w];
+                final long wordStart = ((long) w) << 5;
+                final int low = (int) (Math.max(start, wordStart) - wordStart);
+                final int high = (int) (Math.min(end, wordStart + 32) - wordStart);
+                final long range = (high == 32 ? -1L : (1L << (high << 1)) - 1)
+                        & ~((1L << (low << 1)) - 1);
+                // C is 01 and G is 10, so the two bits of a G or C base differ
+                gc += Long.bitCount((x ^ (x >>> 1)) & GC_BITS & range);
+            }
+        }
+        // ambiguous bases are packed as A, which counted as neither G nor C above
+        long ambiguous = 0;
+        long strong = 0;
+        long weak = 0;
+        for (int r = firstRun(ambigStarts, ambigLengths, ambigRuns, start); r < ambigRuns
+                && ambigStarts[r] < end; r++) {
+            final long n = Math.min(end, ambigStarts[r] + ambigLengths[r])
+                    - Math.max(start, ambigStarts[r]);
+            ambiguous += n;
+            if (ambigCodes[r] == 'S') {
+                strong += n;
+            } else if (ambigCodes[r] == 'W') {
+                weak += n;
+            }
+        }
+        stats.add(length, gc + strong, length - gc - ambiguous + weak);
+    }
+
+    // index of the first run that ends after pos
+    private static int firstRun(
+            final long[] runStarts,
+            final int[] runLengths,
+            final int runs,
+            final long pos) {
+        int lo = 0;
+        int hi = runs;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (runStarts[mid] + runLengths[mid] <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void checkIndex(final int contig) {
+        if (contig < 0 || contig >= headers.size()) {
+            throw new IndexOutOfBoundsException("No contig at index " + contig);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import assemblyutil.FastaAssemblyFile;
+import assemblyutil.GetAssemblyParams;
+import assemblyutil.SaveAssemblyParams;
+import sbmltools.transport.JobClient;
+import sbmltools.transport.JobFuture;
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JobState;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.RpcContext;
+import us.kbase.common.service.UnauthorizedException;
+
+/**
+ * A client for the AssemblyUtil methods this service uses, whose jobs are
+ * polled by a {@link sbmltools.transport.JobTracker} and whose calls go
+ * through the shared connection pool. It calls the same methods as the
+ * generated {@link assemblyutil.AssemblyUtilClient}, with the same types.
+ */
+public class PooledAssemblyUtilClient extends JobClient {
+
+    private static final String MODULE = "AssemblyUtil";
+
+    /** Constructs a client with a custom URL and no user credentials.
+     * @param url the URL of the service.
+     */
+    public PooledAssemblyUtilClient(final URL url) {
+        super(MODULE, url);
+    }
+
+    /** Constructs a client with a custom URL.
+     * @param url the URL of the service.
+     * @param token the user's authorization token.
+     * @throws UnauthorizedException if the token is not valid.
+     * @throws IOException if an IOException occurs when checking the token's
+     * validity.
+     */
+    public PooledAssemblyUtilClient(final URL url, final AuthToken token)
+            throws UnauthorizedException, IOException {
+        super(MODULE, url, token);
+    }
+
+    /**
+     * <p>Original spec-file function name: get_assembly_as_fasta</p>
+     * <pre>
+     * Given a reference to an Assembly (or legacy ContigSet data object), along with a set of options,
+     * construct a local Fasta file with the sequence data.  If filename is set, attempt to save to the
+     * specified filename.  Otherwise, a random name will be generated.
+     * </pre>
+     * @param   params   instance of type {@link assemblyutil.GetAssemblyParams GetAssemblyParams}
+     * @return   parameter "file" of type {@link assemblyutil.FastaAssemblyFile FastaAssemblyFile}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public FastaAssemblyFile getAssemblyAsFasta(
+            final GetAssemblyParams params,
+            final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        return waitForJob(getAssemblyAsFastaAsync(params, jsonRpcContext));
+    }
+
+    /** Submits a get_assembly_as_fasta job and returns without waiting for it
+     * to finish.
+     * @param   params   instance of type {@link assemblyutil.GetAssemblyParams GetAssemblyParams}
+     * @return   a future for parameter "file" of type {@link assemblyutil.FastaAssemblyFile FastaAssemblyFile}
+     * @throws IOException if an IO exception occurs while submitting the job
+     * @throws JsonClientException if a JSON RPC exception occurs while submitting the job
+     */
+    public JobFuture<FastaAssemblyFile> getAssemblyAsFastaAsync(
+            final GetAssemblyParams params,
+            final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        return submitJob("get_assembly_as_fasta", params,
+                new TypeReference<List<JobState<List<FastaAssemblyFile>>>>() {}, jsonRpcContext);
+    }
+
+    /**
+     * <p>Original spec-file function name: save_assembly_from_fasta</p>
+     * <pre>
+     * WARNING: has the side effect of moving the file to a temporary staging directory, because the upload
+     * script for assemblies currently requires a working directory, not a specific file.  It will attempt
+     * to upload everything in that directory.  This will move the file back to the original location, but
+     * if you are trying to keep an open file handle or are trying to do things concurrently to that file,
+     * this will break.  So this method is certainly NOT thread safe on the input file.
+     * </pre>
+     * @param   params   instance of type {@link assemblyutil.SaveAssemblyParams SaveAssemblyParams}
+     * @return   parameter "ref" of type String
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public String saveAssemblyFromFasta(
+            final SaveAssemblyParams params,
+            final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        return waitForJob(saveAssemblyFromFastaAsync(params, jsonRpcContext));
+    }
+
+    /** Submits a save_assembly_from_fasta job and returns without waiting for
+     * it to finish.
+     * @param   params   instance of type {@link assemblyutil.SaveAssemblyParams SaveAssemblyParams}
+     * @return   a future for parameter "ref" of type String
+     * @throws IOException if an IO exception occurs while submitting the job
+     * @throws JsonClientException if a JSON RPC exception occurs while submitting the job
+     */
+    public JobFuture<String> saveAssemblyFromFastaAsync(
+            final SaveAssemblyParams params,
+            final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        return submitJob("save_assembly_from_fasta", params,
+                new TypeReference<List<JobState<List<String>>>>() {}, jsonRpcContext);
+    }
+}
@@ -0,0 +1,62 @@
+package sbmltools;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import kbasereport.CreateParams;
+import kbasereport.ReportInfo;
+import sbmltools.transport.JobClient;
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JobState;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.RpcContext;
+import us.kbase.common.service.UnauthorizedException;
+
+/**
+ * A client for the KBaseReport methods this service uses, whose jobs are
+ * polled by a {@link sbmltools.transport.JobTracker} and whose calls go
+ * through the shared connection pool. It calls the same methods as the
+ * generated {@link kbasereport.KBaseReportClient}, with the same types.
+ */
+public class PooledKBaseReportClient extends JobClient {
+
+    private static final String MODULE = "KBaseReport";
+
+    /** Constructs a client with a custom URL and no user credentials.
+     * @param url the URL of the service.
+     */
+    public PooledKBaseReportClient(final URL url) {
+        super(MODULE, url);
+    }
+
+    /** Constructs a client with a custom URL.
+     * @param url the URL of the service.
+     * @param token the user's authorization token.
+     * @throws UnauthorizedException if the token is not valid.
+     * @throws IOException if an IOException occurs when checking the token's
+     * validity.
+     */
+    public PooledKBaseReportClient(final URL url, final AuthToken token)
+            throws UnauthorizedException, IOException {
+        super(MODULE, url, token);
+    }
+
+    /**
+     * <p>Original spec-file function name: create</p>
+     * <pre>
+     * Create a KBaseReport with a brief summary of an App run.
+     * </pre>
+     * @param   params   instance of type {@link kbasereport.CreateParams CreateParams}
+     * @return   parameter "info" of type {@link kbasereport.ReportInfo ReportInfo}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public ReportInfo create(final CreateParams params, final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        return waitForJob(submitJob("create", params,
+                new TypeReference<List<JobState<List<ReportInfo>>>>() {}, jsonRpcContext));
+    }
+}
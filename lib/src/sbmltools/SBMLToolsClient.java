@@ -7,8 +7,13 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import sbmltools.transport.CircuitBreaker;
+import sbmltools.transport.ClientConnectionPool;
+import sbmltools.transport.ClientMetrics;
+import sbmltools.transport.JsonRpcBatch;
+import sbmltools.transport.PooledJsonClientCaller;
+import sbmltools.transport.RetryPolicy;
 import us.kbase.auth.AuthToken;
-import us.kbase.common.service.JsonClientCaller;
 import us.kbase.common.service.JsonClientException;
 import us.kbase.common.service.RpcContext;
 import us.kbase.common.service.UnauthorizedException;
@@ -21,7 +26,7 @@ import us.kbase.common.service.UnauthorizedException;
  * </pre>
  */
 public class SBMLToolsClient {
-    private JsonClientCaller caller;
+    private PooledJsonClientCaller caller;
     private String serviceVersion = null;
 
 
@@ -29,7 +34,7 @@ public class SBMLToolsClient {
      * @param url the URL of the service.
      */
     public SBMLToolsClient(URL url) {
-        caller = new JsonClientCaller(url);
+        caller = new PooledJsonClientCaller(url);
     }
     /** Constructs a client with a custom URL.
      * @param url the URL of the service.
@@ -39,7 +44,7 @@ public class SBMLToolsClient {
      * validity.
      */
     public SBMLToolsClient(URL url, AuthToken token) throws UnauthorizedException, IOException {
-        caller = new JsonClientCaller(url, token);
+        caller = new PooledJsonClientCaller(url, token);
     }
 
     /** Constructs a client with a custom URL.
@@ -51,7 +56,7 @@ public class SBMLToolsClient {
      * credentials.
      */
     public SBMLToolsClient(URL url, String user, String password) throws UnauthorizedException, IOException {
-        caller = new JsonClientCaller(url, user, password);
+        caller = new PooledJsonClientCaller(url, user, password);
     }
 
     /** Constructs a client with a custom URL
@@ -65,7 +70,7 @@ public class SBMLToolsClient {
      * credentials.
      */
     public SBMLToolsClient(URL url, String user, String password, URL auth) throws UnauthorizedException, IOException {
-        caller = new JsonClientCaller(url, user, password, auth);
+        caller = new PooledJsonClientCaller(url, user, password, auth);
     }
 
     /** Get the token this client uses to communicate with the server.
@@ -151,10 +156,104 @@ public class SBMLToolsClient {
         return caller.isStreamingModeOn();
     }
 
-    public void _setFileForNextRpcResponse(File f) {
+    /** Get the pool that limits this client's concurrent connections to the
+     * service host.
+     * @return the connection pool.
+     */
+    public ClientConnectionPool getConnectionPool() {
+        return caller.getConnectionPool();
+    }
+
+    /** Set the pool that limits this client's concurrent connections to the
+     * service host. Clients sharing a pool share its per host limit.
+     * @param pool the connection pool, or null to use the default pool.
+     */
+    public void setConnectionPool(ClientConnectionPool pool) {
+        caller.setConnectionPool(pool);
+    }
+
+    /** Gets the policy for retrying idempotent calls, such as job status
+     * checks, that fail transiently.
+     * @return the retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return caller.getRetryPolicy();
+    }
+
+    /** Sets the policy for retrying idempotent calls that fail transiently.
+     * @param policy the retry policy, or null to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        caller.setRetryPolicy(policy);
+    }
+
+    /** Gets the circuit breaker that makes calls fail at once while the
+     * service host keeps failing.
+     * @return the circuit breaker.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return caller.getCircuitBreaker();
+    }
+
+    /** Sets the circuit breaker for this client's calls.
+     * @param breaker the breaker, or null to use the one shared by all clients
+     * of the service host.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        caller.setCircuitBreaker(breaker);
+    }
+
+    /** Gets the latency histograms and error counts of this client's calls,
+     * by method. Use {@link ClientMetrics#snapshot()} to read them.
+     * @return the client metrics.
+     */
+    public ClientMetrics getMetrics() {
+        return caller.getMetrics();
+    }
+
+    /** Sets the metrics in which this client records its calls, for instance
+     * to collect the calls of several clients together.
+     * @param metrics the client metrics.
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        caller.setMetrics(metrics);
+    }
+
+    /** Gets whether requests and responses are gzip compressed.
+     * @return true if compression is enabled.
+     */
+    public boolean isCompressionEnabled() {
+        return caller.isCompressionEnabled();
+    }
+
+    /** Sets whether requests and responses are gzip compressed. Requests are
+     * only compressed once the service has said it accepts them, and only if
+     * they are large enough to be worth it.
+     * @param enabled true to enable compression, which is the default.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        caller.setCompressionEnabled(enabled);
+    }
+
+    /** Streams the response of the next call made on this thread to a file.
+     * The result is parsed from the file rather than from an in memory copy of
+     * the response, and may be read from it lazily, so the file must be kept
+     * until the result is no longer used. Use with streaming mode to stream
+     * both the request and the response of a large call.
+     * @param f the file, or null to buffer the next response in memory.
+     */
+    public void setFileForNextRpcResponse(File f) {
         caller.setFileForNextRpcResponse(f);
     }
 
+    /** Deprecated. Use setFileForNextRpcResponse().
+     * @deprecated
+     */
+    @Deprecated
+    public void _setFileForNextRpcResponse(File f) {
+        setFileForNextRpcResponse(f);
+    }
+
     public String getServiceVersion() {
         return this.serviceVersion;
     }
@@ -184,6 +283,26 @@ public class SBMLToolsClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: filter_contigs_batch</p>
+     * <pre>
+     * Filter several assemblies with the same settings.  Downloads, filtering
+     * and saves of the assemblies overlap, and one report covers all of them.
+     * The per-assembly results do not have report fields.
+     * </pre>
+     * @param   params   instance of type {@link sbmltools.FilterContigsBatchParams FilterContigsBatchParams}
+     * @return   parameter "output" of type {@link sbmltools.FilterContigsBatchResults FilterContigsBatchResults}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public FilterContigsBatchResults filterContigsBatch(FilterContigsBatchParams params, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<FilterContigsBatchResults>> retType = new TypeReference<List<FilterContigsBatchResults>>() {};
+        List<FilterContigsBatchResults> res = caller.jsonrpcCall("SBMLTools.filter_contigs_batch", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: do_nothing</p>
      * <pre>
@@ -216,4 +335,46 @@ public class SBMLToolsClient {
         List<Map<String, Object>> res = caller.jsonrpcCall("SBMLTools.status", args, retType, true, false, jsonRpcContext, this.serviceVersion);
         return res.get(0);
     }
+
+    /** Starts a batch of calls to send to the service in one request. The
+     * calls run concurrently on the service, so must not depend on each other.
+     * @return the batch.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /** Calls to the SBMLTools service sent in one request. Add calls with the
+     * methods named after the service's methods, send them with
+     * {@link #execute()}, and then read the result of each call. The methods
+     * that run as long jobs, filter_contigs_changed and filter_contigs_batch,
+     * cannot be batched.
+     */
+    public class Batch extends JsonRpcBatch {
+
+        private Batch() {
+            super(caller, serviceVersion);
+        }
+
+        /** Adds a call to do_nothing.
+         * @return   the call
+         */
+        public JsonRpcBatch.Call<Object> doNothing() {
+            return add("SBMLTools.do_nothing", new ArrayList<Object>(), new TypeReference<List<Object>>() {}, false);
+        }
+
+        /** Adds a call to do_nothing_but_auth.
+         * @return   the call
+         */
+        public JsonRpcBatch.Call<Object> doNothingButAuth() {
+            return add("SBMLTools.do_nothing_but_auth", new ArrayList<Object>(), new TypeReference<List<Object>>() {}, true);
+        }
+
+        /** Adds a call to status.
+         * @return   the call, from which the service status is read
+         */
+        public JsonRpcBatch.Call<Map<String, Object>> status() {
+            return add("SBMLTools.status", new ArrayList<Object>(), new TypeReference<List<Map<String, Object>>>() {}, false);
+        }
+    }
 }
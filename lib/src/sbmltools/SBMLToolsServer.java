@@ -10,26 +10,43 @@ import us.kbase.common.service.JsonServerSyslog;
 import us.kbase.common.service.RpcContext;
 
 //BEGIN_HEADER
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.net.MalformedURLException;
 
-import assemblyutil.AssemblyUtilClient;
 import assemblyutil.FastaAssemblyFile;
-import assemblyutil.GetAssemblyParams;
 import assemblyutil.SaveAssemblyParams;
 import kbasereport.CreateParams;
-import kbasereport.KBaseReportClient;
 import kbasereport.Report;
 import kbasereport.ReportInfo;
 import kbasereport.WorkspaceObject;
-//import net.sf.jfasta.FASTAElement;
-//import net.sf.jfasta.FASTAFileReader;
-//import net.sf.jfasta.impl.FASTAElementIterator;
-//import net.sf.jfasta.impl.FASTAFileReaderImpl;
-//import net.sf.jfasta.impl.FASTAFileWriter;
+import sbmltools.transport.ClientMetrics;
+import sbmltools.transport.JobFuture;
+import us.kbase.common.service.Tuple11;
+import us.kbase.workspace.GetObjectInfoNewParams;
+import us.kbase.workspace.ObjectSpecification;
+import us.kbase.workspace.WorkspaceClient;
 //END_HEADER
 
 /**
@@ -47,7 +64,522 @@ public class SBMLToolsServer extends JsonServerServlet {
 
     //BEGIN_CLASS_HEADER
     private final URL callbackURL;
+    private final URL workspaceURL;
     private final Path scratch;
+
+    /* Filtering holds the longest contig, and with sort_by_length a sort run,
+     * in memory, so jobs on large assemblies at once could exhaust the heap.
+     * Each filter waits until its estimate fits in the memory budget, taking
+     * turns with the filters of other users.
+     */
+    private final MemoryAdmission admission;
+
+    // the time a job may run, or 0 for no limit
+    private final long jobTimeBudgetMs;
+
+    // the controls of the filter jobs running, so they can be cancelled
+    private final Set<JobControl> runningJobs =
+            Collections.newSetFromMap(new ConcurrentHashMap<JobControl, Boolean>());
+
+    /* Requests that need the same uncached assembly at once wait for a single
+     * download, and each gets its own lease on the cached file. The cache is
+     * in a directory of its own in scratch, which is deleted when the server
+     * is destroyed, and at once in a JVM run for one job.
+     */
+    private final AssemblyDownloads assemblyDownloads;
+
+    /* The calls and jobs of every AssemblyUtil and KBaseReport client the
+     * server makes, so their latencies add up across requests.
+     */
+    private final ClientMetrics clientMetrics = new ClientMetrics();
+
+    // the size of the assembly cache when assembly-cache-bytes is not configured
+    private static final long DEFAULT_ASSEMBLY_CACHE_BYTES = 20L * 1024 * 1024 * 1024;
+
+    // the most shards written or saved at once by filter_contigs_changed
+    private static final int MAX_BATCH_THREADS = 16;
+
+    // the most assembly downloads outstanding at once in filter_contigs_batch
+    private static final int MAX_BATCH_JOBS = 16;
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    // the k-mer size for min_kmer_entropy when kmer_size is not set
+    private static final int DEFAULT_KMER_SIZE = 4;
+
+    // the longest a job waits between checks of whether it was cancelled
+    private static final long CANCEL_CHECK_MS = 1000;
+
+    // the heap a filter needs beyond what its input's size accounts for
+    private static final long FILTER_BASE_BYTES = 32L * 1024 * 1024;
+
+    /* Estimates the peak heap filtering a FASTA file needs. The sequence buffer
+     * grows by doubling to the longest contig, which may be the whole
+     * uncompressed file, and the old buffer is live while it is copied, so
+     * three times the uncompressed size is allowed. Sorting adds a run of
+     * packed sequence.
+     */
+    private static long estimateFilterBytes(final Path fasta, final Long sortByLength)
+            throws IOException {
+        return FILTER_BASE_BYTES + 3 * CompressedInput.uncompressedSize(fasta) +
+                (isSet(sortByLength) ? ContigSorter.DEFAULT_RUN_SIZE / 4 : 0);
+    }
+
+    private static long getConfigLong(
+            final Map<String, String> config,
+            final String key,
+            final long defaultValue) {
+        final String value = config.get(key);
+        return value == null || value.trim().isEmpty() ?
+                defaultValue : Long.parseLong(value.trim());
+    }
+
+    /* Sets the admission weights of users from a list of user:weight pairs
+     * separated by commas, e.g. "alice:2, bulkuser:0.5".
+     */
+    private static void setUserWeights(final MemoryAdmission admission, final String weights) {
+        if (weights == null || weights.trim().isEmpty()) {
+            return;
+        }
+        for (final String pair: weights.split(",")) {
+            final int colon = pair.lastIndexOf(':');
+            if (colon < 1) {
+                throw new IllegalArgumentException(
+                        "Invalid entry in job-user-weights: " + pair.trim());
+            }
+            admission.setWeight(pair.substring(0, colon).trim(),
+                    Double.parseDouble(pair.substring(colon + 1).trim()));
+        }
+    }
+
+    private PooledAssemblyUtilClient getAssemblyUtil(final AuthToken token) throws Exception {
+        final PooledAssemblyUtilClient assyUtil = new PooledAssemblyUtilClient(callbackURL, token);
+        /* the callback server runs on the same machine as the docker container
+         * and is plain http
+         */
+        assyUtil.setIsInsecureHttpConnectionAllowed(true);
+        assyUtil.setMetrics(clientMetrics);
+        return assyUtil;
+    }
+
+    /* Resolves references to ws/obj/ver form with one workspace call. The
+     * workspace checks the user can read each object, so the assembly cache
+     * never serves a file to a user who could not have downloaded it.
+     */
+    private List<String> resolveRefs(final AuthToken token, final List<String> refs)
+            throws Exception {
+        final WorkspaceClient ws = new WorkspaceClient(workspaceURL, token);
+        final List<ObjectSpecification> objects = new ArrayList<ObjectSpecification>();
+        for (final String ref: refs) {
+            objects.add(new ObjectSpecification().withRef(ref));
+        }
+        final List<String> resolved = new ArrayList<String>();
+        for (final Tuple11<Long, String, String, String, Long, String, Long, String, String,
+                Long, Map<String, String>> info: ws.getObjectInfoNew(
+                        new GetObjectInfoNewParams().withObjects(objects))) {
+            resolved.add(info.getE7() + "/" + info.getE1() + "/" + info.getE5());
+        }
+        return resolved;
+    }
+
+    /* The asynchronous form of AssemblyDownloads.get for the batch filter, for
+     * assemblies that were not cached when the batch started. Adds index to
+     * finished when the assembly is ready.
+     */
+    private SingleFlight<String, AssemblyCache.Lease>.Flight joinDownload(
+            final PooledAssemblyUtilClient assyUtil,
+            final String ref,
+            final String resolvedRef,
+            final int index,
+            final BlockingQueue<Integer> finished)
+            throws Exception {
+        final SingleFlight<String, AssemblyCache.Lease>.Flight flight =
+                assemblyDownloads.join(assyUtil, ref, resolvedRef);
+        flight.addListener(new Runnable() {
+            @Override
+            public void run() {
+                finished.add(index);
+            }
+        }, SAME_THREAD);
+        return flight;
+    }
+
+    private JobControl startJob(final String method) {
+        final JobControl control = new JobControl(jobTimeBudgetMs, new JobProgress(method));
+        runningJobs.add(control);
+        return control;
+    }
+
+    private void endJob(final JobControl control) {
+        runningJobs.remove(control);
+        // one-shot jobs have no status calls, so the metrics are logged
+        System.out.println("Service calls so far:");
+        for (final ClientMetrics.Snapshot s: clientMetrics.snapshot().values()) {
+            System.out.println("    " + s);
+        }
+    }
+
+    /**
+     * Cancel the filter jobs running in this server. Each stops at its next
+     * check, fails with the reason as its error, and deletes the files it
+     * wrote to scratch.
+     * @param reason why the jobs were cancelled.
+     * @return the number of jobs cancelled.
+     */
+    public int cancelRunningJobs(final String reason) {
+        int cancelled = 0;
+        for (final JobControl control: runningJobs) {
+            control.cancel(reason);
+            cancelled++;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Run one asynchronous job read from a file, in a JVM started for that
+     * job, as main does. Nothing the job downloads would be used again, so
+     * the assembly cache is deleted and no assemblies are cached. Use
+     * {@link #processJob(File, File, String)} to run a job in a server that
+     * runs many.
+     */
+    @Override
+    public void processRpcCall(final File input, final File output, final String token) {
+        try {
+            assemblyDownloads.getCache().close();
+        } catch (IOException e) {
+            System.out.println("Could not delete the assembly cache: " + e);
+        }
+        super.processRpcCall(input, output, token);
+    }
+
+    /**
+     * Run one of many asynchronous jobs read from files, keeping the
+     * assemblies it downloads cached for later jobs.
+     * @param input the job's input file.
+     * @param output the file to write the job's output to.
+     * @param token the user's token.
+     */
+    public void processJob(final File input, final File output, final String token) {
+        super.processRpcCall(input, output, token);
+    }
+
+    /**
+     * Delete the assembly cache when the server is shut down.
+     */
+    @Override
+    public void destroy() {
+        try {
+            assemblyDownloads.getCache().close();
+        } catch (IOException e) {
+            System.out.println("Could not delete the assembly cache: " + e);
+        }
+        super.destroy();
+    }
+
+    /**
+     * Get the number of filter jobs running in this server.
+     * @return the running job count.
+     */
+    public int getRunningJobs() {
+        return runningJobs.size();
+    }
+
+    /**
+     * Get the progress of the filter jobs running in this server, as returned
+     * by {@link JobProgress#toMap()}, oldest job first. The progress holds no
+     * user names or object references, as the status method that returns it
+     * does not require authentication.
+     * @return the progress of each job.
+     */
+    public List<Map<String, Object>> getRunningJobProgress() {
+        final List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+        for (final JobControl control: runningJobs) {
+            ret.add(control.getProgress().toMap());
+        }
+        Collections.sort(ret, new Comparator<Map<String, Object>>() {
+            @Override
+            public int compare(final Map<String, Object> a, final Map<String, Object> b) {
+                return Long.compare((Long) a.get("started"), (Long) b.get("started"));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Get the latency and error counts of the calls and jobs this server has
+     * made to other services, by method, as returned by
+     * {@link ClientMetrics.Snapshot#toMap()}.
+     * @return the metrics of each method called.
+     */
+    public List<Map<String, Object>> getClientMetrics() {
+        final List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+        for (final ClientMetrics.Snapshot s: clientMetrics.snapshot().values()) {
+            ret.add(s.toMap());
+        }
+        return ret;
+    }
+
+    private static long getCheckWaitMs(final JobControl control) {
+        return Math.max(1, Math.min(CANCEL_CHECK_MS, control.getRemainingMs()));
+    }
+
+    // waits for the index of the next assembly ready to filter
+    private static int takeFinished(
+            final BlockingQueue<Integer> finished,
+            final JobControl control)
+            throws InterruptedException {
+        while (true) {
+            control.check();
+            final Integer index = finished.poll(getCheckWaitMs(control), TimeUnit.MILLISECONDS);
+            if (index != null) {
+                return index;
+            }
+        }
+    }
+
+    private static <T> T awaitJob(final Future<T> job, final JobControl control)
+            throws Exception {
+        while (true) {
+            control.check();
+            try {
+                return job.get(getCheckWaitMs(control), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // check again
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static void checkWorkspaceName(final String workspaceName) {
+        if (workspaceName == null || workspaceName.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Parameter workspace_name is not set in input arguments");
+        }
+    }
+
+    /* Checks a reference is a ws/obj[/ver] reference or a reference path of
+     * them before it is resolved, so a malformed reference gets the error
+     * AssemblyUtil gives it rather than the workspace's.
+     */
+    private static void checkAssemblyRef(final String ref) {
+        for (final String part: ref.split(";", -1)) {
+            final String[] ids = part.split("/", -1);
+            boolean valid = ids.length == 2 || ids.length == 3;
+            for (final String id: ids) {
+                valid &= !id.trim().isEmpty();
+            }
+            if (!valid) {
+                throw new IllegalArgumentException(
+                        "Invalid workspace reference string! Found " + ref);
+            }
+        }
+    }
+
+    private static boolean isSet(final Long flag) {
+        return flag != null && flag != 0L;
+    }
+
+    /* Sorting spills runs of at most ContigSorter.DEFAULT_RUN_SIZE bases to
+     * scratch, so the heap needed does not grow with the assembly.
+     */
+    private ContigFilter getContigFilter(
+            final Long minLength,
+            final Long dedup,
+            final Long sortByLength,
+            final Double minKmerEntropy,
+            final Long kmerSize) {
+        if (minLength == null) {
+            throw new IllegalArgumentException(
+                    "Parameter min_length is not set in input arguments");
+        }
+        final ContigFilter filter = new ContigFilter(minLength);
+        filter.setDeduplicate(isSet(dedup));
+        if (kmerSize != null && (kmerSize < 1 || kmerSize > KmerEntropy.MAX_K)) {
+            throw new IllegalArgumentException(String.format(
+                    "Parameter kmer_size must be between 1 and %s (%s)",
+                    KmerEntropy.MAX_K, kmerSize));
+        }
+        if (minKmerEntropy != null) {
+            filter.setMinEntropy(kmerSize == null ? DEFAULT_KMER_SIZE : (int) (long) kmerSize,
+                    minKmerEntropy);
+        }
+        if (isSet(sortByLength)) {
+            filter.setSortByLength(scratch, ContigSorter.DEFAULT_RUN_SIZE);
+        }
+        return filter;
+    }
+
+    /* Filters a downloaded assembly and returns the filtered FASTA file, or null
+     * if no contigs were removed or reordered, the input assembly can be used
+     * as is and keepUnchanged is false. The filtered file is indexed, so
+     * IndexedFastaReader can fetch single contigs from it without a rescan.
+     */
+    private Path filterAssembly(
+            final ContigFilter filter,
+            final Path fasta,
+            final boolean keepUnchanged)
+            throws Exception {
+        final Path out = Files.createTempFile(scratch, "filtered", ".fasta");
+        try {
+            filter.filter(fasta, out);
+        } catch (IOException | RuntimeException e) {
+            deleteFiltered(out);
+            throw e;
+        }
+        if (!keepUnchanged && filter.getRemovedContigs() == 0 && !filter.isReordered()) {
+            deleteFiltered(out);
+            return null;
+        }
+        return out;
+    }
+
+    private static void deleteFiltered(final Path fasta) throws IOException {
+        if (fasta != null) {
+            Files.deleteIfExists(fasta);
+            Files.deleteIfExists(FastaIndex.indexPath(fasta));
+        }
+    }
+
+    private static SaveAssemblyParams getSaveParams(
+            final String workspaceName,
+            final String assemblyName,
+            final Path fasta) {
+        return new SaveAssemblyParams()
+                .withAssemblyName(assemblyName)
+                .withWorkspaceName(workspaceName)
+                .withFile(new FastaAssemblyFile().withPath(fasta.toString()));
+    }
+
+    // saves with an AssemblyUtil job, so the wait for it stops if the job is stopped
+    private static String saveAssembly(
+            final PooledAssemblyUtilClient assyUtil,
+            final String workspaceName,
+            final String assemblyName,
+            final Path fasta,
+            final JobControl control)
+            throws Exception {
+        final JobFuture<String> save = assyUtil.saveAssemblyFromFastaAsync(
+                getSaveParams(workspaceName, assemblyName, fasta));
+        try {
+            return awaitJob(save, control);
+        } finally {
+            save.cancel(false);
+        }
+    }
+
+    private static int getShardCount(final Long nShards) {
+        if (nShards == null) {
+            return 1;
+        }
+        if (nShards < 1 || nShards > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Parameter n_shards must be a positive integer (" + nShards + ")");
+        }
+        return (int) (long) nShards;
+    }
+
+    /* Splits a filtered FASTA file into shards balanced by base count and saves
+     * each shard as an assembly. Shards are written and saved in parallel, and
+     * the references are returned in shard order. The shard files are deleted
+     * once the shards are saved, or the job fails or is stopped.
+     */
+    private List<String> saveShards(
+            final AuthToken token,
+            final String workspaceName,
+            final String assemblyName,
+            final Path fasta,
+            final int shards,
+            final JobControl control)
+            throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(shards, MAX_BATCH_THREADS));
+        List<Path> files = null;
+        try {
+            files = AssemblySharder.shard(fasta,
+                    FastaIndex.read(FastaIndex.indexPath(fasta)), shards, scratch, pool);
+            control.check();
+            final List<Future<String>> saves = new ArrayList<Future<String>>();
+            for (int i = 0; i < files.size(); i++) {
+                final Path file = files.get(i);
+                final String name = assemblyName + "_shard_" + (i + 1);
+                saves.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        control.check();
+                        return saveAssembly(getAssemblyUtil(token), workspaceName, name, file,
+                                control);
+                    }
+                }));
+            }
+            final List<String> refs = new ArrayList<String>();
+            for (final Future<String> f: saves) {
+                refs.add(awaitJob(f, control));
+            }
+            return refs;
+        } finally {
+            pool.shutdownNow();
+            if (files != null) {
+                for (final Path p: files) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    private static String describe(final ContigFilter filter) {
+        String text = String.format("Filtered assembly to %s contigs out of %s",
+                filter.getRemainingContigs(), filter.getInitialContigs());
+        if (filter.getLowComplexityContigs() > 0) {
+            text += String.format(" (%s low complexity contigs removed)",
+                    filter.getLowComplexityContigs());
+        }
+        if (filter.getDuplicateContigs() > 0) {
+            text += String.format(" (%s duplicate contigs removed)",
+                    filter.getDuplicateContigs());
+        }
+        if (filter.isReordered()) {
+            text += ", sorted by length";
+        }
+        return text;
+    }
+
+    private static FilterContigsResults toResults(
+            final ContigFilter filter,
+            final String assemblyOutput) {
+        return new FilterContigsResults()
+                .withAssemblyOutput(assemblyOutput)
+                .withNInitialContigs(filter.getInitialContigs())
+                .withNContigsRemoved(filter.getRemovedContigs())
+                .withNContigsRemaining(filter.getRemainingContigs())
+                .withNDuplicatesRemoved(filter.getDuplicateContigs())
+                .withNLowComplexityRemoved(filter.getLowComplexityContigs())
+                .withInputStats(filter.getInputStats().toAssemblyStats())
+                .withOutputStats(filter.getOutputStats().toAssemblyStats());
+    }
+
+    private ReportInfo createReport(
+            final AuthToken token,
+            final String workspaceName,
+            final String text,
+            final List<WorkspaceObject> objectsCreated)
+            throws Exception {
+        final PooledKBaseReportClient kbr = new PooledKBaseReportClient(callbackURL, token);
+        kbr.setIsInsecureHttpConnectionAllowed(true);
+        kbr.setMetrics(clientMetrics);
+        return kbr.create(new CreateParams().withWorkspaceName(workspaceName)
+                .withReport(new Report().withTextMessage(text)
+                        .withObjectsCreated(objectsCreated)));
+    }
+
+    private static Exception unwrap(final ExecutionException e) {
+        return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
     //END_CLASS_HEADER
 
     public SBMLToolsServer() throws Exception {
@@ -60,7 +592,21 @@ public class SBMLToolsServer extends JsonServerServlet {
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("Invalid SDK callback url: " + sdkURL, e);
         }
+        workspaceURL = new URL(super.config.get("workspace-url"));
         scratch = Paths.get(super.config.get("scratch"));
+        assemblyDownloads = new AssemblyDownloads(new AssemblyCache(
+                Files.createTempDirectory(scratch, "assembly_cache"),
+                getConfigLong(super.config, "assembly-cache-bytes",
+                        DEFAULT_ASSEMBLY_CACHE_BYTES)));
+        admission = new MemoryAdmission(
+                getConfigLong(super.config, "job-memory-budget-bytes",
+                        MemoryAdmission.getDefaultBudgetBytes()),
+                (int) getConfigLong(super.config, "job-queue-size",
+                        MemoryAdmission.DEFAULT_MAX_QUEUED),
+                (int) getConfigLong(super.config, "job-queue-size-per-user",
+                        MemoryAdmission.DEFAULT_MAX_QUEUED_PER_USER));
+        setUserWeights(admission, super.config.get("job-user-weights"));
+        jobTimeBudgetMs = getConfigLong(super.config, "job-time-budget-seconds", 0) * 1000;
         //END_CONSTRUCTOR
     }
 
@@ -79,10 +625,276 @@ public class SBMLToolsServer extends JsonServerServlet {
     public FilterContigsResults filterContigsChanged(FilterContigsParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         FilterContigsResults returnVal = null;
         //BEGIN filter_contigs_changed
+        System.out.println("Starting filter contigs. Parameters:");
+        System.out.println(params);
+
+        // Step 1 - check the parameters
+        final String workspaceName = params.getWorkspaceName();
+        checkWorkspaceName(workspaceName);
+        final String assyRef = params.getAssemblyInputRef();
+        if (assyRef == null || assyRef.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Parameter assembly_input_ref is not set in input arguments");
+        }
+        checkAssemblyRef(assyRef);
+        final ContigFilter filter = getContigFilter(params.getMinLength(), params.getDedup(),
+                params.getSortByLength(), params.getMinKmerEntropy(), params.getKmerSize());
+        final int shards = getShardCount(params.getNShards());
+
+        /* The job stops at the next check between steps, or during the filter,
+         * once it is cancelled or runs past its time budget. The filtered file
+         * is deleted once it is saved, or the job fails or is stopped.
+         */
+        final JobControl control = startJob("SBMLTools.filter_contigs_changed");
+        final JobProgress progress = control.getProgress();
+        progress.setAssembliesTotal(1);
+        filter.setJobControl(control);
+        Path out = null;
+        try {
+            // Step 2 - get the input assembly as a FASTA file, from the cache or a download
+            System.out.println("Downloading assembly data as FASTA file.");
+            progress.setStage("downloading");
+            final PooledAssemblyUtilClient assyUtil = getAssemblyUtil(authPart);
+            final String resolvedRef = resolveRefs(authPart, Arrays.asList(assyRef)).get(0);
+            control.check();
+            final String assemblyName;
+            try (final AssemblyCache.Lease input = assemblyDownloads.get(
+                    assyUtil, assyRef, resolvedRef, control)) {
+                assemblyName = input.getAssemblyName();
+                control.check();
+                /* Step 3 - filter the contigs into a new FASTA file. Statistics for
+                 * both assemblies are collected in the same pass.
+                 */
+                progress.setStage("waiting for memory");
+                try (final MemoryAdmission.Permit permit = admission.acquire(
+                        authPart.getUserName(),
+                        estimateFilterBytes(input.getPath(), params.getSortByLength()),
+                        control)) {
+                    progress.setStage("filtering");
+                    out = filterAssembly(filter, input.getPath(), shards > 1);
+                }
+                progress.assemblyDone();
+            }
+            final String resultText = describe(filter);
+            System.out.println(resultText);
+
+            /* Step 4 - save the new assembly, or its shards. If nothing was removed
+             * or reordered the output holds the same contigs as the input, so the
+             * input is returned as is rather than uploading a copy.
+             */
+            control.check();
+            progress.setStage("saving");
+            final List<WorkspaceObject> objectsCreated = new LinkedList<WorkspaceObject>();
+            String newAssyRef = null;
+            List<String> shardRefs = null;
+            if (shards > 1) {
+                shardRefs = saveShards(authPart, workspaceName, assemblyName, out, shards,
+                        control);
+                for (int i = 0; i < shardRefs.size(); i++) {
+                    objectsCreated.add(new WorkspaceObject()
+                            .withDescription(String.format("Filtered contigs, shard %s of %s",
+                                    i + 1, shardRefs.size()))
+                            .withRef(shardRefs.get(i)));
+                }
+            } else if (out == null) {
+                System.out.println("Assembly unchanged, returning the input assembly.");
+                newAssyRef = assyRef;
+            } else {
+                newAssyRef = saveAssembly(assyUtil, workspaceName, assemblyName, out, control);
+                objectsCreated.add(new WorkspaceObject()
+                        .withDescription("Filtered contigs")
+                        .withRef(newAssyRef));
+            }
+
+            // Step 5 - build a report
+            control.check();
+            progress.setStage("reporting");
+            final ReportInfo report = createReport(authPart, workspaceName, resultText,
+                    objectsCreated);
+            returnVal = toResults(filter, newAssyRef)
+                    .withShardOutputs(shardRefs)
+                    .withReportName(report.getName())
+                    .withReportRef(report.getRef());
+        } finally {
+            endJob(control);
+            deleteFiltered(out);
+        }
+        System.out.println("returning:\n" + returnVal);
         //END filter_contigs_changed
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: filter_contigs_batch</p>
+     * <pre>
+     * Filter several assemblies with the same settings.  Downloads, filtering
+     * and saves of the assemblies overlap, and one report covers all of them.
+     * The per-assembly results do not have report fields.
+     * </pre>
+     * @param   params   instance of type {@link sbmltools.FilterContigsBatchParams FilterContigsBatchParams}
+     * @return   parameter "output" of type {@link sbmltools.FilterContigsBatchResults FilterContigsBatchResults}
+     */
+    @JsonServerMethod(rpc = "SBMLTools.filter_contigs_batch", async=true)
+    public FilterContigsBatchResults filterContigsBatch(FilterContigsBatchParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        FilterContigsBatchResults returnVal = null;
+        //BEGIN filter_contigs_batch
+        System.out.println("Starting batch filter contigs. Parameters:");
+        System.out.println(params);
+        final AuthToken token = authPart;
+        final String workspaceName = params.getWorkspaceName();
+        checkWorkspaceName(workspaceName);
+        final List<String> refs = params.getAssemblyInputRefs();
+        if (refs == null || refs.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Parameter assembly_input_refs is not set in input arguments");
+        }
+        for (final String ref: refs) {
+            if (ref == null || ref.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Parameter assembly_input_refs contains an empty reference");
+            }
+            checkAssemblyRef(ref);
+        }
+        // checks the filter parameters before any work starts
+        getContigFilter(params.getMinLength(), params.getDedup(), params.getSortByLength(),
+                params.getMinKmerEntropy(), params.getKmerSize());
+
+        /* Downloads and saves are AssemblyUtil jobs polled by the shared job
+         * tracker, so no thread waits on them. Assemblies found in the cache are
+         * ready at once, and an assembly another request is already downloading
+         * is not downloaded again. At most MAX_BATCH_JOBS downloads are
+         * outstanding at once; each assembly is filtered on this thread as soon
+         * as it is ready, in whatever order they finish, and its save is
+         * submitted so it overlaps with the remaining downloads and filters.
+         * Each filter is made when its assembly is ready and dropped once its
+         * results are taken, so the batch holds one filter's sketches and
+         * buffers at a time.
+         */
+        final PooledAssemblyUtilClient assyUtil = getAssemblyUtil(token);
+        final List<String> resolvedRefs = resolveRefs(token, refs);
+        final BlockingQueue<Integer> finished = new LinkedBlockingQueue<Integer>();
+        final List<SingleFlight<String, AssemblyCache.Lease>.Flight> downloads =
+                new ArrayList<SingleFlight<String, AssemblyCache.Lease>.Flight>();
+        final List<AssemblyCache.Lease> inputs = new ArrayList<AssemblyCache.Lease>();
+        final List<JobFuture<String>> saves = new ArrayList<JobFuture<String>>();
+        final List<FilterContigsResults> results = new ArrayList<FilterContigsResults>();
+        final List<String> descriptions = new ArrayList<String>();
+        for (int i = 0; i < refs.size(); i++) {
+            downloads.add(null);
+            inputs.add(null);
+            saves.add(null);
+            results.add(null);
+            descriptions.add(null);
+        }
+        final List<WorkspaceObject> objectsCreated = new LinkedList<WorkspaceObject>();
+        final StringBuilder resultText = new StringBuilder();
+        final List<Path> filtered = new ArrayList<Path>();
+        final JobControl control = startJob("SBMLTools.filter_contigs_batch");
+        final JobProgress progress = control.getProgress();
+        progress.setAssembliesTotal(refs.size());
+        try {
+            control.check();
+            progress.setStage("downloading");
+            final List<Integer> misses = new ArrayList<Integer>();
+            for (int i = 0; i < refs.size(); i++) {
+                inputs.set(i, assemblyDownloads.getCache().get(resolvedRefs.get(i)));
+                if (inputs.get(i) == null) {
+                    misses.add(i);
+                } else {
+                    finished.add(i);
+                }
+            }
+            int submitted = 0;
+            for (; submitted < Math.min(misses.size(), MAX_BATCH_JOBS); submitted++) {
+                final int index = misses.get(submitted);
+                downloads.set(index, joinDownload(assyUtil, refs.get(index),
+                        resolvedRefs.get(index), index, finished));
+            }
+            for (int i = 0; i < refs.size(); i++) {
+                final int index = takeFinished(finished, control);
+                if (inputs.get(index) == null) {
+                    inputs.set(index, downloads.get(index).get());
+                    if (submitted < misses.size()) {
+                        final int next = misses.get(submitted++);
+                        downloads.set(next, joinDownload(assyUtil, refs.get(next),
+                                resolvedRefs.get(next), next, finished));
+                    }
+                }
+                final AssemblyCache.Lease input = inputs.get(index);
+                final ContigFilter filter = getContigFilter(params.getMinLength(),
+                        params.getDedup(), params.getSortByLength(), params.getMinKmerEntropy(),
+                        params.getKmerSize());
+                filter.setJobControl(control);
+                final Path out;
+                progress.setStage("waiting for memory");
+                try (final MemoryAdmission.Permit permit = admission.acquire(
+                        token.getUserName(),
+                        estimateFilterBytes(input.getPath(), params.getSortByLength()),
+                        control)) {
+                    progress.setStage("filtering");
+                    out = filterAssembly(filter, input.getPath(), false);
+                }
+                progress.assemblyDone();
+                results.set(index, toResults(filter, null));
+                descriptions.set(index, describe(filter));
+                System.out.println(refs.get(index) + ": " + descriptions.get(index));
+                if (out != null) {
+                    filtered.add(out);
+                    saves.set(index, assyUtil.saveAssemblyFromFastaAsync(
+                            getSaveParams(workspaceName, input.getAssemblyName(), out)));
+                }
+                // lets the cache evict the input while the rest of the batch runs
+                input.close();
+            }
+            progress.setStage("saving");
+            for (int i = 0; i < refs.size(); i++) {
+                String outputRef = refs.get(i);
+                if (saves.get(i) != null) {
+                    outputRef = awaitJob(saves.get(i), control);
+                    objectsCreated.add(new WorkspaceObject()
+                            .withDescription("Filtered contigs from " + refs.get(i))
+                            .withRef(outputRef));
+                }
+                results.get(i).setAssemblyOutput(outputRef);
+                resultText.append(refs.get(i)).append(": ").append(descriptions.get(i))
+                        .append("\n");
+            }
+            control.check();
+        } finally {
+            endJob(control);
+            /* stops polling any saves left after a failure. Downloads are left to
+             * finish into the cache, as other requests may be waiting for them.
+             */
+            for (final SingleFlight<String, AssemblyCache.Lease>.Flight f: downloads) {
+                if (f != null) {
+                    f.leave();
+                }
+            }
+            for (final Future<?> f: saves) {
+                if (f != null) {
+                    f.cancel(false);
+                }
+            }
+            for (final AssemblyCache.Lease input: inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+            // the filtered files are saved, or no longer needed
+            for (final Path out: filtered) {
+                deleteFiltered(out);
+            }
+        }
+        final ReportInfo report = createReport(token, workspaceName, resultText.toString(),
+                objectsCreated);
+        returnVal = new FilterContigsBatchResults()
+                .withResults(results)
+                .withReportName(report.getName())
+                .withReportRef(report.getRef());
+        //END filter_contigs_batch
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: do_nothing</p>
      * <pre>
@@ -114,6 +926,8 @@ public class SBMLToolsServer extends JsonServerServlet {
         returnVal.put("version", version);
         returnVal.put("git_url", gitUrl);
         returnVal.put("git_commit_hash", gitCommitHash);
+        returnVal.put("jobs", getRunningJobProgress());
+        returnVal.put("client_calls", getClientMetrics());
         //END_STATUS
         return returnVal;
     }
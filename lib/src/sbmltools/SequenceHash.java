@@ -0,0 +1,141 @@
+package sbmltools;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant) of nucleotide sequences.
+ * <p>
+ * Sequences are upper-cased before hashing, so soft-masked copies of a contig
+ * hash the same as the unmasked contig. The canonical hash of a sequence is
+ * the smaller of the hashes of the sequence and of its reverse complement,
+ * which makes a contig and its reverse complement collide on purpose. The
+ * reverse complement is read in place and never materialized.
+ */
+public final class SequenceHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final byte[] FORWARD = new byte[256];
+    private static final byte[] COMPLEMENT = new byte[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            FORWARD[i] = (byte) (i >= 'a' && i <= 'z' ? i - 32 : i);
+            COMPLEMENT[i] = FORWARD[i];
+        }
+        final String from = "ACGTUNRYKMSWBDHV";
+        final String to   = "TGCAANYRMKSWVHDB";
+        for (int i = 0; i < from.length(); i++) {
+            COMPLEMENT[from.charAt(i)] = (byte) to.charAt(i);
+            COMPLEMENT[Character.toLowerCase(from.charAt(i))] = (byte) to.charAt(i);
+        }
+    }
+
+    private SequenceHash() {}
+
+    /** Compute the canonical hash of a sequence.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     * @param out a two element array that receives the high and low 64 bits
+     * of the hash.
+     */
+    public static void canonical(final byte[] seq, final int length, final long[] out) {
+        hash(seq, length, false, out);
+        final long f1 = out[0];
+        final long f2 = out[1];
+        hash(seq, length, true, out);
+        if (f1 < out[0] || (f1 == out[0] && f2 < out[1])) {
+            out[0] = f1;
+            out[1] = f2;
+        }
+    }
+
+    /** Compute the hash of a sequence or of its reverse complement.
+     * @param seq the buffer containing the sequence.
+     * @param length the number of bases in the buffer.
+     * @param reverseComplement true to hash the reverse complement.
+     * @param out a two element array that receives the high and low 64 bits
+     * of the hash.
+     */
+    public static void hash(
+            final byte[] seq,
+            final int length,
+            final boolean reverseComplement,
+            final long[] out) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocks = length >>> 4;
+        for (int b = 0; b < blocks; b++) {
+            long k1 = word(seq, length, b << 4, 8, reverseComplement);
+            long k2 = word(seq, length, (b << 4) + 8, 8, reverseComplement);
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        final int tail = blocks << 4;
+        final int rem = length & 15;
+        if (rem > 8) {
+            long k2 = word(seq, length, tail + 8, rem - 8, reverseComplement);
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (rem > 0) {
+            long k1 = word(seq, length, tail, Math.min(rem, 8), reverseComplement);
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    // little endian word of up to 8 normalized bases starting at pos
+    private static long word(
+            final byte[] seq,
+            final int length,
+            final int pos,
+            final int count,
+            final boolean reverseComplement) {
+        long w = 0;
+        if (reverseComplement) {
+            final int last = length - 1 - pos;
+            for (int j = 0; j < count; j++) {
+                w |= (COMPLEMENT[seq[last - j] & 0xff] & 0xffL) << (j << 3);
+            }
+        } else {
+            for (int j = 0; j < count; j++) {
+                w |= (FORWARD[seq[pos + j] & 0xff] & 0xffL) << (j << 3);
+            }
+        }
+        return w;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
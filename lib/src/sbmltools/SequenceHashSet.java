@@ -0,0 +1,81 @@
+package sbmltools;
+
+/**
+ * An open addressing set of 128-bit hashes stored in a flat long array, so
+ * each entry costs 16 bytes plus free space and no objects are allocated
+ * per entry.
+ */
+public class SequenceHashSet {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    // pairs of longs; the all zero hash marks an empty slot and is tracked separately
+    private long[] table = new long[INITIAL_CAPACITY * 2];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int size = 0;
+    private boolean containsZero = false;
+
+    /** Add a hash to the set.
+     * @param h1 the high 64 bits of the hash.
+     * @param h2 the low 64 bits of the hash.
+     * @return true if the hash was not already in the set.
+     */
+    public boolean add(final long h1, final long h2) {
+        if (h1 == 0 && h2 == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if ((size + 1) * 2 > mask + 1) {
+            resize();
+        }
+        if (!insert(table, mask, h1, h2)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    private static boolean insert(
+            final long[] table,
+            final int mask,
+            final long h1,
+            final long h2) {
+        int i = (int) (h2 ^ (h2 >>> 32)) & mask;
+        while (true) {
+            final long e1 = table[i * 2];
+            final long e2 = table[i * 2 + 1];
+            if (e1 == 0 && e2 == 0) {
+                table[i * 2] = h1;
+                table[i * 2 + 1] = h2;
+                return true;
+            }
+            if (e1 == h1 && e2 == h2) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        final int capacity = (mask + 1) * 2;
+        final long[] newTable = new long[capacity * 2];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != 0 || table[i + 1] != 0) {
+                insert(newTable, capacity - 1, table[i], table[i + 1]);
+            }
+        }
+        table = newTable;
+        mask = capacity - 1;
+    }
+
+    /** Get the number of hashes in the set.
+     * @return the set size.
+     */
+    public int size() {
+        return size;
+    }
+}
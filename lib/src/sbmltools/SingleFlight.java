@@ -0,0 +1,337 @@
+package sbmltools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent tasks with the same key, so only one of them runs and
+ * every caller gets its result.
+ * <p>
+ * A caller joins the flight for a key. The first caller to join becomes the
+ * leader, and must complete or fail the flight; callers that join while the
+ * flight is in progress wait for it. Once the flight completes, the next
+ * caller starts a new one. A result that must be owned by each caller, such as
+ * a lease, is handed to each caller through {@link Sharing#share(Object)}, and
+ * the flight's own result is released once every caller has its share.
+ * @param <K> the type of the task keys.
+ * @param <V> the type of the task results.
+ */
+public class SingleFlight<K, V> {
+
+    /** Hands the result of a flight to the callers that joined it.
+     * @param <V> the type of the result.
+     */
+    public interface Sharing<V> {
+
+        /** Get a caller's share of a result. Called once for each caller,
+         * before the result is released.
+         * @param result the result of the flight.
+         * @return the caller's share.
+         * @throws Exception if the share cannot be made.
+         */
+        V share(V result) throws Exception;
+
+        /** Release the result of a flight, once every caller has its share or
+         * has left the flight.
+         * @param result the result of the flight.
+         * @throws Exception if the result cannot be released.
+         */
+        void release(V result) throws Exception;
+    }
+
+    private final Sharing<V> sharing;
+    // guarded by this
+    private final Map<K, Call> calls = new HashMap<K, Call>();
+
+    /** Create a single flight group whose callers all get the same result. */
+    public SingleFlight() {
+        this(new Sharing<V>() {
+            @Override
+            public V share(final V result) {
+                return result;
+            }
+
+            @Override
+            public void release(final V result) {}
+        });
+    }
+
+    /** Create a single flight group.
+     * @param sharing shares the result of a flight with its callers.
+     */
+    public SingleFlight(final Sharing<V> sharing) {
+        if (sharing == null) {
+            throw new NullPointerException("sharing");
+        }
+        this.sharing = sharing;
+    }
+
+    /** Get the number of flights in progress.
+     * @return the number of keys with a running task.
+     */
+    public synchronized int getInFlight() {
+        return calls.size();
+    }
+
+    /** Join the flight for a key, starting one if none is in progress. The
+     * caller must either call {@link Flight#get()} or {@link Flight#leave()},
+     * and if it is the leader, must also complete or fail the flight.
+     * @param key the task key.
+     * @return the flight.
+     */
+    public Flight join(final K key) {
+        synchronized (this) {
+            Call call = calls.get(key);
+            final boolean leader = call == null;
+            if (leader) {
+                call = new Call(key);
+                calls.put(key, call);
+            }
+            call.participants++;
+            return new Flight(call, leader);
+        }
+    }
+
+    /** Run a task, unless a task with the same key is in progress, in which
+     * case wait for its result instead.
+     * @param key the task key.
+     * @param task the task.
+     * @return this caller's share of the result.
+     * @throws Exception if the task, or sharing its result, fails.
+     */
+    public V run(final K key, final Callable<V> task) throws Exception {
+        final Flight flight = join(key);
+        if (flight.isLeader()) {
+            try {
+                flight.complete(task.call());
+            } catch (Throwable e) {
+                flight.fail(e);
+            }
+        }
+        return flight.get();
+    }
+
+    private void leave(final Call call) throws Exception {
+        final boolean release;
+        synchronized (this) {
+            call.participants--;
+            release = call.isDone() && call.participants == 0 && !call.released;
+            call.released |= release;
+        }
+        if (release) {
+            call.release();
+        }
+    }
+
+    private class Call extends FutureTask<V> {
+
+        private final K key;
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+        // the remaining fields are guarded by the flight group
+        private int participants = 0;
+        private boolean released = false;
+        private boolean listenersRun = false;
+
+        private Call(final K key) {
+            super(new Callable<V>() {
+                @Override
+                public V call() {
+                    throw new IllegalStateException("A flight is completed by its leader");
+                }
+            });
+            this.key = key;
+        }
+
+        private void complete(final V result) {
+            set(result);
+        }
+
+        private void fail(final Throwable error) {
+            setException(error);
+        }
+
+        private void release() throws Exception {
+            final V result;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                return;
+            }
+            sharing.release(result);
+        }
+
+        @Override
+        protected void done() {
+            final List<Runnable> toRun;
+            final boolean release;
+            synchronized (SingleFlight.this) {
+                if (calls.get(key) == this) {
+                    calls.remove(key);
+                }
+                release = participants == 0 && !released;
+                released |= release;
+                listenersRun = true;
+                toRun = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+            try {
+                if (release) {
+                    release();
+                }
+            } catch (Exception e) {
+                // a failed release must not stop the listeners
+                e.printStackTrace();
+            }
+            for (final Runnable r: toRun) {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /** One caller's place in a flight. */
+    public class Flight {
+
+        private final Call call;
+        private final boolean leader;
+        private boolean left = false;
+
+        private Flight(final Call call, final boolean leader) {
+            this.call = call;
+            this.leader = leader;
+        }
+
+        /** Check whether this caller started the flight, and so must complete
+         * or fail it.
+         * @return true if this caller is the leader.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /** Check whether the flight has completed or failed.
+         * @return true if the flight is done.
+         */
+        public boolean isDone() {
+            return call.isDone();
+        }
+
+        /** Complete the flight. Only the leader may call this method.
+         * @param result the result of the task.
+         */
+        public void complete(final V result) {
+            checkLeader();
+            call.complete(result);
+        }
+
+        /** Fail the flight. Only the leader may call this method.
+         * @param error the reason the task failed.
+         */
+        public void fail(final Throwable error) {
+            checkLeader();
+            call.fail(error);
+        }
+
+        private void checkLeader() {
+            if (!leader) {
+                throw new IllegalStateException("Only the leader may complete a flight");
+            }
+        }
+
+        /** Add a listener that is run when the flight completes or fails. If the
+         * flight is already done the listener is run at once.
+         * @param listener the listener.
+         * @param executor the executor on which to run the listener.
+         */
+        public void addListener(final Runnable listener, final Executor executor) {
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(listener);
+                }
+            };
+            synchronized (SingleFlight.this) {
+                if (!call.listenersRun) {
+                    call.listeners.add(task);
+                    return;
+                }
+            }
+            task.run();
+        }
+
+        /** Wait for the flight and get this caller's share of the result. This
+         * caller leaves the flight, and this method may only be called once.
+         * @return the share of the result.
+         * @throws Exception the exception the task failed with, or if sharing
+         * the result fails.
+         * @throws InterruptedException if interrupted while waiting. The caller
+         * has still left the flight.
+         */
+        public V get() throws Exception {
+            if (left) {
+                throw new IllegalStateException("This caller has left the flight");
+            }
+            try {
+                final V result;
+                try {
+                    result = call.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                return sharing.share(result);
+            } finally {
+                leave();
+            }
+        }
+
+        /** Wait at most the given time for the flight, and if it is done, get
+         * this caller's share of the result and leave the flight as
+         * {@link #get()} does. If the flight is not done in time, this caller
+         * stays in the flight, and must wait again or leave.
+         * @param timeout the most time to wait.
+         * @param unit the unit of the timeout.
+         * @return the share of the result.
+         * @throws TimeoutException if the flight is not done in time.
+         * @throws InterruptedException if interrupted while waiting. This
+         * caller stays in the flight.
+         * @throws Exception the exception the task failed with, or if sharing
+         * the result fails.
+         */
+        public V get(final long timeout, final TimeUnit unit) throws Exception {
+            if (left) {
+                throw new IllegalStateException("This caller has left the flight");
+            }
+            try {
+                call.get(timeout, unit);
+            } catch (ExecutionException e) {
+                // thrown by get() below
+            }
+            return get();
+        }
+
+        /** Leave the flight without getting the result. Has no effect if this
+         * caller already left.
+         * @throws Exception if releasing the result fails.
+         */
+        public void leave() throws Exception {
+            if (!left) {
+                left = true;
+                SingleFlight.this.leave(call);
+            }
+        }
+    }
+}
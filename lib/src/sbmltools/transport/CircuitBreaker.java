@@ -0,0 +1,172 @@
+package sbmltools.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops calls to a service host that keeps failing, so callers fail at once
+ * rather than adding load to a saturated server and waiting on it.
+ * <p>
+ * The breaker starts closed. After a number of consecutive transient
+ * failures it opens, and calls are rejected with a
+ * {@link CircuitOpenException} until the open period has passed. The next
+ * call is then let through as a trial: if it succeeds the breaker closes,
+ * and if it fails the breaker opens again. Calls that reach the server and
+ * get any response, including an error, count as successes. Clients of the
+ * same host share a breaker by default. Instances are thread safe.
+ */
+public class CircuitBreaker {
+
+    /** The default number of consecutive failures that opens the breaker. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /** The default time the breaker stays open before a trial call. */
+    public static final long DEFAULT_OPEN_MS = 30000;
+
+    private static final Map<String, CircuitBreaker> HOSTS = new HashMap<String, CircuitBreaker>();
+
+    /** The states of a breaker. */
+    public enum State {
+        /** Calls are made. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** One trial call is made, and other calls are rejected. */
+        HALF_OPEN
+    }
+
+    /** Thrown when a call is rejected because the breaker is open. */
+    @SuppressWarnings("serial")
+    public static class CircuitOpenException extends IOException {
+
+        private CircuitOpenException(final String message) {
+            super(message);
+        }
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    // the remaining fields are guarded by this
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+    private long rejected = 0;
+
+    /** Get the breaker shared by the clients of a host.
+     * @param url a URL on the host.
+     * @return the host's breaker.
+     */
+    public static CircuitBreaker getDefault(final URL url) {
+        final String key = ClientConnectionPool.getHostKey(url);
+        synchronized (HOSTS) {
+            CircuitBreaker b = HOSTS.get(key);
+            if (b == null) {
+                b = new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS);
+                HOSTS.put(key, b);
+            }
+            return b;
+        }
+    }
+
+    /** Create a breaker.
+     * @param failureThreshold the number of consecutive failures that opens
+     * the breaker.
+     * @param openMs the time the breaker stays open before a trial call.
+     */
+    public CircuitBreaker(final int failureThreshold, final long openMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        if (openMs < 0) {
+            throw new IllegalArgumentException("openMs cannot be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    }
+
+    /** Get the state of the breaker.
+     * @return the state.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /** Get the time left before an open breaker lets a trial call through.
+     * @return the time in milliseconds, rounded up, or 0 if the breaker is not
+     * open.
+     */
+    public synchronized long getRemainingOpenMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        final long left = openNanos - (System.nanoTime() - openedAt);
+        final long msNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        return left <= 0 ? 0 : (left + msNanos - 1) / msNanos;
+    }
+
+    /** Get the number of calls rejected so far.
+     * @return the rejected call count.
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /** Ask to make a call. Each call that is let through must be followed by
+     * {@link #release(boolean, boolean)}.
+     * @param target the call, for the error message.
+     * @return true if the call is the trial call of a half open breaker.
+     * @throws CircuitOpenException if the call is rejected.
+     */
+    public synchronized boolean acquire(final String target) throws CircuitOpenException {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejected++;
+        throw new CircuitOpenException(String.format(
+                "%s was not called: the service failed %s times in a row, " +
+                "and is not being called for %s ms", target, failureThreshold,
+                TimeUnit.NANOSECONDS.toMillis(openNanos)));
+    }
+
+    /** Record the outcome of a call.
+     * @param trial the value returned by {@link #acquire(String)}.
+     * @param failed true if the call failed transiently.
+     */
+    public synchronized void release(final boolean trial, final boolean failed) {
+        if (trial) {
+            trialInFlight = false;
+            if (failed) {
+                open();
+            } else {
+                state = State.CLOSED;
+                failures = 0;
+            }
+        } else if (state == State.CLOSED) {
+            // calls started before the breaker opened do not change it
+            if (!failed) {
+                failures = 0;
+            } else if (++failures >= failureThreshold) {
+                open();
+            }
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        failures = 0;
+    }
+}
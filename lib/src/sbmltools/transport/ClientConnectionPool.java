@@ -0,0 +1,123 @@
+package sbmltools.transport;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of concurrent calls the service clients make to each host,
+ * so that the connections they open are kept alive and reused.
+ * <p>
+ * The clients call services through {@link java.net.HttpURLConnection}, which
+ * keeps a JVM wide cache of idle keep-alive connections holding at most
+ * <code>http.maxConnections</code> connections per host. When more calls run
+ * at once than the cache holds, the extra connections are closed when their
+ * calls finish and the next calls pay for TCP and TLS setup again. Bounding the
+ * concurrent calls per host at the cache size means every connection goes back
+ * to the cache. The JDK reads <code>http.maxConnections</code> once, when the
+ * first connection in the JVM is opened, so it must be set on the command line
+ * rather than by this class; the service's start scripts set it.
+ */
+public class ClientConnectionPool {
+
+    /** The keep-alive cache size per host the JDK uses when
+     * <code>http.maxConnections</code> is not set to a positive number. */
+    public static final int JDK_DEFAULT_MAX_CONNECTIONS = 5;
+
+    private static final String MAX_CONNECTIONS_PROP = "http.maxConnections";
+
+    private static ClientConnectionPool defaultPool = null;
+
+    private final int maxPerHost;
+    private final ConcurrentMap<String, Semaphore> hosts =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    /** Get the pool shared by all clients that do not set their own. Its
+     * limit is the JDK's keep-alive cache size per host.
+     * @return the default pool.
+     */
+    public static synchronized ClientConnectionPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new ClientConnectionPool(getKeepAliveCacheSize());
+        }
+        return defaultPool;
+    }
+
+    /** Get the size per host of the JDK's keep-alive cache, as the JDK works
+     * it out from <code>http.maxConnections</code>.
+     * @return the most idle connections the JDK keeps per host.
+     */
+    public static int getKeepAliveCacheSize() {
+        final Integer size = Integer.getInteger(MAX_CONNECTIONS_PROP);
+        return size != null && size > 0 ? size : JDK_DEFAULT_MAX_CONNECTIONS;
+    }
+
+    /** Create a pool.
+     * @param maxPerHost the most concurrent calls to make to each host.
+     */
+    public ClientConnectionPool(final int maxPerHost) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be at least 1");
+        }
+        this.maxPerHost = maxPerHost;
+    }
+
+    /** Get the most concurrent calls made to each host.
+     * @return the per host limit.
+     */
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /** Get the number of calls to the host of a URL that are in progress.
+     * @param url the URL.
+     * @return the number of calls holding a connection to the host.
+     */
+    public int getActiveCalls(final URL url) {
+        final Semaphore s = hosts.get(getHostKey(url));
+        return s == null ? 0 : maxPerHost - s.availablePermits();
+    }
+
+    /** Wait for a connection to the host of a URL to become available. Each
+     * call to this method must be followed by a call to {@link #release(URL)}.
+     * @param url the URL to be called.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public void acquire(final URL url) throws InterruptedIOException {
+        try {
+            getSemaphore(url).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for a connection to " + url.getHost());
+        }
+    }
+
+    /** Release a connection to the host of a URL.
+     * @param url the URL that was called.
+     */
+    public void release(final URL url) {
+        getSemaphore(url).release();
+    }
+
+    private Semaphore getSemaphore(final URL url) {
+        final String key = getHostKey(url);
+        Semaphore s = hosts.get(key);
+        if (s == null) {
+            final Semaphore newS = new Semaphore(maxPerHost, true);
+            s = hosts.putIfAbsent(key, newS);
+            if (s == null) {
+                s = newS;
+            }
+        }
+        return s;
+    }
+
+    // the JDK keys its keep-alive cache by protocol, host and port
+    static String getHostKey(final URL url) {
+        final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+}
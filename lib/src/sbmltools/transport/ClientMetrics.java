@@ -0,0 +1,191 @@
+package sbmltools.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms, error counts and retry counts for a client's calls,
+ * by JSON-RPC method name.
+ * <p>
+ * Each call to the service is recorded under its method, e.g.
+ * <code>AssemblyUtil._check_job</code>, with its latency including any
+ * retries. Clients that wait for asynchronous jobs also record the whole job,
+ * from submission to result, under the name of the spec method, e.g.
+ * <code>AssemblyUtil.save_assembly_from_fasta</code>, so the time spent in a
+ * job can be told apart from the time spent checking on it. Clients may share
+ * an instance. Instances are thread safe.
+ */
+public class ClientMetrics {
+
+    private final ConcurrentMap<String, MethodMetrics> methods =
+            new ConcurrentHashMap<String, MethodMetrics>();
+
+    private static class MethodMetrics {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+    }
+
+    private MethodMetrics get(final String method) {
+        MethodMetrics m = methods.get(method);
+        if (m == null) {
+            final MethodMetrics created = new MethodMetrics();
+            m = methods.putIfAbsent(method, created);
+            if (m == null) {
+                m = created;
+            }
+        }
+        return m;
+    }
+
+    /** Record a call.
+     * @param method the method name.
+     * @param nanos the latency of the call in nanoseconds.
+     * @param failed true if the call failed.
+     * @param retries the number of times the call was retried.
+     */
+    public void record(
+            final String method,
+            final long nanos,
+            final boolean failed,
+            final int retries) {
+        final MethodMetrics m = get(method);
+        m.latency.record(nanos, TimeUnit.NANOSECONDS);
+        if (failed) {
+            m.errors.incrementAndGet();
+        }
+        if (retries > 0) {
+            m.retries.addAndGet(retries);
+        }
+    }
+
+    /** Discard everything recorded so far. */
+    public void reset() {
+        methods.clear();
+    }
+
+    /** Get a snapshot of the metrics.
+     * @return the metrics for each method that has been called, by method
+     * name.
+     */
+    public Map<String, Snapshot> snapshot() {
+        final Map<String, Snapshot> ret = new TreeMap<String, Snapshot>();
+        for (final Map.Entry<String, MethodMetrics> e: methods.entrySet()) {
+            final MethodMetrics m = e.getValue();
+            ret.put(e.getKey(), new Snapshot(e.getKey(), m.latency.copy(),
+                    m.errors.get(), m.retries.get()));
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /** The metrics for one method at one point in time. */
+    public static class Snapshot {
+
+        private final String method;
+        private final LatencyHistogram latency;
+        private final long errors;
+        private final long retries;
+
+        private Snapshot(
+                final String method,
+                final LatencyHistogram latency,
+                final long errors,
+                final long retries) {
+            this.method = method;
+            this.latency = latency;
+            this.errors = errors;
+            this.retries = retries;
+        }
+
+        /** Get the method name.
+         * @return the method.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /** Get the number of calls.
+         * @return the call count.
+         */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        /** Get the number of calls that failed.
+         * @return the error count.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /** Get the number of retries made across all calls.
+         * @return the retry count.
+         */
+        public long getRetries() {
+            return retries;
+        }
+
+        /** Get the mean latency.
+         * @return the mean in milliseconds.
+         */
+        public double getMeanMs() {
+            return latency.getMeanMicros() / 1000;
+        }
+
+        /** Get the largest latency.
+         * @return the maximum in milliseconds.
+         */
+        public double getMaxMs() {
+            return latency.getMaxMicros() / 1000.0;
+        }
+
+        /** Get a latency percentile.
+         * @param percentile the percentile, from 0 to 100.
+         * @return the latency in milliseconds.
+         */
+        public double getPercentileMs(final double percentile) {
+            return latency.getPercentileMicros(percentile) / 1000.0;
+        }
+
+        /** Get the latency histogram.
+         * @return a copy of the histogram.
+         */
+        public LatencyHistogram getHistogram() {
+            return latency.copy();
+        }
+
+        /** Get the snapshot as a map that serializes to JSON, with latencies
+         * in milliseconds.
+         * @return the snapshot.
+         */
+        public Map<String, Object> toMap() {
+            final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+            ret.put("method", method);
+            ret.put("count", getCount());
+            ret.put("errors", errors);
+            ret.put("retries", retries);
+            ret.put("mean_ms", getMeanMs());
+            ret.put("p50_ms", getPercentileMs(50));
+            ret.put("p90_ms", getPercentileMs(90));
+            ret.put("p99_ms", getPercentileMs(99));
+            ret.put("max_ms", getMaxMs());
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%s errors=%s retries=%s " +
+                    "mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                    method, getCount(), errors, retries, getMeanMs(),
+                    getPercentileMs(50), getPercentileMs(90), getPercentileMs(99),
+                    getMaxMs());
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package sbmltools.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.Permission;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Adds gzip compression to the HTTP connections a JSON-RPC caller opens.
+ * <p>
+ * The caller opens its connections from a URL built with {@link #wrap(URL)},
+ * so each connection passes through this handler. Responses are requested
+ * with <code>Accept-Encoding: gzip</code> and decompressed as they are read.
+ * Requests are compressed only once a response from the same host has carried
+ * <code>Accept-Encoding: gzip</code>, as the service's GzipFilter sends, since a
+ * server that does not expect a compressed request cannot read it; and only if
+ * they are at least the minimum size, as small bodies are not worth the time.
+ * Instances are thread safe.
+ */
+public class GzipTransport extends URLStreamHandler {
+
+    /** The default size below which requests are not compressed. */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final String GZIP = "gzip";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final int CHUNK_SIZE = 8192;
+
+    // hosts that have said they accept compressed requests
+    private static final Set<String> GZIP_HOSTS =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final String protocol;
+    private volatile boolean enabled = true;
+    private volatile int minSize = DEFAULT_MIN_SIZE;
+
+    /** Create a transport.
+     * @param protocol the protocol of the URLs the transport is used for.
+     */
+    public GzipTransport(final String protocol) {
+        this.protocol = protocol;
+    }
+
+    /** Check whether a content coding is gzip.
+     * @param coding the content coding.
+     * @return true if the coding is gzip or its alias x-gzip.
+     */
+    public static boolean isGzip(final String coding) {
+        return coding.equalsIgnoreCase(GZIP) || coding.equalsIgnoreCase("x-gzip");
+    }
+
+    /** Check whether an Accept-Encoding header allows gzip.
+     * @param acceptEncoding the header value, or null if it is not present.
+     * @return true if gzip is accepted.
+     */
+    public static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String item: acceptEncoding.split(",")) {
+            final String[] parts = item.split(";");
+            if (!isGzip(parts[0].trim())) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2).trim()) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Get a URL whose connections are opened through this transport.
+     * @param url the service URL.
+     * @return the equivalent URL using this transport.
+     */
+    public URL wrap(final URL url) {
+        if (!url.getProtocol().equals(protocol)) {
+            throw new IllegalArgumentException(String.format(
+                    "Transport for %s cannot open %s", protocol, url));
+        }
+        try {
+            return new URL(null, url.toExternalForm(), this);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL: " + url, e);
+        }
+    }
+
+    /** Check whether compression is enabled.
+     * @return true if compression is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Set whether requests and responses are compressed. Default true.
+     * @param enabled true to enable compression.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Get the size below which requests are not compressed.
+     * @return the minimum size in bytes.
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /** Set the size below which requests are not compressed.
+     * @param minSize the minimum size in bytes.
+     */
+    public void setMinSize(final int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize cannot be negative");
+        }
+        this.minSize = minSize;
+    }
+
+    @Override
+    protected int getDefaultPort() {
+        return "https".equals(protocol) ? 443 : 80;
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u) throws IOException {
+        return wrapConnection(u, new URL(u.toExternalForm()).openConnection());
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u, final Proxy p) throws IOException {
+        return wrapConnection(u, new URL(u.toExternalForm()).openConnection(p));
+    }
+
+    private URLConnection wrapConnection(final URL u, final URLConnection conn) {
+        if (!enabled || !(conn instanceof HttpURLConnection)) {
+            return conn;
+        }
+        return new GzipConnection(u, (HttpURLConnection) conn,
+                GZIP_HOSTS.contains(ClientConnectionPool.getHostKey(u)), minSize);
+    }
+
+    /* Delegates to the real connection, compressing the request body and
+     * decompressing the response body. It extends HttpsURLConnection so it can
+     * stand in for both kinds of connection; the TLS methods only take effect
+     * when the real connection is https.
+     */
+    private static class GzipConnection extends HttpsURLConnection {
+
+        private final HttpURLConnection conn;
+        private final boolean compressRequest;
+        private final int minSize;
+        private RequestBody requestBody = null;
+        private int fixedLength = -1;
+        private int chunkLength = -1;
+        private boolean responseSeen = false;
+
+        private GzipConnection(
+                final URL url,
+                final HttpURLConnection conn,
+                final boolean compressRequest,
+                final int minSize) {
+            super(url);
+            this.conn = conn;
+            this.compressRequest = compressRequest;
+            this.minSize = minSize;
+            conn.setRequestProperty(ACCEPT_ENCODING, GZIP);
+        }
+
+        private class RequestBody extends OutputStream {
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            private OutputStream out = null;
+            private boolean closed = false;
+
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                if (closed) {
+                    throw new IOException("The request body is closed");
+                }
+                if (out != null) {
+                    out.write(b, off, len);
+                    return;
+                }
+                buffer.write(b, off, len);
+                if (buffer.size() >= minSize) {
+                    // the compressed length is not known up front
+                    conn.setRequestProperty(CONTENT_ENCODING, GZIP);
+                    conn.setChunkedStreamingMode(chunkLength > 0 ? chunkLength : CHUNK_SIZE);
+                    out = new GZIPOutputStream(conn.getOutputStream(), CHUNK_SIZE);
+                    buffer.writeTo(out);
+                    buffer = null;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out != null) {
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (out == null) {
+                    if (chunkLength > 0) {
+                        conn.setChunkedStreamingMode(chunkLength);
+                    } else {
+                        conn.setFixedLengthStreamingMode(buffer.size());
+                    }
+                    out = conn.getOutputStream();
+                    buffer.writeTo(out);
+                    buffer = null;
+                }
+                out.close();
+            }
+        }
+
+        private void sendRequest() throws IOException {
+            if (requestBody != null) {
+                requestBody.close();
+            }
+        }
+
+        private boolean isGzipResponse() {
+            return GZIP.equalsIgnoreCase(conn.getContentEncoding());
+        }
+
+        private void checkResponse() {
+            if (!responseSeen) {
+                responseSeen = true;
+                if (acceptsGzip(conn.getHeaderField(ACCEPT_ENCODING))) {
+                    GZIP_HOSTS.add(ClientConnectionPool.getHostKey(url));
+                }
+            }
+        }
+
+        private InputStream decode(final InputStream in) throws IOException {
+            checkResponse();
+            return in != null && isGzipResponse() ? new GZIPInputStream(in, CHUNK_SIZE) : in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if (!compressRequest) {
+                if (chunkLength > 0) {
+                    conn.setChunkedStreamingMode(chunkLength);
+                } else if (fixedLength >= 0) {
+                    conn.setFixedLengthStreamingMode(fixedLength);
+                }
+                return conn.getOutputStream();
+            }
+            if (requestBody == null) {
+                requestBody = new RequestBody();
+            }
+            return requestBody;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            sendRequest();
+            return decode(conn.getInputStream());
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            try {
+                return decode(conn.getErrorStream());
+            } catch (IOException e) {
+                // a corrupt compressed error body is no body
+                return null;
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            sendRequest();
+            final int code = conn.getResponseCode();
+            checkResponse();
+            return code;
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            sendRequest();
+            return conn.getResponseMessage();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            conn.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            conn.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return conn.usingProxy();
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(final int contentLength) {
+            fixedLength = contentLength;
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(final long contentLength) {
+            if (contentLength > Integer.MAX_VALUE) {
+                chunkLength = CHUNK_SIZE;
+            } else {
+                fixedLength = (int) contentLength;
+            }
+        }
+
+        @Override
+        public void setChunkedStreamingMode(final int chunklen) {
+            chunkLength = chunklen > 0 ? chunklen : CHUNK_SIZE;
+        }
+
+        // headers of a decompressed response describe the compressed body
+
+        @Override
+        public String getContentEncoding() {
+            return isGzipResponse() ? null : conn.getContentEncoding();
+        }
+
+        @Override
+        public int getContentLength() {
+            return isGzipResponse() ? -1 : conn.getContentLength();
+        }
+
+        @Override
+        public String getHeaderField(final String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public String getHeaderField(final int n) {
+            return conn.getHeaderField(n);
+        }
+
+        @Override
+        public String getHeaderFieldKey(final int n) {
+            return conn.getHeaderFieldKey(n);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return conn.getHeaderFields();
+        }
+
+        @Override
+        public String getContentType() {
+            return conn.getContentType();
+        }
+
+        @Override
+        public void setRequestMethod(final String method) throws java.net.ProtocolException {
+            conn.setRequestMethod(method);
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return conn.getRequestMethod();
+        }
+
+        @Override
+        public void setRequestProperty(final String key, final String value) {
+            conn.setRequestProperty(key, value);
+        }
+
+        @Override
+        public void addRequestProperty(final String key, final String value) {
+            conn.addRequestProperty(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(final String key) {
+            return conn.getRequestProperty(key);
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestProperties() {
+            return conn.getRequestProperties();
+        }
+
+        @Override
+        public void setConnectTimeout(final int timeout) {
+            conn.setConnectTimeout(timeout);
+        }
+
+        @Override
+        public int getConnectTimeout() {
+            return conn.getConnectTimeout();
+        }
+
+        @Override
+        public void setReadTimeout(final int timeout) {
+            conn.setReadTimeout(timeout);
+        }
+
+        @Override
+        public int getReadTimeout() {
+            return conn.getReadTimeout();
+        }
+
+        @Override
+        public void setDoOutput(final boolean dooutput) {
+            conn.setDoOutput(dooutput);
+        }
+
+        @Override
+        public boolean getDoOutput() {
+            return conn.getDoOutput();
+        }
+
+        @Override
+        public void setDoInput(final boolean doinput) {
+            conn.setDoInput(doinput);
+        }
+
+        @Override
+        public boolean getDoInput() {
+            return conn.getDoInput();
+        }
+
+        @Override
+        public void setUseCaches(final boolean usecaches) {
+            conn.setUseCaches(usecaches);
+        }
+
+        @Override
+        public boolean getUseCaches() {
+            return conn.getUseCaches();
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(final boolean followRedirects) {
+            conn.setInstanceFollowRedirects(followRedirects);
+        }
+
+        @Override
+        public boolean getInstanceFollowRedirects() {
+            return conn.getInstanceFollowRedirects();
+        }
+
+        @Override
+        public void setAllowUserInteraction(final boolean allowuserinteraction) {
+            conn.setAllowUserInteraction(allowuserinteraction);
+        }
+
+        @Override
+        public Permission getPermission() throws IOException {
+            return conn.getPermission();
+        }
+
+        @Override
+        public String toString() {
+            return conn.toString();
+        }
+
+        private HttpsURLConnection tls() {
+            return conn instanceof HttpsURLConnection ? (HttpsURLConnection) conn : null;
+        }
+
+        @Override
+        public void setSSLSocketFactory(final SSLSocketFactory sf) {
+            if (tls() != null) {
+                tls().setSSLSocketFactory(sf);
+            }
+        }
+
+        @Override
+        public SSLSocketFactory getSSLSocketFactory() {
+            return tls() != null ? tls().getSSLSocketFactory() : super.getSSLSocketFactory();
+        }
+
+        @Override
+        public void setHostnameVerifier(final HostnameVerifier v) {
+            if (tls() != null) {
+                tls().setHostnameVerifier(v);
+            }
+        }
+
+        @Override
+        public HostnameVerifier getHostnameVerifier() {
+            return tls() != null ? tls().getHostnameVerifier() : super.getHostnameVerifier();
+        }
+
+        @Override
+        public String getCipherSuite() {
+            if (tls() == null) {
+                throw new IllegalStateException("Not an https connection");
+            }
+            return tls().getCipherSuite();
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            if (tls() == null) {
+                throw new IllegalStateException("Not an https connection");
+            }
+            return tls().getLocalCertificates();
+        }
+
+        @Override
+        public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+            if (tls() == null) {
+                throw new IllegalStateException("Not an https connection");
+            }
+            return tls().getServerCertificates();
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            if (tls() == null) {
+                throw new IllegalStateException("Not an https connection");
+            }
+            return tls().getPeerPrincipal();
+        }
+
+        @Override
+        public Principal getLocalPrincipal() {
+            if (tls() == null) {
+                throw new IllegalStateException("Not an https connection");
+            }
+            return tls().getLocalPrincipal();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package sbmltools.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JobState;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.RpcContext;
+import us.kbase.common.service.UnauthorizedException;
+
+/**
+ * A base for clients of the asynchronous methods of an SDK service, which
+ * submit jobs and have a {@link JobTracker} poll them rather than each
+ * blocking a thread in a polling loop.
+ * <p>
+ * The clients kb-sdk generates make their own {@link
+ * us.kbase.common.service.JsonClientCaller} and wait for each job on the
+ * calling thread. Subclasses of this class call the same JSON-RPC methods
+ * through a {@link PooledJsonClientCaller}, and so share its connection pool,
+ * retries, circuit breaker and metrics, without editing the generated
+ * clients, which are rebuilt whenever the service's dependencies are
+ * reinstalled. Subclasses add a method per spec method that calls
+ * {@link #submitJob(String, Object, TypeReference, RpcContext...)}.
+ */
+public abstract class JobClient {
+
+    private final String module;
+    private final PooledJsonClientCaller caller;
+    private long asyncJobCheckTimeMs = 100;
+    private int asyncJobCheckTimeScalePercent = 150;
+    private long asyncJobCheckMaxTimeMs = 300000;  // 5 minutes
+    private String serviceVersion = "release";
+    private JobTracker jobTracker = null;
+
+    /** Constructs a client with a custom URL and no user credentials.
+     * @param module the name of the service's module in its spec.
+     * @param url the URL of the service.
+     */
+    protected JobClient(final String module, final URL url) {
+        this.module = module;
+        caller = new PooledJsonClientCaller(url);
+    }
+
+    /** Constructs a client with a custom URL.
+     * @param module the name of the service's module in its spec.
+     * @param url the URL of the service.
+     * @param token the user's authorization token.
+     * @throws UnauthorizedException if the token is not valid.
+     * @throws IOException if an IOException occurs when checking the token's
+     * validity.
+     */
+    protected JobClient(final String module, final URL url, final AuthToken token)
+            throws UnauthorizedException, IOException {
+        this.module = module;
+        caller = new PooledJsonClientCaller(url, token);
+    }
+
+    /** Get the URL of the service with which this client communicates.
+     * @return the service URL.
+     */
+    public URL getURL() {
+        return caller.getURL();
+    }
+
+    /** Get the token this client uses to communicate with the server.
+     * @return the authorization token.
+     */
+    public AuthToken getToken() {
+        return caller.getToken();
+    }
+
+    /** Check if this client allows insecure http (vs https) connections.
+     * @return true if insecure connections are allowed.
+     */
+    public boolean isInsecureHttpConnectionAllowed() {
+        return caller.isInsecureHttpConnectionAllowed();
+    }
+
+    /** Set whether insecure http (vs https) connections should be allowed by
+     * this client.
+     * @param allowed true to allow insecure connections. Default false
+     */
+    public void setIsInsecureHttpConnectionAllowed(final boolean allowed) {
+        caller.setInsecureHttpConnectionAllowed(allowed);
+    }
+
+    /** Set the timeout between establishing a connection to a server and
+     * receiving a response. A value of zero or null implies no timeout.
+     * @param milliseconds the milliseconds to wait before timing out when
+     * attempting to read from a server.
+     */
+    public void setConnectionReadTimeOut(final Integer milliseconds) {
+        caller.setConnectionReadTimeOut(milliseconds);
+    }
+
+    /** Get the pool that limits this client's concurrent connections to the
+     * service host.
+     * @return the connection pool.
+     */
+    public ClientConnectionPool getConnectionPool() {
+        return caller.getConnectionPool();
+    }
+
+    /** Set the pool that limits this client's concurrent connections to the
+     * service host. Clients sharing a pool share its per host limit.
+     * @param pool the connection pool, or null to use the default pool.
+     */
+    public void setConnectionPool(final ClientConnectionPool pool) {
+        caller.setConnectionPool(pool);
+    }
+
+    /** Gets the policy for retrying idempotent calls, such as job
+     * submissions, that fail transiently.
+     * @return the retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return caller.getRetryPolicy();
+    }
+
+    /** Sets the policy for retrying idempotent calls that fail transiently.
+     * @param policy the retry policy, or null to never retry.
+     */
+    public void setRetryPolicy(final RetryPolicy policy) {
+        caller.setRetryPolicy(policy);
+    }
+
+    /** Gets the circuit breaker that makes calls fail at once while the
+     * service host keeps failing.
+     * @return the circuit breaker.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return caller.getCircuitBreaker();
+    }
+
+    /** Sets the circuit breaker for this client's calls.
+     * @param breaker the breaker, or null to use the one shared by all clients
+     * of the service host.
+     */
+    public void setCircuitBreaker(final CircuitBreaker breaker) {
+        caller.setCircuitBreaker(breaker);
+    }
+
+    /** Gets the latency histograms and error counts of this client's calls
+     * and jobs, by method. Use {@link ClientMetrics#snapshot()} to read them.
+     * @return the client metrics.
+     */
+    public ClientMetrics getMetrics() {
+        return caller.getMetrics();
+    }
+
+    /** Sets the metrics in which this client records its calls and jobs, for
+     * instance to collect the calls of several clients together.
+     * @param metrics the client metrics.
+     */
+    public void setMetrics(final ClientMetrics metrics) {
+        caller.setMetrics(metrics);
+    }
+
+    /** Gets whether requests and responses are gzip compressed.
+     * @return true if compression is enabled.
+     */
+    public boolean isCompressionEnabled() {
+        return caller.isCompressionEnabled();
+    }
+
+    /** Sets whether requests and responses are gzip compressed. Requests are
+     * only compressed once the service has said it accepts them, and only if
+     * they are large enough to be worth it.
+     * @param enabled true to enable compression, which is the default.
+     */
+    public void setCompressionEnabled(final boolean enabled) {
+        caller.setCompressionEnabled(enabled);
+    }
+
+    public long getAsyncJobCheckTimeMs() {
+        return this.asyncJobCheckTimeMs;
+    }
+
+    public void setAsyncJobCheckTimeMs(final long newValue) {
+        this.asyncJobCheckTimeMs = newValue;
+    }
+
+    public int getAsyncJobCheckTimeScalePercent() {
+        return this.asyncJobCheckTimeScalePercent;
+    }
+
+    public void setAsyncJobCheckTimeScalePercent(final int newValue) {
+        this.asyncJobCheckTimeScalePercent = newValue;
+    }
+
+    public long getAsyncJobCheckMaxTimeMs() {
+        return this.asyncJobCheckMaxTimeMs;
+    }
+
+    public void setAsyncJobCheckMaxTimeMs(final long newValue) {
+        this.asyncJobCheckMaxTimeMs = newValue;
+    }
+
+    /** Get the tracker that polls this client's jobs.
+     * @return the job tracker, by default {@link JobTracker#getDefault()}.
+     */
+    public JobTracker getJobTracker() {
+        return this.jobTracker == null ? JobTracker.getDefault() : this.jobTracker;
+    }
+
+    /** Set the tracker that polls this client's jobs.
+     * @param newValue the job tracker, or null to use the default tracker.
+     */
+    public void setJobTracker(final JobTracker newValue) {
+        this.jobTracker = newValue;
+    }
+
+    public String getServiceVersion() {
+        return this.serviceVersion;
+    }
+
+    public void setServiceVersion(final String newValue) {
+        this.serviceVersion = newValue;
+    }
+
+    /** Submit a job and have this client's job tracker poll it.
+     * @param method the spec method, without the module name.
+     * @param params the parameters of the method.
+     * @param retType the type of the job state the service returns.
+     * @param jsonRpcContext the call context, if any.
+     * @return a future for the result of the job.
+     * @throws IOException if an IO exception occurs while submitting the job.
+     * @throws JsonClientException if a JSON RPC exception occurs while
+     * submitting the job.
+     */
+    protected <T> JobFuture<T> submitJob(
+            final String method,
+            final Object params,
+            final TypeReference<List<JobState<List<T>>>> retType,
+            final RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        final String jobId = _submitJob(method, params, jsonRpcContext);
+        return getJobTracker().track(this, module + "." + method, jobId, retType);
+    }
+
+    protected String _submitJob(
+            final String method,
+            final Object params,
+            RpcContext... jsonRpcContext)
+            throws IOException, JsonClientException {
+        if (this.serviceVersion != null) {
+            if (jsonRpcContext == null || jsonRpcContext.length == 0 || jsonRpcContext[0] == null)
+                jsonRpcContext = new RpcContext[] {new RpcContext()};
+            jsonRpcContext[0].getAdditionalProperties().put("service_ver", this.serviceVersion);
+        }
+        final List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        final TypeReference<List<String>> retType = new TypeReference<List<String>>() {};
+        final List<String> res = caller.jsonrpcCall(module + "._" + method + "_submit", args,
+                retType, true, true, jsonRpcContext);
+        return res.get(0);
+    }
+
+    protected <T> JobState<T> _checkJob(
+            final String jobId,
+            final TypeReference<List<JobState<T>>> retType)
+            throws IOException, JsonClientException {
+        final List<Object> args = new ArrayList<Object>();
+        args.add(jobId);
+        // the job tracker checks again later rather than retrying at once
+        final List<JobState<T>> res = caller.jsonrpcCallOnce(module + "._check_job", args,
+                retType, true, true);
+        return res.get(0);
+    }
+
+    /** Wait for a job on the calling thread.
+     * @param future the future of the job.
+     * @return the result of the job.
+     * @throws IOException if an IO exception occurs while checking the job.
+     * @throws JsonClientException if the job fails, or the thread is
+     * interrupted, in which case the job is no longer polled.
+     */
+    protected static <T> T waitForJob(final JobFuture<T> future)
+            throws IOException, JsonClientException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            throw new JsonClientException("Thread was interrupted", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof JsonClientException)
+                throw (JsonClientException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new JsonClientException(cause.getMessage(), cause);
+        }
+    }
+}
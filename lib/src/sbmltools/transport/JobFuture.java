@@ -0,0 +1,92 @@
+package sbmltools.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of an SDK service job that is polled in the background.
+ * <p>
+ * The future completes when the job finishes, fails if checking the job
+ * fails, and stops polling the job if cancelled. Cancelling does not stop the
+ * job on the server. Listeners can be added to react to completion without
+ * blocking a thread in {@link #get()}.
+ * @param <T> the type of the job result.
+ */
+public class JobFuture<T> extends FutureTask<T> {
+
+    private final String jobId;
+    private final List<Runnable> listeners = new ArrayList<Runnable>();
+    private boolean listenersRun = false;
+
+    JobFuture(final String jobId) {
+        super(new Callable<T>() {
+            @Override
+            public T call() {
+                throw new IllegalStateException("A job future is completed by its job tracker");
+            }
+        });
+        this.jobId = jobId;
+    }
+
+    /** Get the id of the job.
+     * @return the job id.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /** Add a listener that is run when the future completes, fails or is
+     * cancelled. If the future is already done the listener is run at once.
+     * @param listener the listener.
+     * @param executor the executor on which to run the listener.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (listeners) {
+            if (!listenersRun) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    void complete(final T result) {
+        set(result);
+    }
+
+    void fail(final Throwable error) {
+        setException(error);
+    }
+
+    @Override
+    public void run() {
+        throw new UnsupportedOperationException("A job future is completed by its job tracker");
+    }
+
+    @Override
+    protected void done() {
+        final List<Runnable> toRun;
+        synchronized (listeners) {
+            listenersRun = true;
+            toRun = new ArrayList<Runnable>(listeners);
+            listeners.clear();
+        }
+        for (final Runnable r: toRun) {
+            try {
+                r.run();
+            } catch (RuntimeException e) {
+                // a failing listener must not stop the others or the job tracker
+                e.printStackTrace();
+            }
+        }
+    }
+}
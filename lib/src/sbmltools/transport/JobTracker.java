@@ -0,0 +1,322 @@
+package sbmltools.transport;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import sbmltools.transport.CircuitBreaker.CircuitOpenException;
+import us.kbase.common.service.JobState;
+
+/**
+ * Polls outstanding SDK service jobs from a single scheduling loop.
+ * <p>
+ * Each job is checked at its own adaptive interval, which starts at the
+ * submitting client's asyncJobCheckTimeMs and grows by its
+ * asyncJobCheckTimeScalePercent after every check, up to its
+ * asyncJobCheckMaxTimeMs. Across all jobs, checks are spaced so the callback
+ * server never sees more than a fixed number of status requests per second;
+ * when more jobs are due than the cap allows, they are checked in the order
+ * they became due. The loop runs on one daemon thread, started when the
+ * first job is tracked, and hands each due check to a pool of daemon threads,
+ * so a slow check does not hold up the checks of other jobs; a job is checked
+ * by one thread at a time. Each check is a single attempt, without the
+ * client's retries: a check that fails transiently does not fail the job, and
+ * the job is checked again at its next interval, up to
+ * {@link #MAX_FAILED_CHECKS} times in a row. A check rejected by the client's
+ * open circuit breaker never reached the service, so it is not counted as
+ * failed, and the job is next checked once the breaker lets calls through.
+ * The time from submission to result of each job is recorded in the client's
+ * metrics under the name of the spec method.
+ */
+public class JobTracker {
+
+    /** The default cap on status requests per second. */
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 20;
+    /** The number of consecutive transiently failed status checks after
+     * which a job is failed. */
+    public static final int MAX_FAILED_CHECKS = 10;
+
+    private static JobTracker defaultTracker = null;
+
+    private final Object lock = new Object();
+    private final PriorityQueue<TrackedJob<?>> queue = new PriorityQueue<TrackedJob<?>>();
+    private final AtomicLong requests = new AtomicLong();
+    private final ExecutorService checks = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "sdk-job-check");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private long minIntervalNanos;
+    private long lastRequest;
+    private long sequence = 0;
+    // jobs taken from the queue to be checked
+    private final Set<TrackedJob<?>> checking = new HashSet<TrackedJob<?>>();
+    private Thread loop = null;
+    private boolean shutdown = false;
+
+    /** Get the tracker shared by all clients that do not set their own.
+     * @return the default tracker.
+     */
+    public static synchronized JobTracker getDefault() {
+        if (defaultTracker == null) {
+            defaultTracker = new JobTracker(DEFAULT_MAX_REQUESTS_PER_SECOND);
+        }
+        return defaultTracker;
+    }
+
+    /** Create a tracker.
+     * @param maxRequestsPerSecond the most status requests to send per second
+     * across all jobs.
+     */
+    public JobTracker(final double maxRequestsPerSecond) {
+        setMaxRequestsPerSecond(maxRequestsPerSecond);
+        lastRequest = System.nanoTime() - minIntervalNanos;
+    }
+
+    /** Set the cap on status requests per second across all jobs.
+     * @param maxRequestsPerSecond the most requests per second.
+     */
+    public void setMaxRequestsPerSecond(final double maxRequestsPerSecond) {
+        if (!(maxRequestsPerSecond > 0)) {
+            throw new IllegalArgumentException("maxRequestsPerSecond must be positive");
+        }
+        synchronized (lock) {
+            minIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond);
+            lock.notifyAll();
+        }
+    }
+
+    /** Get the number of jobs being tracked.
+     * @return the number of jobs that have not finished or been cancelled.
+     */
+    public int getPendingJobs() {
+        synchronized (lock) {
+            int pending = 0;
+            for (final TrackedJob<?> job: checking) {
+                if (!job.future.isDone()) {
+                    pending++;
+                }
+            }
+            for (final TrackedJob<?> job: queue) {
+                if (!job.future.isDone()) {
+                    pending++;
+                }
+            }
+            return pending;
+        }
+    }
+
+    /** Get the number of status requests sent so far.
+     * @return the request count.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /** Stop the scheduling loop. Jobs still being tracked are not checked
+     * again, and their futures never complete.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+        checks.shutdown();
+    }
+
+    <T> JobFuture<T> track(
+            final JobClient client,
+            final String method,
+            final String jobId,
+            final TypeReference<List<JobState<List<T>>>> retType) {
+        final JobFuture<T> future = new JobFuture<T>(jobId);
+        final long interval = TimeUnit.MILLISECONDS.toNanos(client.getAsyncJobCheckTimeMs());
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("The job tracker is shut down");
+            }
+            queue.add(new TrackedJob<T>(client, method, future, retType, interval,
+                    System.nanoTime(), sequence++));
+            if (loop == null) {
+                loop = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runLoop();
+                    }
+                }, "sdk-job-tracker");
+                loop.setDaemon(true);
+                loop.start();
+            }
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                final TrackedJob<?> job = nextDueJob();
+                if (job == null) {
+                    return;
+                }
+                requests.incrementAndGet();
+                try {
+                    checks.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkJob(job);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // shut down since the job was taken from the queue
+                    synchronized (lock) {
+                        checking.remove(job);
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // fall through so the next tracked job starts a new loop
+        } finally {
+            synchronized (lock) {
+                loop = null;
+            }
+        }
+    }
+
+    private void checkJob(final TrackedJob<?> job) {
+        final boolean done = job.check();
+        synchronized (lock) {
+            checking.remove(job);
+            if (!done) {
+                job.reschedule(sequence++);
+                queue.add(job);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    // returns null when shut down
+    private TrackedJob<?> nextDueJob() throws InterruptedException {
+        synchronized (lock) {
+            while (!shutdown) {
+                final TrackedJob<?> job = queue.peek();
+                if (job == null) {
+                    lock.wait();
+                    continue;
+                }
+                if (job.future.isDone()) {
+                    queue.poll();
+                    continue;
+                }
+                final long now = System.nanoTime();
+                final long due = Math.max(job.nextCheck, lastRequest + minIntervalNanos);
+                if (due - now <= 0) {
+                    queue.poll();
+                    lastRequest = now;
+                    checking.add(job);
+                    return job;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, due - now);
+            }
+            return null;
+        }
+    }
+
+    private static class TrackedJob<T> implements Comparable<TrackedJob<?>> {
+
+        private final JobClient client;
+        private final String method;
+        private final long submitted;
+        private final JobFuture<T> future;
+        private final TypeReference<List<JobState<List<T>>>> retType;
+        private long interval;
+        private long nextCheck;
+        private long order;
+        private int failedChecks = 0;
+        // the least time to wait before the next check
+        private long minWait = 0;
+
+        private TrackedJob(
+                final JobClient client,
+                final String method,
+                final JobFuture<T> future,
+                final TypeReference<List<JobState<List<T>>>> retType,
+                final long interval,
+                final long submitted,
+                final long order) {
+            this.client = client;
+            this.method = method;
+            this.future = future;
+            this.retType = retType;
+            this.interval = interval;
+            this.submitted = submitted;
+            this.nextCheck = submitted + interval;
+            this.order = order;
+        }
+
+        // returns true if the job is done
+        private boolean check() {
+            if (future.isDone()) {
+                return true;
+            }
+            try {
+                final JobState<List<T>> res = client._checkJob(future.getJobId(), retType);
+                failedChecks = 0;
+                if (res.getFinished() != 0L) {
+                    recordJob(false);
+                    future.complete(res.getResult().get(0));
+                    return true;
+                }
+                return false;
+            } catch (CircuitOpenException e) {
+                minWait = TimeUnit.MILLISECONDS.toNanos(
+                        client.getCircuitBreaker().getRemainingOpenMs());
+                return false;
+            } catch (Throwable e) {
+                // the job is still running, so a status check that fails
+                // transiently is made again at the next interval
+                if (client.getRetryPolicy().isTransient(e) &&
+                        ++failedChecks < MAX_FAILED_CHECKS) {
+                    return false;
+                }
+                recordJob(true);
+                future.fail(e);
+                return true;
+            }
+        }
+
+        private void recordJob(final boolean failed) {
+            client.getMetrics().record(method, System.nanoTime() - submitted, failed, 0);
+        }
+
+        private void reschedule(final long newOrder) {
+            interval = Math.min(interval * client.getAsyncJobCheckTimeScalePercent() / 100,
+                    TimeUnit.MILLISECONDS.toNanos(client.getAsyncJobCheckMaxTimeMs()));
+            nextCheck = System.nanoTime() + Math.max(interval, minWait);
+            minWait = 0;
+            order = newOrder;
+        }
+
+        @Override
+        public int compareTo(final TrackedJob<?> other) {
+            final long diff = nextCheck - other.nextCheck;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package sbmltools.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.ServerException;
+import us.kbase.common.service.UnauthorizedException;
+
+/**
+ * Several JSON-RPC calls sent to a service in one HTTP request.
+ * <p>
+ * Calls are added to the batch, which returns a {@link Call} for each, and
+ * are all sent by {@link #execute()}. The service runs them concurrently, so
+ * they must not depend on each other. The service must run behind a
+ * JSON-RPC batch filter. A batch is sent once, and is not thread safe.
+ */
+public class JsonRpcBatch {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final PooledJsonClientCaller caller;
+    private final String serviceVersion;
+    private final List<Call<?>> calls = new ArrayList<Call<?>>();
+    private boolean executed = false;
+
+    /** Create a batch.
+     * @param caller the caller whose service URL, credentials and connection
+     * settings the batch uses.
+     * @param serviceVersion the service version to request, or null for the
+     * default.
+     */
+    public JsonRpcBatch(final PooledJsonClientCaller caller, final String serviceVersion) {
+        this.caller = caller;
+        this.serviceVersion = serviceVersion;
+    }
+
+    /** Get the number of calls in the batch.
+     * @return the number of calls.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /** Add a call to the batch.
+     * @param method the full method name, e.g. <code>SBMLTools.status</code>.
+     * @param args the method's arguments.
+     * @param retType the type of the method's return list.
+     * @param authRequired true if the method requires authentication.
+     * @param <RET> the type of the method's result.
+     * @return the call, from which the result is read after the batch is
+     * executed.
+     */
+    public <RET> Call<RET> add(
+            final String method,
+            final List<Object> args,
+            final TypeReference<List<RET>> retType,
+            final boolean authRequired) {
+        if (executed) {
+            throw new IllegalStateException("The batch has been executed");
+        }
+        final Call<RET> call = new Call<RET>(method, args, retType, authRequired);
+        calls.add(call);
+        return call;
+    }
+
+    /** Send the calls and read their results. A call that fails does not fail
+     * the batch; its error is thrown from {@link Call#get()}.
+     * @throws IOException if the request fails.
+     * @throws JsonClientException if the service does not accept the batch.
+     */
+    public void execute() throws IOException, JsonClientException {
+        if (executed) {
+            throw new IllegalStateException("The batch has been executed");
+        }
+        executed = true;
+        if (calls.isEmpty()) {
+            return;
+        }
+        final AuthToken token = caller.getToken();
+        final List<Map<String, Object>> body = new ArrayList<Map<String, Object>>();
+        boolean authRequired = false;
+        for (int i = 0; i < calls.size(); i++) {
+            final Call<?> call = calls.get(i);
+            authRequired |= call.authRequired;
+            final Map<String, Object> c = new LinkedHashMap<String, Object>();
+            c.put("params", call.args);
+            c.put("method", call.method);
+            c.put("version", "1.1");
+            c.put("id", String.valueOf(i));
+            if (serviceVersion != null) {
+                final Map<String, Object> context = new LinkedHashMap<String, Object>();
+                context.put("service_ver", serviceVersion);
+                c.put("context", context);
+            }
+            body.add(c);
+        }
+        if (authRequired && token == null) {
+            throw new UnauthorizedException("RPC method requires authentication but " +
+                    "credentials were not provided");
+        }
+        final JsonNode results = caller.callDirect("batch",
+                new PooledJsonClientCaller.Attempt<JsonNode>() {
+            @Override
+            public JsonNode run() throws IOException, JsonClientException {
+                return post(token, body);
+            }
+        });
+        if (results.isObject() && results.has("error")) {
+            // a service without batch support rejected the request as one call
+            throw toServerException(results.get("error"));
+        }
+        if (!results.isArray() || results.size() != calls.size()) {
+            throw new JsonClientException(String.format(
+                    "Expected %s results from the batch, got: %s", calls.size(),
+                    results.isArray() ? results.size() : results.getNodeType()));
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            calls.get(i).setResponse(results.get(i));
+        }
+    }
+
+    private JsonNode post(final AuthToken token, final List<Map<String, Object>> body)
+            throws IOException, JsonClientException {
+        final HttpURLConnection conn = (HttpURLConnection) caller.getURL().openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        if (token != null) {
+            conn.setRequestProperty("Authorization", token.getToken());
+        }
+        if (caller.getConnectionReadTimeOut() != null) {
+            conn.setReadTimeout(caller.getConnectionReadTimeOut());
+        }
+        final byte[] bytes = MAPPER.writeValueAsBytes(body);
+        conn.setFixedLengthStreamingMode(bytes.length);
+        final OutputStream out = conn.getOutputStream();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        final int code = conn.getResponseCode();
+        final InputStream in = code == 500 ? conn.getErrorStream() : conn.getInputStream();
+        if (in == null) {
+            throw new JsonClientException(String.format(
+                    "The batch failed with HTTP status %s %s", code,
+                    conn.getResponseMessage()));
+        }
+        try {
+            return MAPPER.readTree(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ServerException toServerException(final JsonNode error) {
+        final JsonNode data = error.get("error");
+        return new ServerException(error.path("message").asText(),
+                error.path("code").asInt(), error.path("name").asText(),
+                data == null || data.isNull() ? null : data.asText());
+    }
+
+    /** A call in a batch.
+     * @param <RET> the type of the call's result.
+     */
+    public static class Call<RET> {
+
+        private final String method;
+        private final List<Object> args;
+        private final TypeReference<List<RET>> retType;
+        private final boolean authRequired;
+        private JsonNode response = null;
+
+        private Call(
+                final String method,
+                final List<Object> args,
+                final TypeReference<List<RET>> retType,
+                final boolean authRequired) {
+            this.method = method;
+            this.args = args;
+            this.retType = retType;
+            this.authRequired = authRequired;
+        }
+
+        private void setResponse(final JsonNode response) {
+            this.response = response;
+        }
+
+        /** Get the method the call is to.
+         * @return the method name.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /** Check whether the batch has been executed and the call has a
+         * response.
+         * @return true if the call is done.
+         */
+        public boolean isDone() {
+            return response != null;
+        }
+
+        /** Get the result of the call.
+         * @return the result, or null if the method returns nothing.
+         * @throws JsonClientException if the call failed.
+         */
+        public RET get() throws JsonClientException {
+            if (response == null) {
+                throw new IllegalStateException("The batch has not been executed");
+            }
+            final JsonNode error = response.get("error");
+            if (error != null && !error.isNull()) {
+                throw toServerException(error);
+            }
+            final JsonNode result = response.get("result");
+            if (result == null || result.isNull() || result.size() == 0) {
+                return null;
+            }
+            try {
+                final List<RET> ret = MAPPER.readValue(MAPPER.treeAsTokens(result), retType);
+                return ret.get(0);
+            } catch (IOException e) {
+                throw new JsonClientException(String.format(
+                        "Could not read the result of %s: %s", method, e.getMessage()), e);
+            }
+        }
+    }
+}
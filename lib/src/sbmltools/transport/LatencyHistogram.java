@@ -0,0 +1,134 @@
+package sbmltools.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with a fixed relative precision, in the manner of
+ * HdrHistogram.
+ * <p>
+ * Latencies are recorded in microseconds. Values below 128 have their own
+ * bucket; above that each power of two is split into 64 buckets, so any
+ * recorded value is reported to within 1.6%, from a microsecond up to the
+ * largest long, in under 4000 buckets. Recording is lock free and may be done
+ * from any thread; reads are not atomic across buckets, so use
+ * {@link #copy()} for a consistent view.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS + 1) * HALF;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Create an empty histogram. */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+
+    private LatencyHistogram(final LatencyHistogram other) {
+        counts = new AtomicLongArray(BUCKETS);
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = other.counts.get(i);
+            counts.set(i, c);
+            n += c;
+        }
+        total.set(n);
+        sum.set(other.sum.get());
+        max.set(other.max.get());
+    }
+
+    static int indexOf(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((micros >>> shift) - HALF);
+    }
+
+    // the largest value that falls in the bucket
+    static long highestIn(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF + 1;
+        final long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        final long high = ((sub + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+
+    /** Record a latency.
+     * @param duration the latency.
+     * @param unit the unit of the latency.
+     */
+    public void record(final long duration, final TimeUnit unit) {
+        final long micros = Math.max(unit.toMicros(duration), 0);
+        counts.incrementAndGet(indexOf(micros));
+        total.incrementAndGet();
+        sum.addAndGet(micros);
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    /** Get a copy of the histogram, for reading.
+     * @return the copy.
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /** Get the number of recorded latencies.
+     * @return the count.
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /** Get the largest recorded latency.
+     * @return the maximum in microseconds, or 0 if none were recorded.
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /** Get the mean recorded latency.
+     * @return the mean in microseconds, or 0 if none were recorded.
+     */
+    public double getMeanMicros() {
+        final long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Get a percentile of the recorded latencies.
+     * @param percentile the percentile, from 0 to 100.
+     * @return the latency in microseconds at or below which the percentile
+     * of latencies fall, or 0 if none were recorded.
+     */
+    public long getPercentileMicros(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be from 0 to 100");
+        }
+        final long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
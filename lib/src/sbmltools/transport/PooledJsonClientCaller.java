@@ -0,0 +1,427 @@
+package sbmltools.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JsonClientCaller;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.RpcContext;
+import us.kbase.common.service.UnauthorizedException;
+
+/**
+ * A JSON-RPC caller that takes a connection from a {@link ClientConnectionPool}
+ * for the duration of each call.
+ * <p>
+ * The caller also makes streaming responses to disk safe to use from several
+ * threads. {@link #setFileForNextRpcResponse(File)} applies to the next call
+ * made on the calling thread only. While such a call runs, other calls through
+ * this caller wait, since the underlying caller holds the response file in a
+ * single field; calls without a response file run concurrently.
+ * <p>
+ * Requests and responses are gzip compressed through a {@link GzipTransport}.
+ * Idempotent calls that fail transiently are retried as set by a
+ * {@link RetryPolicy}, and all calls go through a {@link CircuitBreaker} so
+ * they fail at once while the service host is failing. The connection is
+ * returned to the pool while waiting to retry. The latency and outcome of each
+ * call are recorded in the caller's {@link ClientMetrics}.
+ */
+public class PooledJsonClientCaller extends JsonClientCaller {
+
+    private final GzipTransport transport;
+    private volatile ClientConnectionPool pool = null;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.getDefault();
+    private volatile CircuitBreaker breaker = null;
+    private volatile ClientMetrics metrics = new ClientMetrics();
+    // the default of the superclass, which has no getter
+    private volatile Integer readTimeout = 30 * 60 * 1000;
+    private final ReadWriteLock responseFileLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<File> responseFile = new ThreadLocal<File>();
+
+    // calls nested on one thread, such as overloads delegating to each other, share a connection
+    private final ThreadLocal<CallState> state = new ThreadLocal<CallState>() {
+        @Override
+        protected CallState initialValue() {
+            return new CallState();
+        }
+    };
+
+    private static class CallState {
+        private int depth = 0;
+        private ClientConnectionPool pool;
+        private Lock lock;
+        private boolean streamed;
+    }
+
+    public PooledJsonClientCaller(final URL url) {
+        this(url, new GzipTransport(url.getProtocol()));
+    }
+
+    public PooledJsonClientCaller(final URL url, final AuthToken token)
+            throws UnauthorizedException, IOException {
+        this(url, new GzipTransport(url.getProtocol()), token);
+    }
+
+    public PooledJsonClientCaller(final URL url, final String user, final String password)
+            throws UnauthorizedException, IOException {
+        this(url, new GzipTransport(url.getProtocol()), user, password);
+    }
+
+    public PooledJsonClientCaller(
+            final URL url,
+            final String user,
+            final String password,
+            final URL auth)
+            throws UnauthorizedException, IOException {
+        this(url, new GzipTransport(url.getProtocol()), user, password, auth);
+    }
+
+    // the transport must be built before the URL is passed to the superclass
+
+    private PooledJsonClientCaller(final URL url, final GzipTransport transport) {
+        super(transport.wrap(url));
+        this.transport = transport;
+    }
+
+    private PooledJsonClientCaller(
+            final URL url,
+            final GzipTransport transport,
+            final AuthToken token)
+            throws UnauthorizedException, IOException {
+        super(transport.wrap(url), token);
+        this.transport = transport;
+    }
+
+    private PooledJsonClientCaller(
+            final URL url,
+            final GzipTransport transport,
+            final String user,
+            final String password)
+            throws UnauthorizedException, IOException {
+        super(transport.wrap(url), user, password);
+        this.transport = transport;
+    }
+
+    private PooledJsonClientCaller(
+            final URL url,
+            final GzipTransport transport,
+            final String user,
+            final String password,
+            final URL auth)
+            throws UnauthorizedException, IOException {
+        super(transport.wrap(url), user, password, auth);
+        this.transport = transport;
+    }
+
+    @Override
+    public void setConnectionReadTimeOut(final Integer milliseconds) {
+        super.setConnectionReadTimeOut(milliseconds);
+        readTimeout = milliseconds;
+    }
+
+    /** Get the read timeout set for this caller's connections.
+     * @return the timeout in milliseconds, by default 30 minutes.
+     */
+    public Integer getConnectionReadTimeOut() {
+        return readTimeout;
+    }
+
+    /** Get the pool from which this caller takes connections.
+     * @return the pool, by default {@link ClientConnectionPool#getDefault()}.
+     */
+    public ClientConnectionPool getConnectionPool() {
+        final ClientConnectionPool p = pool;
+        return p == null ? ClientConnectionPool.getDefault() : p;
+    }
+
+    /** Set the pool from which this caller takes connections.
+     * @param pool the pool, or null to use the default pool.
+     */
+    public void setConnectionPool(final ClientConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /** Get the policy for retrying failed calls.
+     * @return the retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /** Set the policy for retrying failed calls.
+     * @param policy the retry policy, or null to never retry.
+     */
+    public void setRetryPolicy(final RetryPolicy policy) {
+        this.retryPolicy = policy == null ? RetryPolicy.none() : policy;
+    }
+
+    /** Get the circuit breaker that stops calls while the service is failing.
+     * @return the breaker, by default the one shared by all clients of the
+     * service host.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        final CircuitBreaker b = breaker;
+        return b == null ? CircuitBreaker.getDefault(getURL()) : b;
+    }
+
+    /** Set the circuit breaker that stops calls while the service is failing.
+     * @param breaker the breaker, or null to use the host's shared breaker.
+     */
+    public void setCircuitBreaker(final CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /** Get the metrics in which this caller records its calls.
+     * @return the metrics.
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Set the metrics in which this caller records its calls, for instance
+     * to share them between clients.
+     * @param metrics the metrics.
+     */
+    public void setMetrics(final ClientMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    /** Check whether requests and responses are gzip compressed.
+     * @return true if compression is enabled.
+     */
+    public boolean isCompressionEnabled() {
+        return transport.isEnabled();
+    }
+
+    /** Set whether requests and responses are gzip compressed. Requests are
+     * only compressed once the service has said it accepts them. Default true.
+     * @param enabled true to enable compression.
+     */
+    public void setCompressionEnabled(final boolean enabled) {
+        transport.setEnabled(enabled);
+    }
+
+    /** Set the size below which requests are not compressed.
+     * @param minSize the minimum size in bytes, by default
+     * {@link GzipTransport#DEFAULT_MIN_SIZE}.
+     */
+    public void setCompressionMinSize(final int minSize) {
+        transport.setMinSize(minSize);
+    }
+
+    /** Write the response of the next call made on this thread to a file, and
+     * parse the result from the file rather than from an in memory copy of the
+     * response. Parts of the result may be read from the file lazily, so the
+     * file must be kept until the result is no longer used.
+     * @param file the file, or null to buffer the next response as usual.
+     */
+    @Override
+    public void setFileForNextRpcResponse(final File file) {
+        if (file == null) {
+            responseFile.remove();
+        } else {
+            responseFile.set(file);
+        }
+    }
+
+    @Override
+    public <ARG, RET> RET jsonrpcCall(
+            final String method,
+            final ARG arg,
+            final TypeReference<RET> cls,
+            final boolean ret,
+            final boolean authRequired)
+            throws IOException, JsonClientException {
+        return call(method, new Attempt<RET>() {
+            @Override
+            public RET run() throws IOException, JsonClientException {
+                return PooledJsonClientCaller.super.jsonrpcCall(
+                        method, arg, cls, ret, authRequired);
+            }
+        });
+    }
+
+    @Override
+    public <ARG, RET> RET jsonrpcCall(
+            final String method,
+            final ARG arg,
+            final TypeReference<RET> cls,
+            final boolean ret,
+            final boolean authRequired,
+            final RpcContext[] context)
+            throws IOException, JsonClientException {
+        return call(method, new Attempt<RET>() {
+            @Override
+            public RET run() throws IOException, JsonClientException {
+                return PooledJsonClientCaller.super.jsonrpcCall(
+                        method, arg, cls, ret, authRequired, context);
+            }
+        });
+    }
+
+    @Override
+    public <ARG, RET> RET jsonrpcCall(
+            final String method,
+            final ARG arg,
+            final TypeReference<RET> cls,
+            final boolean ret,
+            final boolean authRequired,
+            final RpcContext[] context,
+            final String serviceVersion)
+            throws IOException, JsonClientException {
+        return call(method, new Attempt<RET>() {
+            @Override
+            public RET run() throws IOException, JsonClientException {
+                return PooledJsonClientCaller.super.jsonrpcCall(
+                        method, arg, cls, ret, authRequired, context, serviceVersion);
+            }
+        });
+    }
+
+    /** Make a call with a single attempt, whatever the retry policy, for
+     * callers that make failed calls again on their own schedule.
+     * @param method the full method name.
+     * @param arg the method arguments.
+     * @param cls the type of the result.
+     * @param ret true if the method returns a result.
+     * @param authRequired true if the method requires authentication.
+     * @return the result.
+     * @throws IOException if an IO error occurs.
+     * @throws JsonClientException if a JSON-RPC error occurs.
+     */
+    public <ARG, RET> RET jsonrpcCallOnce(
+            final String method,
+            final ARG arg,
+            final TypeReference<RET> cls,
+            final boolean ret,
+            final boolean authRequired)
+            throws IOException, JsonClientException {
+        return call(method, new Attempt<RET>() {
+            @Override
+            public RET run() throws IOException, JsonClientException {
+                return PooledJsonClientCaller.super.jsonrpcCall(
+                        method, arg, cls, ret, authRequired);
+            }
+        }, true, RetryPolicy.none());
+    }
+
+    interface Attempt<RET> {
+        RET run() throws IOException, JsonClientException;
+    }
+
+    /* Makes a request other than a single JSON-RPC call, such as a batch, with
+     * the pool, breaker, retries and metrics of a call, but never streaming
+     * the response to a file.
+     */
+    <RET> RET callDirect(final String method, final Attempt<RET> attempt)
+            throws IOException, JsonClientException {
+        return call(method, attempt, false, getRetryPolicy());
+    }
+
+    private <RET> RET call(final String method, final Attempt<RET> attempt)
+            throws IOException, JsonClientException {
+        return call(method, attempt, true, getRetryPolicy());
+    }
+
+    private <RET> RET call(
+            final String method,
+            final Attempt<RET> attempt,
+            final boolean useResponseFile,
+            final RetryPolicy policy)
+            throws IOException, JsonClientException {
+        final CallState st = state.get();
+        if (st.depth > 0) {
+            st.depth++;
+            try {
+                return attempt.run();
+            } finally {
+                st.depth--;
+            }
+        }
+        // kept for every attempt, as a failed attempt may have written to it
+        final File file = useResponseFile ? responseFile.get() : null;
+        if (useResponseFile) {
+            responseFile.remove();
+        }
+        final CircuitBreaker breaker = getCircuitBreaker();
+        final boolean idempotent = policy.isIdempotent(method);
+        final long start = System.nanoTime();
+        int n = 1;
+        boolean ok = false;
+        try {
+            for (;; n++) {
+                final boolean trial = breaker.acquire(method);
+                boolean failed = false;
+                try {
+                    begin(file);
+                    try {
+                        final RET ret = attempt.run();
+                        ok = true;
+                        return ret;
+                    } finally {
+                        end();
+                    }
+                } catch (IOException e) {
+                    failed = policy.isTransient(e);
+                    if (!failed || !idempotent || n >= policy.getMaxAttempts()) {
+                        throw e;
+                    }
+                } finally {
+                    breaker.release(trial, failed);
+                }
+                try {
+                    Thread.sleep(policy.getDelayMs(n));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(
+                            "Interrupted while waiting to retry " + method);
+                }
+            }
+        } finally {
+            getMetrics().record(method, System.nanoTime() - start, !ok, n - 1);
+        }
+    }
+
+    private void begin(final File file) throws IOException {
+        final Lock lock = file == null ?
+                responseFileLock.readLock() : responseFileLock.writeLock();
+        lock.lock();
+        final ClientConnectionPool p = getConnectionPool();
+        try {
+            p.acquire(getURL());
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        if (file != null) {
+            super.setFileForNextRpcResponse(file);
+        }
+        final CallState st = state.get();
+        st.depth = 1;
+        st.pool = p;
+        st.lock = lock;
+        st.streamed = file != null;
+    }
+
+    private void end() {
+        final CallState st = state.get();
+        st.depth = 0;
+        if (st.streamed) {
+            // clears the file if the call failed before reading a response
+            super.setFileForNextRpcResponse(null);
+        }
+        st.pool.release(getURL());
+        st.lock.unlock();
+        st.pool = null;
+        st.lock = null;
+    }
+}
@@ -0,0 +1,171 @@
+package sbmltools.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which failed JSON-RPC calls are retried, and how long to wait
+ * before each retry.
+ * <p>
+ * Only idempotent methods are retried, since a call that failed may still
+ * have run on the server. By default these are the job status methods every
+ * SDK service has: <code>_check_job</code>, <code>status</code> and
+ * <code>_status_submit</code>. Only transient failures are retried: refused,
+ * reset or timed out connections, and HTTP 429, 502, 503 and 504 responses.
+ * The wait before retry <i>n</i> is drawn uniformly from zero to
+ * <code>min(maxDelayMs, baseDelayMs * 2^(n - 1))</code>, so clients that
+ * failed together do not retry together. Instances are immutable.
+ */
+public class RetryPolicy {
+
+    /** The default number of attempts, including the first. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    /** The default cap on the wait before the first retry. */
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    /** The default cap on the wait before any retry. */
+    public static final long DEFAULT_MAX_DELAY_MS = 30000;
+
+    private static final Set<String> DEFAULT_IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("_check_job", "status", "_status_submit")));
+
+    // the JDK's message for an error response read as a normal response
+    private static final Pattern HTTP_CODE =
+            Pattern.compile("Server returned HTTP response code: (\\d{3})");
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(
+            DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+            Collections.<String>emptySet());
+
+    private static final RetryPolicy NONE = new RetryPolicy(1, 0, 0,
+            Collections.<String>emptySet());
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Set<String> idempotentMethods;
+
+    /** Get the default policy.
+     * @return the default policy.
+     */
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /** Get a policy that never retries.
+     * @return the policy.
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    /** Create a policy.
+     * @param maxAttempts the most attempts to make at a call, including the
+     * first.
+     * @param baseDelayMs the cap on the wait before the first retry. The cap
+     * doubles with each retry.
+     * @param maxDelayMs the cap on the wait before any retry.
+     * @param idempotentMethods the names of methods, without the module
+     * prefix, to retry in addition to the job status methods.
+     */
+    public RetryPolicy(
+            final int maxAttempts,
+            final long baseDelayMs,
+            final long maxDelayMs,
+            final Set<String> idempotentMethods) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (baseDelayMs < 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException(
+                    "Delays must satisfy 0 <= baseDelayMs <= maxDelayMs");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        final Set<String> methods = new HashSet<String>(DEFAULT_IDEMPOTENT_METHODS);
+        methods.addAll(idempotentMethods);
+        this.idempotentMethods = Collections.unmodifiableSet(methods);
+    }
+
+    /** Get the most attempts made at a call, including the first.
+     * @return the maximum attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /** Get the cap on the wait before the first retry.
+     * @return the base delay in milliseconds.
+     */
+    public long getBaseDelayMs() {
+        return baseDelayMs;
+    }
+
+    /** Get the cap on the wait before any retry.
+     * @return the maximum delay in milliseconds.
+     */
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /** Check whether a method may be retried.
+     * @param method the full method name, e.g. <code>AssemblyUtil._check_job</code>.
+     * @return true if the method is idempotent.
+     */
+    public boolean isIdempotent(final String method) {
+        return idempotentMethods.contains(method.substring(method.lastIndexOf('.') + 1));
+    }
+
+    /** Check whether a call failure is likely to go away if the call is
+     * made again.
+     * @param error the failure.
+     * @return true if the failure is transient.
+     */
+    public boolean isTransient(final Throwable error) {
+        if (error instanceof ConnectException ||
+                error instanceof NoRouteToHostException ||
+                error instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (error instanceof InterruptedIOException) {
+            // the caller was interrupted
+            return false;
+        }
+        if (error instanceof SocketException) {
+            // connection reset or broken pipe
+            return true;
+        }
+        if (error instanceof IOException && error.getMessage() != null) {
+            final Matcher m = HTTP_CODE.matcher(error.getMessage());
+            if (m.find()) {
+                final int code = Integer.parseInt(m.group(1));
+                return code == 429 || code == 502 || code == 503 || code == 504;
+            }
+        }
+        return false;
+    }
+
+    /** Get a random wait before a retry.
+     * @param retry the number of the retry, starting at 1.
+     * @return the wait in milliseconds.
+     */
+    public long getDelayMs(final int retry) {
+        long cap = baseDelayMs;
+        for (int i = 1; i < retry && cap < maxDelayMs; i++) {
+            cap *= 2;
+        }
+        cap = Math.min(cap, maxDelayMs);
+        return cap == 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
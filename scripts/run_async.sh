@@ -1,7 +1,10 @@
 script_dir=$(dirname "$(readlink -f "$0")")
 export KB_DEPLOYMENT_CONFIG=$script_dir/../deploy.cfg
 WD=/kb/module/work
-if [ -f $WD/token ]; then
+# a queue directory runs every queued job in one JVM, see sbmltools.AsyncJobWorker
+if [ -d $WD/queue ]; then
+    sh $script_dir/../bin/run_SBMLTools_async_worker.sh $WD/queue $ASYNC_WORKER_IDLE_EXIT_SECONDS
+elif [ -f $WD/token ]; then
     cat $WD/token | xargs sh $script_dir/../bin/run_SBMLTools_async_job.sh $WD/input.json $WD/output.json
 else
     echo "File $WD/token doesn't exist, aborting."
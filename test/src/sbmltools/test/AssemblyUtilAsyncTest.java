@@ -0,0 +1,321 @@
+package sbmltools.test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import assemblyutil.FastaAssemblyFile;
+import assemblyutil.GetAssemblyParams;
+import sbmltools.AssemblyCache;
+import sbmltools.AssemblyDownloads;
+import sbmltools.JobControl;
+import sbmltools.PooledAssemblyUtilClient;
+import sbmltools.transport.CircuitBreaker;
+import sbmltools.transport.ClientMetrics;
+import sbmltools.transport.JobFuture;
+import sbmltools.transport.JobTracker;
+import us.kbase.common.service.JobState;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.RpcContext;
+
+/* Tests for the asynchronous AssemblyUtil job API, against a client whose
+ * job submission and status checks are faked.
+ */
+public class AssemblyUtilAsyncTest {
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class FinishedState<T> extends JobState<T> {
+
+        private final boolean finished;
+        private final T result;
+
+        private FinishedState(final boolean finished, final T result) {
+            this.finished = finished;
+            this.result = result;
+        }
+
+        @Override
+        public Long getFinished() {
+            return finished ? 1L : 0L;
+        }
+
+        @Override
+        public T getResult() {
+            return result;
+        }
+    }
+
+    /* Jobs are named after the ref they download, and finish on the check
+     * given by the last character of the ref. Refs ending in 'x' fail, and
+     * checks of refs containing 'slow' wait for the slow latch. Checks go
+     * through the client's circuit breaker.
+     */
+    private static class FakeClient extends PooledAssemblyUtilClient {
+
+        private final AtomicInteger checks = new AtomicInteger();
+        private final Map<String, AtomicInteger> jobChecks =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private final CountDownLatch slow = new CountDownLatch(1);
+
+        private FakeClient() throws Exception {
+            super(new URL("http://localhost:1"));
+            setAsyncJobCheckTimeMs(1);
+            setAsyncJobCheckMaxTimeMs(5);
+        }
+
+        @Override
+        protected String _submitJob(
+                final String method,
+                final Object params,
+                final RpcContext... jsonRpcContext) {
+            final String ref = ((GetAssemblyParams) params).getRef();
+            jobChecks.put(ref, new AtomicInteger());
+            return ref;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected <T> JobState<T> _checkJob(
+                final String jobId,
+                final TypeReference<List<JobState<T>>> retType)
+                throws IOException, JsonClientException {
+            getCircuitBreaker().release(getCircuitBreaker().acquire("_check_job"), false);
+            checks.incrementAndGet();
+            if (jobId.contains("slow")) {
+                try {
+                    slow.await();
+                } catch (InterruptedException e) {
+                    throw new JsonClientException("interrupted", e);
+                }
+            }
+            if (jobId.endsWith("x")) {
+                throw new JsonClientException("job failed: " + jobId);
+            }
+            final int count = jobChecks.get(jobId).incrementAndGet();
+            final boolean done = count >= jobId.charAt(jobId.length() - 1) - '0';
+            return (JobState<T>) new FinishedState<List<FastaAssemblyFile>>(done,
+                    Arrays.asList(new FastaAssemblyFile().withPath(jobId + ".fa")));
+        }
+    }
+
+    @Test
+    public void testAsyncJobs() throws Exception {
+        final FakeClient client = new FakeClient();
+        final CountDownLatch done = new CountDownLatch(3);
+        final JobFuture<FastaAssemblyFile> one = client.getAssemblyAsFastaAsync(
+                new GetAssemblyParams().withRef("a1"));
+        final JobFuture<FastaAssemblyFile> four = client.getAssemblyAsFastaAsync(
+                new GetAssemblyParams().withRef("b4"));
+        final JobFuture<FastaAssemblyFile> failed = client.getAssemblyAsFastaAsync(
+                new GetAssemblyParams().withRef("cx"));
+        for (final JobFuture<?> f: Arrays.asList(one, four, failed)) {
+            f.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }, SAME_THREAD);
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("a1.fa", one.get().getPath());
+        Assert.assertEquals("b4.fa", four.get().getPath());
+        Assert.assertEquals("b4", four.getJobId());
+        Assert.assertEquals(4, client.jobChecks.get("b4").get());
+        try {
+            failed.get();
+            Assert.fail("expected exception");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("job failed: cx", e.getCause().getMessage());
+        }
+        // whole jobs are recorded under the spec method
+        final ClientMetrics.Snapshot jobs =
+                client.getMetrics().snapshot().get("AssemblyUtil.get_assembly_as_fasta");
+        Assert.assertEquals(3, jobs.getCount());
+        Assert.assertEquals(1, jobs.getErrors());
+        Assert.assertTrue(jobs.getMaxMs() >= jobs.getPercentileMs(50));
+        // listeners added after completion run at once
+        final CountDownLatch late = new CountDownLatch(1);
+        one.addListener(new Runnable() {
+            @Override
+            public void run() {
+                late.countDown();
+            }
+        }, SAME_THREAD);
+        Assert.assertEquals(0, late.getCount());
+
+        // a cancelled job is no longer checked
+        final JobFuture<FastaAssemblyFile> never = client.getAssemblyAsFastaAsync(
+                new GetAssemblyParams().withRef("d9"));
+        Assert.assertTrue(never.cancel(false));
+        final int checks = client.checks.get();
+        Thread.sleep(50);
+        Assert.assertTrue(client.checks.get() <= checks + 1);
+    }
+
+    @Test
+    public void testSlowCheck() throws Exception {
+        // a check that hangs does not hold up the checks of other jobs
+        final FakeClient client = new FakeClient();
+        final JobTracker tracker = new JobTracker(200);
+        client.setJobTracker(tracker);
+        try {
+            final JobFuture<FastaAssemblyFile> slow = client.getAssemblyAsFastaAsync(
+                    new GetAssemblyParams().withRef("slow1"));
+            final JobFuture<FastaAssemblyFile> fast = client.getAssemblyAsFastaAsync(
+                    new GetAssemblyParams().withRef("fast3"));
+            Assert.assertEquals("fast3.fa", fast.get(5, TimeUnit.SECONDS).getPath());
+            Assert.assertFalse(slow.isDone());
+            Assert.assertEquals(1, tracker.getPendingJobs());
+            client.slow.countDown();
+            Assert.assertEquals("slow1.fa", slow.get(5, TimeUnit.SECONDS).getPath());
+        } finally {
+            tracker.shutdown();
+        }
+    }
+
+    // gets an assembly on a new thread, adding the name of the file or the error to results
+    private static Thread download(
+            final AssemblyDownloads downloads,
+            final PooledAssemblyUtilClient client,
+            final String ref,
+            final JobControl control,
+            final List<String> results) {
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try (final AssemblyCache.Lease lease = downloads.get(client, ref, "1/2/3", control)) {
+                    results.add(lease.getAssemblyName());
+                } catch (Exception e) {
+                    results.add(e.getMessage());
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testCancelDownload() throws Exception {
+        /* jobs waiting on a download, whether they started it or joined it,
+         * stop once cancelled, and the download finishes into the cache
+         */
+        final FakeClient client = new FakeClient();
+        final Path dir = Files.createTempDirectory("AssemblyUtilAsyncTest");
+        final String ref = dir.resolve("slow1").toString();
+        Files.write(Paths.get(ref + ".fa"), ">a\nACGT\n".getBytes(StandardCharsets.UTF_8));
+        final AssemblyDownloads downloads = new AssemblyDownloads(
+                new AssemblyCache(dir.resolve("cache"), 1000));
+        final List<String> results = new CopyOnWriteArrayList<String>();
+        final JobControl leader = new JobControl(0);
+        final JobControl follower = new JobControl(0);
+        final Thread t1 = download(downloads, client, ref, leader, results);
+        while (downloads.getInFlight() == 0) {
+            Thread.sleep(10);
+        }
+        final Thread t2 = download(downloads, client, ref, follower, results);
+        Thread.sleep(100);
+        final long start = System.nanoTime();
+        follower.cancel("follower cancelled");
+        t2.join(5000);
+        Assert.assertEquals(Arrays.asList("follower cancelled"), results);
+        leader.cancel("leader cancelled");
+        t1.join(5000);
+        Assert.assertEquals(Arrays.asList("follower cancelled", "leader cancelled"), results);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+        Assert.assertEquals(1, downloads.getInFlight());
+
+        client.slow.countDown();
+        for (int i = 0; i < 500 && downloads.getInFlight() > 0; i++) {
+            Thread.sleep(10);
+        }
+        try (final AssemblyCache.Lease lease = downloads.getCache().get("1/2/3")) {
+            Assert.assertEquals(">a\nACGT\n", new String(
+                    Files.readAllBytes(lease.getPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testOpenBreaker() throws Exception {
+        /* checks rejected by an open breaker do not fail the job, which is
+         * checked again once the breaker lets calls through
+         */
+        final FakeClient client = new FakeClient();
+        final JobTracker tracker = new JobTracker(1000);
+        client.setJobTracker(tracker);
+        final CircuitBreaker breaker = new CircuitBreaker(1, 300);
+        client.setCircuitBreaker(breaker);
+        try {
+            breaker.release(breaker.acquire("test"), true);
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            Assert.assertTrue(breaker.getRemainingOpenMs() > 200);
+            final long start = System.nanoTime();
+            final JobFuture<FastaAssemblyFile> job = client.getAssemblyAsFastaAsync(
+                    new GetAssemblyParams().withRef("open2"));
+            Assert.assertEquals("open2.fa", job.get(5, TimeUnit.SECONDS).getPath());
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+            // the one rejected check waited out the breaker
+            Assert.assertEquals(1, breaker.getRejectedCount());
+            Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            tracker.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrackerRateCap() throws Exception {
+        final FakeClient client = new FakeClient();
+        final JobTracker tracker = new JobTracker(200);
+        client.setJobTracker(tracker);
+        try {
+            final long start = System.nanoTime();
+            final List<JobFuture<FastaAssemblyFile>> jobs =
+                    new ArrayList<JobFuture<FastaAssemblyFile>>();
+            for (int i = 0; i < 10; i++) {
+                jobs.add(client.getAssemblyAsFastaAsync(
+                        new GetAssemblyParams().withRef("job" + i + "_3")));
+            }
+            Assert.assertEquals(10, tracker.getPendingJobs());
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("job" + i + "_3.fa", jobs.get(i).get().getPath());
+            }
+            // 30 checks at most 200 per second take at least 145ms
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("checks finished in " + elapsed + "ms", elapsed >= 140);
+            Assert.assertEquals(30L, tracker.getRequestCount());
+            Assert.assertEquals(0, tracker.getPendingJobs());
+
+            // the blocking methods go through the tracker too
+            Assert.assertEquals("blocking_2.fa", client.getAssemblyAsFasta(
+                    new GetAssemblyParams().withRef("blocking_2")).getPath());
+            Assert.assertEquals(32L, tracker.getRequestCount());
+        } finally {
+            tracker.shutdown();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package sbmltools.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import sbmltools.AsyncJobWorker;
+
+public class AsyncJobWorkerTest {
+
+    private static void submit(
+            final Path queue,
+            final String name,
+            final String input,
+            final String token)
+            throws Exception {
+        final Path tmp = Files.createDirectories(queue.resolve("tmp").resolve(name));
+        Files.write(tmp.resolve("input.json"), input.getBytes(StandardCharsets.UTF_8));
+        Files.write(tmp.resolve("token"), token.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, queue.resolve("incoming").resolve(name));
+    }
+
+    private static String read(final Path p) throws Exception {
+        return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWorker() throws Exception {
+        final Path queue = Files.createTempDirectory("async_queue");
+        final List<String> ran = new ArrayList<String>();
+        final AsyncJobWorker worker = new AsyncJobWorker(queue, new AsyncJobWorker.JobRunner() {
+            @Override
+            public void run(final File input, final File output, final String token)
+                    throws Exception {
+                final String in = read(input.toPath());
+                ran.add(in);
+                if (in.equals("boom")) {
+                    throw new IllegalStateException("boom");
+                }
+                Files.write(output.toPath(), (in + ":" + token).getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void cancel(final String reason) {}
+
+            @Override
+            public Object getProgress() {
+                return null;
+            }
+        });
+        // left by a worker that died
+        Files.createDirectories(queue.resolve("running").resolve("job0"));
+        Assert.assertEquals(1, worker.failInterruptedJobs());
+        Assert.assertTrue(read(queue.resolve("done/job0/output.json")).contains("stopped"));
+
+        submit(queue, "job2", "b", "tok2");
+        submit(queue, "job1", "a", "tok1");
+        submit(queue, "job3", "boom", "tok3");
+        Assert.assertTrue(worker.runNext());
+        Assert.assertTrue(worker.runNext());
+        Assert.assertTrue(worker.runNext());
+        Assert.assertFalse(worker.runNext());
+        Assert.assertEquals(3, worker.getJobsRun());
+
+        // in order of name, with tokens removed once done
+        Assert.assertEquals("[a, b, boom]", ran.toString());
+        Assert.assertEquals("a:tok1", read(queue.resolve("done/job1/output.json")));
+        Assert.assertEquals("b:tok2", read(queue.resolve("done/job2/output.json")));
+        Assert.assertFalse(Files.exists(queue.resolve("done/job1/token")));
+        Assert.assertTrue(read(queue.resolve("done/job3/output.json")).contains("boom"));
+
+        // a job name may be reused
+        submit(queue, "job1", "c", "tok4");
+        Files.createFile(queue.resolve("stop"));
+        worker.runUntilStopped(10, 0);
+        Assert.assertEquals(3, worker.getJobsRun());
+        Files.delete(queue.resolve("stop"));
+        worker.runUntilStopped(10, 50);
+        Assert.assertEquals(4, worker.getJobsRun());
+        Assert.assertEquals("c:tok4", read(queue.resolve("done/job1.1/output.json")));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final Path queue = Files.createTempDirectory("async_queue");
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final AsyncJobWorker worker = new AsyncJobWorker(queue, new AsyncJobWorker.JobRunner() {
+            @Override
+            public void run(final File input, final File output, final String token)
+                    throws Exception {
+                final Path progress = output.toPath().resolveSibling("progress.json");
+                for (int i = 0; i < 500 && !Files.exists(progress); i++) {
+                    Thread.sleep(10);
+                }
+                Files.write(input.toPath().resolveSibling("started"), new byte[0]);
+                Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+                Files.write(output.toPath(), "stopped".getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void cancel(final String reason) {
+                Assert.assertEquals("The job was cancelled", reason);
+                cancelled.countDown();
+            }
+
+            @Override
+            public Object getProgress() {
+                return Collections.singletonMap("stage", "waiting");
+            }
+        });
+        worker.setCancelPollMs(10);
+
+        // cancelled before it starts
+        submit(queue, "job1", "a", "tok1");
+        Files.createFile(queue.resolve("incoming/job1/cancel"));
+        Assert.assertTrue(worker.runNext());
+        Assert.assertTrue(read(queue.resolve("done/job1/output.json"))
+                .contains("cancelled before it started"));
+        Assert.assertFalse(Files.exists(queue.resolve("done/job1/started")));
+
+        // cancelled while running
+        submit(queue, "job2", "b", "tok2");
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    worker.runNext();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        final Path started = queue.resolve("running/job2/started");
+        for (int i = 0; i < 500 && !Files.exists(started); i++) {
+            Thread.sleep(10);
+        }
+        Files.createFile(queue.resolve("running/job2/cancel"));
+        t.join(10000);
+        Assert.assertEquals("stopped", read(queue.resolve("done/job2/output.json")));
+        Assert.assertEquals("{\"stage\":\"waiting\"}",
+                read(queue.resolve("done/job2/progress.json")));
+        Assert.assertEquals(2, worker.getJobsRun());
+
+        // stopped from another thread
+        submit(queue, "job3", "c", "tok3");
+        worker.stop();
+        worker.runUntilStopped(10, 0);
+        Assert.assertTrue(Files.exists(queue.resolve("incoming/job3")));
+    }
+
+    @Test
+    public void testTwoWorkers() throws Exception {
+        final Path queue = Files.createTempDirectory("async_queue");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncJobWorker.JobRunner runner = new AsyncJobWorker.JobRunner() {
+            @Override
+            public void run(final File input, final File output, final String token)
+                    throws Exception {
+                final String in = read(input.toPath());
+                if (in.equals("slow")) {
+                    started.countDown();
+                    Assert.assertTrue(release.await(10, TimeUnit.SECONDS));
+                }
+                Files.write(output.toPath(), in.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void cancel(final String reason) {}
+
+            @Override
+            public Object getProgress() {
+                return null;
+            }
+        };
+        final AsyncJobWorker first = new AsyncJobWorker(queue, runner);
+        submit(queue, "job1", "slow", "tok1");
+        submit(queue, "job2", "fast", "tok2");
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    first.runNext();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        t.start();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // a worker starting while the first runs a job fails only the orphan
+        Files.createDirectories(queue.resolve("running").resolve("job0"));
+        final AsyncJobWorker second = new AsyncJobWorker(queue, runner);
+        Assert.assertEquals(1, second.failInterruptedJobs());
+        Assert.assertTrue(read(queue.resolve("done/job0/output.json")).contains("stopped"));
+        Assert.assertTrue(Files.isDirectory(queue.resolve("running/job1")));
+        Assert.assertFalse(Files.exists(queue.resolve("done/job1")));
+
+        // and runs the next job alongside it
+        Assert.assertTrue(second.runNext());
+        Assert.assertEquals("fast", read(queue.resolve("done/job2/output.json")));
+
+        release.countDown();
+        t.join(10000);
+        Assert.assertNull(error.get());
+        Assert.assertEquals("slow", read(queue.resolve("done/job1/output.json")));
+        Assert.assertFalse(Files.exists(queue.resolve("done/job1/worker.lock")));
+        Assert.assertEquals(1, first.getJobsRun());
+        Assert.assertEquals(1, second.getJobsRun());
+        Assert.assertFalse(second.runNext());
+    }
+}
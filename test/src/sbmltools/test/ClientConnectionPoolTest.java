@@ -0,0 +1,442 @@
+package sbmltools.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import sbmltools.PooledAssemblyUtilClient;
+import sbmltools.PooledKBaseReportClient;
+import sbmltools.SBMLToolsClient;
+import sbmltools.transport.CircuitBreaker;
+import sbmltools.transport.CircuitBreaker.CircuitOpenException;
+import sbmltools.transport.ClientConnectionPool;
+import sbmltools.transport.ClientMetrics;
+import sbmltools.transport.GzipTransport;
+import sbmltools.transport.JsonRpcBatch;
+import sbmltools.transport.LatencyHistogram;
+import sbmltools.transport.RetryPolicy;
+import us.kbase.common.service.ServerException;
+
+public class ClientConnectionPoolTest {
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        final ClientConnectionPool pool = new ClientConnectionPool(2);
+        final URL a = new URL("http://localhost:5000/");
+        final URL sameHost = new URL("http://LOCALHOST:5000/other");
+        final URL otherPort = new URL("http://localhost:5001/");
+        pool.acquire(a);
+        pool.acquire(sameHost);
+        Assert.assertEquals(2, pool.getActiveCalls(a));
+        // another port is another host
+        pool.acquire(otherPort);
+        Assert.assertEquals(1, pool.getActiveCalls(otherPort));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.acquire(a);
+                    acquired.countDown();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        waiter.start();
+        Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        pool.release(sameHost);
+        Assert.assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, pool.getActiveCalls(a));
+        waiter.join();
+    }
+
+    @Test
+    public void testSharedDefault() throws Exception {
+        final URL url = new URL("http://localhost:5000/");
+        final PooledAssemblyUtilClient au = new PooledAssemblyUtilClient(url);
+        final PooledKBaseReportClient kbr = new PooledKBaseReportClient(url);
+        Assert.assertSame(ClientConnectionPool.getDefault(), au.getConnectionPool());
+        Assert.assertSame(au.getConnectionPool(), kbr.getConnectionPool());
+        // the default pool is sized to the keep-alive cache the JDK really has
+        Assert.assertEquals(ClientConnectionPool.getKeepAliveCacheSize(),
+                au.getConnectionPool().getMaxPerHost());
+        final String prop = System.getProperty("http.maxConnections");
+        Assert.assertEquals(prop == null ? 5 : Integer.parseInt(prop),
+                ClientConnectionPool.getKeepAliveCacheSize());
+        final ClientConnectionPool pool = new ClientConnectionPool(4);
+        au.setConnectionPool(pool);
+        Assert.assertSame(pool, au.getConnectionPool());
+        au.setConnectionPool(null);
+        Assert.assertSame(ClientConnectionPool.getDefault(), au.getConnectionPool());
+    }
+
+    @Test
+    public void testGzipTransport() throws Exception {
+        // echoes the request body, compressed if the client accepts it
+        final List<String> requestEncodings = new CopyOnWriteArrayList<String>();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange ex) throws IOException {
+                final String enc = ex.getRequestHeaders().getFirst("Content-Encoding");
+                requestEncodings.add(String.valueOf(enc));
+                final byte[] body = readAll("gzip".equals(enc) ?
+                        new GZIPInputStream(ex.getRequestBody()) : ex.getRequestBody());
+                ex.getResponseHeaders().set("Accept-Encoding", "gzip");
+                final String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+                if (accept != null && accept.contains("gzip")) {
+                    ex.getResponseHeaders().set("Content-Encoding", "gzip");
+                    ex.sendResponseHeaders(200, 0);
+                    final OutputStream out = new GZIPOutputStream(ex.getResponseBody());
+                    out.write(body);
+                    out.close();
+                } else {
+                    ex.sendResponseHeaders(200, body.length);
+                    ex.getResponseBody().write(body);
+                    ex.close();
+                }
+            }
+        });
+        server.start();
+        try {
+            final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+            final GzipTransport transport = new GzipTransport("http");
+            transport.setMinSize(100);
+            final byte[] big = new byte[2000];
+            Arrays.fill(big, (byte) 'a');
+            final byte[] small = new byte[10];
+            Arrays.fill(small, (byte) 'b');
+            // the server has not yet said it accepts compressed requests
+            Assert.assertTrue(Arrays.equals(big, post(transport.wrap(url), big)));
+            Assert.assertTrue(Arrays.equals(big, post(transport.wrap(url), big)));
+            Assert.assertTrue(Arrays.equals(small, post(transport.wrap(url), small)));
+            transport.setEnabled(false);
+            Assert.assertTrue(Arrays.equals(big, post(transport.wrap(url), big)));
+            Assert.assertEquals(Arrays.asList("null", "gzip", "null", "null"),
+                    requestEncodings);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRetryPolicy() throws Exception {
+        final RetryPolicy p = new RetryPolicy(4, 100, 300, Collections.singleton("get_version"));
+        Assert.assertTrue(p.isIdempotent("AssemblyUtil._check_job"));
+        Assert.assertTrue(p.isIdempotent("KBaseReport.status"));
+        Assert.assertTrue(p.isIdempotent("SBMLTools.get_version"));
+        Assert.assertFalse(p.isIdempotent("AssemblyUtil._save_assembly_from_fasta_submit"));
+        Assert.assertTrue(p.isTransient(new ConnectException("Connection refused")));
+        Assert.assertTrue(p.isTransient(new IOException(
+                "Server returned HTTP response code: 503 for URL: http://localhost:5000")));
+        Assert.assertFalse(p.isTransient(new IOException(
+                "Server returned HTTP response code: 401 for URL: http://localhost:5000")));
+        Assert.assertFalse(p.isTransient(new InterruptedIOException()));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(p.getDelayMs(1) <= 100);
+            Assert.assertTrue(p.getDelayMs(2) <= 200);
+            Assert.assertTrue(p.getDelayMs(10) <= 300);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        final CircuitBreaker b = new CircuitBreaker(3, 200);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertFalse(b.acquire("m"));
+            b.release(false, true);
+        }
+        // a success resets the count
+        b.release(b.acquire("m"), false);
+        for (int i = 0; i < 3; i++) {
+            b.release(b.acquire("m"), true);
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, b.getState());
+        try {
+            b.acquire("m");
+            Assert.fail("expected the call to be rejected");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        Assert.assertEquals(1, b.getRejectedCount());
+        Thread.sleep(250);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, b.getState());
+        Assert.assertTrue(b.acquire("m"));
+        // one trial at a time
+        try {
+            b.acquire("m");
+            Assert.fail("expected the call to be rejected");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        b.release(true, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, b.getState());
+        Thread.sleep(250);
+        b.release(b.acquire("m"), false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, b.getState());
+        Assert.assertFalse(b.acquire("m"));
+    }
+
+    @Test
+    public void testLatencyHistogram() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(0, h.getPercentileMicros(99));
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i, TimeUnit.MILLISECONDS);
+        }
+        h.record(1, TimeUnit.HOURS);
+        Assert.assertEquals(1001, h.getCount());
+        // within the histogram's precision
+        Assert.assertEquals(500000, h.getPercentileMicros(50), 500000 / 64);
+        Assert.assertEquals(990000, h.getPercentileMicros(99), 990000 / 64);
+        Assert.assertEquals(TimeUnit.HOURS.toMicros(1), h.getPercentileMicros(100));
+        Assert.assertEquals(TimeUnit.HOURS.toMicros(1), h.getMaxMicros());
+        final long min = h.copy().getPercentileMicros(0);
+        Assert.assertTrue("min " + min, min >= 1000 && min <= 1000 + 1000 / 64);
+
+        final ClientMetrics m = new ClientMetrics();
+        m.record("AssemblyUtil._check_job", TimeUnit.MILLISECONDS.toNanos(20), false, 0);
+        m.record("AssemblyUtil._check_job", TimeUnit.MILLISECONDS.toNanos(40), true, 2);
+        m.record("KBaseReport.create", TimeUnit.SECONDS.toNanos(3), false, 0);
+        final ClientMetrics.Snapshot s = m.snapshot().get("AssemblyUtil._check_job");
+        Assert.assertEquals(2, s.getCount());
+        Assert.assertEquals(1, s.getErrors());
+        Assert.assertEquals(2, s.getRetries());
+        Assert.assertEquals(30.0, s.getMeanMs(), 0.01);
+        Assert.assertEquals(Arrays.asList("AssemblyUtil._check_job", "KBaseReport.create"),
+                new ArrayList<String>(m.snapshot().keySet()));
+        m.reset();
+        Assert.assertTrue(m.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testJsonRpcBatch() throws Exception {
+        // answers each call with its method name, or an error for do_nothing
+        final ObjectMapper mapper = new ObjectMapper();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange ex) throws IOException {
+                final JsonNode calls = mapper.readTree(ex.getRequestBody());
+                final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+                for (final JsonNode call: calls) {
+                    final Map<String, Object> r = new LinkedHashMap<String, Object>();
+                    r.put("version", "1.1");
+                    r.put("id", call.get("id").asText());
+                    final String method = call.get("method").asText();
+                    if (method.equals("SBMLTools.do_nothing")) {
+                        final Map<String, Object> err = new LinkedHashMap<String, Object>();
+                        err.put("name", "JSONRPCError");
+                        err.put("code", -32601);
+                        err.put("message", "no");
+                        r.put("error", err);
+                    } else {
+                        final Map<String, Object> status = new LinkedHashMap<String, Object>();
+                        status.put("method", method);
+                        r.put("result", Arrays.asList(status));
+                    }
+                    results.add(r);
+                }
+                final byte[] body = mapper.writeValueAsBytes(results);
+                ex.getResponseHeaders().set("Content-Type", "application/json");
+                ex.sendResponseHeaders(200, body.length);
+                ex.getResponseBody().write(body);
+                ex.close();
+            }
+        });
+        server.start();
+        try {
+            final SBMLToolsClient client = new SBMLToolsClient(
+                    new URL("http://localhost:" + server.getAddress().getPort() + "/"));
+            final SBMLToolsClient.Batch batch = client.newBatch();
+            final List<JsonRpcBatch.Call<Map<String, Object>>> statuses =
+                    new ArrayList<JsonRpcBatch.Call<Map<String, Object>>>();
+            for (int i = 0; i < 3; i++) {
+                statuses.add(batch.status());
+            }
+            final JsonRpcBatch.Call<Object> failed = batch.doNothing();
+            Assert.assertEquals(4, batch.size());
+            Assert.assertFalse(failed.isDone());
+            batch.execute();
+            for (final JsonRpcBatch.Call<Map<String, Object>> c: statuses) {
+                Assert.assertEquals("SBMLTools.status", c.get().get("method"));
+            }
+            try {
+                failed.get();
+                Assert.fail("expected exception");
+            } catch (ServerException e) {
+                Assert.assertEquals("no", e.getMessage());
+            }
+            Assert.assertEquals(1, client.getMetrics().snapshot().get("batch").getCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testResponseFilePerThread() throws Exception {
+        /* numbers each call, holds the first call until released, and fails
+         * do_nothing
+         */
+        final ObjectMapper mapper = new ObjectMapper();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch firstReceived = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange ex) throws IOException {
+                final JsonNode call = mapper.readTree(ex.getRequestBody());
+                final int n = calls.incrementAndGet();
+                if (n == 1) {
+                    firstReceived.countDown();
+                    try {
+                        releaseFirst.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                final Map<String, Object> r = new LinkedHashMap<String, Object>();
+                r.put("version", "1.1");
+                r.put("id", call.get("id").asText());
+                final int code;
+                if (call.get("method").asText().equals("SBMLTools.do_nothing")) {
+                    final Map<String, Object> err = new LinkedHashMap<String, Object>();
+                    err.put("name", "JSONRPCError");
+                    err.put("code", -32000);
+                    err.put("message", "no");
+                    r.put("error", err);
+                    code = 500;
+                } else {
+                    final Map<String, Object> status = new LinkedHashMap<String, Object>();
+                    status.put("call", n);
+                    r.put("result", Arrays.asList(status));
+                    code = 200;
+                }
+                final byte[] body = mapper.writeValueAsBytes(r);
+                ex.getResponseHeaders().set("Content-Type", "application/json");
+                ex.sendResponseHeaders(code, body.length);
+                ex.getResponseBody().write(body);
+                ex.close();
+            }
+        });
+        server.start();
+        final File file = File.createTempFile("ClientConnectionPoolTest", ".json");
+        Files.delete(file.toPath());
+        try {
+            final SBMLToolsClient client = new SBMLToolsClient(
+                    new URL("http://localhost:" + server.getAddress().getPort() + "/"));
+            // a file set on one thread is not used by a concurrent call on another
+            final List<Object> results = new CopyOnWriteArrayList<Object>();
+            final Thread streamed = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.setFileForNextRpcResponse(file);
+                        results.add(client.status().get("call"));
+                    } catch (Exception e) {
+                        results.add(e);
+                    }
+                }
+            });
+            streamed.start();
+            Assert.assertTrue(firstReceived.await(10, TimeUnit.SECONDS));
+            final Thread buffered = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(client.status().get("call"));
+                    } catch (Exception e) {
+                        results.add(e);
+                    }
+                }
+            });
+            buffered.start();
+            // the buffered call waits for the streamed call
+            Thread.sleep(100);
+            Assert.assertTrue(results.isEmpty());
+            releaseFirst.countDown();
+            streamed.join(10000);
+            buffered.join(10000);
+            Assert.assertEquals(Arrays.<Object>asList(1, 2), results);
+            Assert.assertEquals(1, mapper.readTree(file).get("result").get(0).get("call").asInt());
+            Files.delete(file.toPath());
+
+            // the file applies to the next call only, even if that call fails
+            client.setFileForNextRpcResponse(file);
+            try {
+                client.doNothing();
+                Assert.fail("expected exception");
+            } catch (ServerException e) {
+                Assert.assertEquals("no", e.getMessage());
+            }
+            Files.deleteIfExists(file.toPath());
+            Assert.assertEquals(4, client.status().get("call"));
+            Assert.assertFalse(file.exists());
+        } finally {
+            server.stop(0);
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static byte[] post(final URL url, final byte[] body) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setFixedLengthStreamingMode(body.length);
+        final OutputStream out = conn.getOutputStream();
+        out.write(body);
+        out.close();
+        Assert.assertEquals(200, conn.getResponseCode());
+        final InputStream in = conn.getInputStream();
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
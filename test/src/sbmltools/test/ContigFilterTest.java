@@ -0,0 +1,752 @@
+package sbmltools.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import sbmltools.AssemblyCache;
+import sbmltools.AssemblySharder;
+import sbmltools.CompressedInput;
+import sbmltools.ContigFilter;
+import sbmltools.ContigSorter;
+import sbmltools.ContigStats;
+import sbmltools.FastaIndex;
+import sbmltools.FastaReader;
+import sbmltools.IndexedFastaReader;
+import sbmltools.JobControl;
+import sbmltools.JobProgress;
+import sbmltools.KmerEntropy;
+import sbmltools.PackedSequenceStore;
+import sbmltools.SequenceHash;
+import sbmltools.SequenceHashSet;
+import sbmltools.SingleFlight;
+
+/* Tests for the local contig processing code. These do not need a running
+ * callback server.
+ */
+public class ContigFilterTest {
+
+    private static Path writeFasta(final String contents) throws Exception {
+        final Path p = Files.createTempFile("ContigFilterTest", ".fasta");
+        p.toFile().deleteOnExit();
+        Files.write(p, contents.getBytes(StandardCharsets.UTF_8));
+        return p;
+    }
+
+    private static Path tempFile() throws Exception {
+        final Path p = Files.createTempFile("ContigFilterTest", ".out.fasta");
+        p.toFile().deleteOnExit();
+        FastaIndex.indexPath(p).toFile().deleteOnExit();
+        return p;
+    }
+
+    @Test
+    public void testFilterAndStats() throws Exception {
+        final Path in = writeFasta(">seq1 something something asdf\r\n" +
+                                   "agcttt\r\n" +
+                                   "tcat\r\n" +
+                                   ">seq2\n" +
+                                   "agctt\n" +
+                                   "\n" +
+                                   ">seq3\n" +
+                                   "agcttttcatgg");
+        final Path out = tempFile();
+        final ContigFilter filter = new ContigFilter(10);
+        filter.filter(in, out);
+
+        Assert.assertEquals(3L, filter.getInitialContigs());
+        Assert.assertEquals(1L, filter.getRemovedContigs());
+        Assert.assertEquals(2L, filter.getRemainingContigs());
+        Assert.assertEquals(">seq1 something something asdf\nagcttttcat\n" +
+                            ">seq3\nagcttttcatgg\n",
+                new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+
+        final ContigStats stats = filter.getInputStats();
+        Assert.assertEquals(27L, stats.getTotalLength());
+        Assert.assertEquals(10L, stats.getN50());
+        Assert.assertEquals(2L, stats.getL50());
+        Assert.assertEquals(10.0 / 27, stats.getGCContent(), 1e-9);
+        Assert.assertEquals(Arrays.asList(0L, 0L, 1L, 2L), stats.getLengthHistogram());
+        Assert.assertEquals(12L, filter.getOutputStats().getN50());
+        Assert.assertEquals(1L, filter.getOutputStats().getL50());
+    }
+
+    @Test
+    public void testStatsSketchAccuracy() throws Exception {
+        final ContigStats stats = new ContigStats();
+        // lengths 1000, 2000, ... 100000; total 5050000
+        for (long i = 1; i <= 100; i++) {
+            stats.add(i * 1000, 0, 0);
+        }
+        Assert.assertEquals(5050000L, stats.getTotalLength());
+        // exact N50 is 71000 with an L50 of 30
+        Assert.assertEquals(71000, stats.getN50(), 71000 * 0.01);
+        Assert.assertEquals(30, stats.getL50(), 1);
+        Assert.assertEquals(17, stats.getLengthHistogram().size());
+        Assert.assertEquals(0.0, stats.getGCContent(), 0);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        final StringBuilder fasta = new StringBuilder(">long contig\n");
+        final StringBuilder longSeq = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            longSeq.append("ACGT".charAt(i % 4));
+        }
+        // wrap the input at a different width than the output
+        fasta.append(longSeq.substring(0, 100)).append("\n")
+             .append(longSeq.substring(100)).append("\n");
+        fasta.append(">short\nAC\n>mid\nGGGCCCAAATTT\n");
+        final Path out = tempFile();
+        new ContigFilter(10).filter(writeFasta(fasta.toString()), out);
+
+        final String expected = ">long contig\n" +
+                longSeq.substring(0, 60) + "\n" +
+                longSeq.substring(60, 120) + "\n" +
+                longSeq.substring(120) + "\n" +
+                ">mid\nGGGCCCAAATTT\n";
+        Assert.assertEquals(expected,
+                new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+        Assert.assertEquals("long\t150\t13\t60\t61\nmid\t12\t171\t60\t61\n",
+                new String(Files.readAllBytes(FastaIndex.indexPath(out)),
+                        StandardCharsets.UTF_8));
+
+        try (final IndexedFastaReader r = new IndexedFastaReader(out)) {
+            Assert.assertEquals(2, r.getIndex().getEntries().size());
+            Assert.assertEquals("GGGCCCAAATTT",
+                    new String(r.getSequence("mid"), StandardCharsets.US_ASCII));
+            Assert.assertEquals(longSeq.toString(),
+                    new String(r.getSequence("long"), StandardCharsets.US_ASCII));
+            Assert.assertEquals(longSeq.substring(55, 125),
+                    new String(r.getSequence("long", 55, 125), StandardCharsets.US_ASCII));
+            Assert.assertEquals(0, r.getSequence("long", 7, 7).length);
+        }
+    }
+
+    /* Writes BGZF with a tiny block size so the data spans many blocks, ending
+     * with the standard empty EOF block.
+     */
+    private static Path writeBgzf(final byte[] data, final int blockSize) throws Exception {
+        final Path p = Files.createTempFile("ContigFilterTest", ".fasta.gz");
+        p.toFile().deleteOnExit();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off <= data.length; off += blockSize) {
+            final int len = Math.min(blockSize, data.length - off);
+            final Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            d.setInput(data, off, len);
+            d.finish();
+            final byte[] cdata = new byte[len + 1024];
+            final int clen = d.deflate(cdata);
+            d.end();
+            final int bsize = 18 + clen + 8 - 1;
+            out.write(new byte[] {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0,
+                    'B', 'C', 2, 0, (byte) bsize, (byte) (bsize >> 8)});
+            out.write(cdata, 0, clen);
+            final CRC32 crc = new CRC32();
+            crc.update(data, off, len);
+            final ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt(len);
+            out.write(trailer.array());
+            if (len == 0) {
+                break;
+            }
+        }
+        Files.write(p, out.toByteArray());
+        return p;
+    }
+
+    @Test
+    public void testCompressedInput() throws Exception {
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            fasta.append(">contig").append(i).append("\n");
+            for (int j = 0; j <= i; j++) {
+                fasta.append("ACGTTGCA");
+            }
+            fasta.append("\n");
+        }
+        final byte[] data = fasta.toString().getBytes(StandardCharsets.US_ASCII);
+
+        final ContigFilter plain = new ContigFilter(800);
+        final Path plainOut = tempFile();
+        plain.filter(writeFasta(fasta.toString()), plainOut);
+        Assert.assertEquals(101L, plain.getRemainingContigs());
+
+        final ContigFilter bgzf = new ContigFilter(800);
+        final Path bgzfOut = tempFile();
+        final Path bgzfIn = writeBgzf(data, 1000);
+        bgzf.filter(bgzfIn, bgzfOut);
+        Assert.assertEquals(200L, bgzf.getInitialContigs());
+        Assert.assertEquals(data.length, CompressedInput.uncompressedSize(bgzfIn));
+        Assert.assertEquals(data.length,
+                CompressedInput.uncompressedSize(writeFasta(fasta.toString())));
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(plainOut),
+                Files.readAllBytes(bgzfOut)));
+
+        final Path gz = Files.createTempFile("ContigFilterTest", ".fasta.gz");
+        gz.toFile().deleteOnExit();
+        try (final GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(data);
+        }
+        final ContigFilter gzip = new ContigFilter(800);
+        final Path gzipOut = tempFile();
+        gzip.filter(gz, gzipOut);
+        Assert.assertEquals(data.length, CompressedInput.uncompressedSize(gz));
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(plainOut),
+                Files.readAllBytes(gzipOut)));
+    }
+
+    @Test
+    public void testDedup() throws Exception {
+        final Path in = writeFasta(">a\nACGTTGCAAGG\n" +
+                                   ">b copy\nACGTTGCAAGG\n" +
+                                   ">c soft masked\nacgttgcaAGG\n" +
+                                   ">d reverse complement\nCCTTGCAACGT\n" +
+                                   ">e different\nACGTTGCAAGC\n" +
+                                   ">f short copy\nACG\n" +
+                                   ">g\nACG\n");
+        final Path out = tempFile();
+        final ContigFilter filter = new ContigFilter(4);
+        filter.setDeduplicate(true);
+        filter.filter(in, out);
+
+        Assert.assertEquals(7L, filter.getInitialContigs());
+        Assert.assertEquals(3L, filter.getDuplicateContigs());
+        Assert.assertEquals(2L, filter.getRemainingContigs());
+        Assert.assertEquals(">a\nACGTTGCAAGG\n>e different\nACGTTGCAAGC\n",
+                new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCanonicalHash() throws Exception {
+        // longer than one 16 base block so both the block and tail code run
+        final byte[] fwd = "ACGTNACGTTTGCAGGCATRYAC".getBytes(StandardCharsets.US_ASCII);
+        final byte[] rc = "GTRYATGCCTGCAAACGTNACGT".getBytes(StandardCharsets.US_ASCII);
+        final long[] h1 = new long[2];
+        final long[] h2 = new long[2];
+        SequenceHash.hash(fwd, fwd.length, true, h1);
+        SequenceHash.hash(rc, rc.length, false, h2);
+        Assert.assertEquals(h1[0], h2[0]);
+        Assert.assertEquals(h1[1], h2[1]);
+        SequenceHash.canonical(fwd, fwd.length, h1);
+        SequenceHash.canonical(rc, rc.length, h2);
+        Assert.assertEquals(h1[0], h2[0]);
+        Assert.assertEquals(h1[1], h2[1]);
+        SequenceHash.hash(fwd, fwd.length - 1, false, h2);
+        Assert.assertFalse(h1[0] == h2[0] && h1[1] == h2[1]);
+
+        final SequenceHashSet set = new SequenceHashSet();
+        for (long i = 1; i <= 5000; i++) {
+            Assert.assertTrue(set.add(i * 31, i));
+        }
+        Assert.assertTrue(set.add(0, 0));
+        Assert.assertFalse(set.add(0, 0));
+        Assert.assertFalse(set.add(5000 * 31, 5000));
+        Assert.assertEquals(5001, set.size());
+    }
+
+    @Test
+    public void testPackedStore() throws Exception {
+        final String fasta = ">a\nACGTNNNNNNacgtRYKMSWBDHVNacGT\n" +
+                             ">b\nGGGCCCAAATTT\n" +
+                             ">c empty\n\n" +
+                             ">d\nNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNACGTTGCAAGGcc\n" +
+                             ">e copy of b\nAAATTTGGGCCC\n" +
+                             ">f short\nSW\n";
+        final Path in = writeFasta(fasta);
+        final PackedSequenceStore store = PackedSequenceStore.load(in);
+        Assert.assertEquals(6, store.size());
+        Assert.assertEquals(108L, store.getTotalLength());
+        Assert.assertEquals("c empty", store.getHeader(2));
+        Assert.assertEquals(0, store.getLength(2));
+        final String[] seqs = {"ACGTNNNNNNacgtRYKMSWBDHVNacGT", "GGGCCCAAATTT", "",
+                "NNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNACGTTGCAAGGcc", "AAATTTGGGCCC", "SW"};
+        byte[] buf = null;
+        for (int i = 0; i < seqs.length; i++) {
+            buf = store.getSequence(i, buf);
+            Assert.assertEquals(seqs[i], new String(buf, 0, store.getLength(i),
+                    StandardCharsets.US_ASCII));
+            final ContigStats packed = new ContigStats();
+            store.addStats(i, packed);
+            final ContigStats bytes = new ContigStats();
+            final byte[] b = seqs[i].getBytes(StandardCharsets.US_ASCII);
+            bytes.add(b, b.length);
+            Assert.assertEquals(bytes.getGCContent(), packed.getGCContent(), 1e-12);
+            Assert.assertEquals(bytes.getTotalLength(), packed.getTotalLength());
+        }
+
+        // filtering the store gives the same output and statistics as the file
+        final Path fromFile = tempFile();
+        final ContigFilter fileFilter = new ContigFilter(5);
+        fileFilter.setDeduplicate(true);
+        fileFilter.filter(in, fromFile);
+        final Path fromStore = tempFile();
+        final ContigFilter storeFilter = new ContigFilter(5);
+        storeFilter.setDeduplicate(true);
+        storeFilter.filter(store, fromStore);
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(fromFile),
+                Files.readAllBytes(fromStore)));
+        Assert.assertEquals(1L, storeFilter.getDuplicateContigs());
+        Assert.assertEquals(fileFilter.getRemainingContigs(), storeFilter.getRemainingContigs());
+        Assert.assertEquals(fileFilter.getInputStats().getGCContent(),
+                storeFilter.getInputStats().getGCContent(), 1e-12);
+        Assert.assertEquals(fileFilter.getOutputStats().getN50(),
+                storeFilter.getOutputStats().getN50());
+    }
+
+    @Test
+    public void testSortByLength() throws Exception {
+        // 300 contigs with lengths cycling through 1..50, so many lengths tie
+        final StringBuilder fasta = new StringBuilder();
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            final int length = (i * 7) % 50 + 1;
+            final char[] seq = new char[length];
+            Arrays.fill(seq, "ACGT".charAt(i % 4));
+            fasta.append(">c").append(i).append("\n").append(seq).append("\n");
+            expected.add(">c" + i + "\n" + new String(seq) + "\n");
+        }
+        // stable sort by descending length
+        Collections.sort(expected, new Comparator<String>() {
+            @Override
+            public int compare(final String a, final String b) {
+                return Integer.compare(b.length() - b.indexOf('\n'),
+                        a.length() - a.indexOf('\n'));
+            }
+        });
+        final StringBuilder sorted = new StringBuilder();
+        for (final String record: expected) {
+            sorted.append(record);
+        }
+        final Path in = writeFasta(fasta.toString());
+        final Path tempDir = Files.createTempDirectory("ContigFilterTest");
+
+        // a tiny run size gives more runs than one merge can take
+        for (final long runSize: new long[] {60, 1000, ContigSorter.DEFAULT_RUN_SIZE}) {
+            final Path out = tempFile();
+            final ContigFilter filter = new ContigFilter(0);
+            filter.setSortByLength(tempDir, runSize);
+            filter.filter(in, out);
+            Assert.assertTrue(filter.isReordered());
+            Assert.assertEquals(sorted.toString(),
+                    new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+            final FastaIndex index = FastaIndex.read(FastaIndex.indexPath(out));
+            Assert.assertEquals(50L, index.getEntries().get(0).getLength());
+            try (final IndexedFastaReader reader = new IndexedFastaReader(out)) {
+                Assert.assertEquals("TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTT",
+                        new String(reader.getSequence("c7"), StandardCharsets.US_ASCII));
+            }
+        }
+        // run files are removed once the output is written
+        try (final DirectoryStream<Path> runs = Files.newDirectoryStream(tempDir)) {
+            Assert.assertFalse(runs.iterator().hasNext());
+        }
+
+        // sorted input is not reordered, and the packed store path sorts too
+        final Path resorted = tempFile();
+        final ContigFilter again = new ContigFilter(0);
+        again.setSortByLength(tempDir, 100);
+        again.filter(PackedSequenceStore.load(in), resorted);
+        Assert.assertTrue(again.isReordered());
+        final ContigFilter unchanged = new ContigFilter(0);
+        unchanged.setSortByLength(tempDir, 100);
+        unchanged.filter(resorted, tempFile());
+        Assert.assertFalse(unchanged.isReordered());
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testProgress() throws Exception {
+        final Path in = writeFasta(">a\nACGTACGTAC\nGG\n>b\nACG\n>c\r\nTTTTTTTT\r\n");
+        final Path tempDir = Files.createTempDirectory("ContigFilterTest");
+        final JobProgress progress = new JobProgress("SBMLTools.filter_contigs_changed");
+        final ContigFilter filter = new ContigFilter(5);
+        filter.setSortByLength(tempDir, 100);
+        filter.setJobControl(new JobControl(0, progress));
+        filter.filter(in, tempFile());
+        final Map<String, Object> p = progress.toMap();
+        Assert.assertEquals("SBMLTools.filter_contigs_changed", p.get("method"));
+        Assert.assertEquals("sorting", p.get("stage"));
+        Assert.assertEquals(3L, p.get("contigs_scanned"));
+        Assert.assertEquals(2L, p.get("contigs_kept"));
+        Assert.assertEquals(23L, p.get("bases_scanned"));
+        Assert.assertEquals(Files.size(in), p.get("bytes_parsed"));
+        Assert.assertEquals(Files.size(in), p.get("bytes_total"));
+        Assert.assertEquals(2L, p.get("contigs_sorted"));
+
+        // the packed store path counts contigs, including those too short to decode
+        final JobProgress packed = new JobProgress(null);
+        final ContigFilter again = new ContigFilter(5);
+        again.setJobControl(new JobControl(0, packed));
+        again.filter(PackedSequenceStore.load(in), tempFile());
+        Assert.assertEquals(3L, packed.getContigsScanned());
+        Assert.assertEquals(0L, packed.getBytesParsed());
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testJobControl() throws Exception {
+        final JobControl budget = new JobControl(50);
+        Assert.assertFalse(budget.isCancelled());
+        budget.check();
+        Thread.sleep(80);
+        Assert.assertTrue(budget.isCancelled());
+        Assert.assertEquals(0, budget.getRemainingMs());
+        try {
+            budget.check();
+            Assert.fail("expected exception");
+        } catch (JobControl.JobCancelledException e) {
+            Assert.assertTrue(e.getMessage().contains("time budget"));
+        }
+
+        final JobControl cancelled = new JobControl(0);
+        Assert.assertEquals(Long.MAX_VALUE, cancelled.getRemainingMs());
+        cancelled.cancel("first");
+        cancelled.cancel("second");
+        try {
+            cancelled.check();
+            Assert.fail("expected exception");
+        } catch (JobControl.JobCancelledException e) {
+            Assert.assertEquals("first", e.getMessage());
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            new JobControl(0).check();
+            Assert.fail("expected exception");
+        } catch (JobControl.JobCancelledException e) {
+            Assert.assertEquals("The job was interrupted", e.getMessage());
+        }
+        Assert.assertTrue(Thread.interrupted());
+
+        /* a sort stopped while merging removes its run files, including those of
+         * the merge pass it was in
+         */
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            fasta.append(">c").append(i).append("\nACGTACGTAC\n");
+        }
+        final Path tempDir = Files.createTempDirectory("ContigFilterTest");
+        final ContigFilter filter = new ContigFilter(0);
+        filter.setSortByLength(tempDir, 20);
+        filter.setJobControl(new JobControl(0) {
+            private int checks = 0;
+
+            @Override
+            public void check() {
+                // one check per contig filtered, then one per contig merged
+                if (++checks == 400) {
+                    cancel("stopped");
+                }
+                super.check();
+            }
+        });
+        try {
+            filter.filter(writeFasta(fasta.toString()), tempFile());
+            Assert.fail("expected exception");
+        } catch (JobControl.JobCancelledException e) {
+            Assert.assertEquals("stopped", e.getMessage());
+        }
+        try (final DirectoryStream<Path> runs = Files.newDirectoryStream(tempDir)) {
+            Assert.assertFalse(runs.iterator().hasNext());
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        // greedy packing: 10 -> 0, 9 -> 1, 8 -> 2, 7 -> 2, 6 -> 1, 5 -> 0, 1 -> 0
+        final int[] shards = AssemblySharder.assign(new long[] {5, 10, 1, 7, 9, 8, 6}, 3);
+        Assert.assertTrue(Arrays.equals(new int[] {0, 0, 0, 2, 1, 2, 1}, shards));
+
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            final char[] seq = new char[(i * 37) % 150 + 1];
+            Arrays.fill(seq, 'G');
+            fasta.append(">c").append(i).append(" contig ").append(i).append("\n")
+                    .append(seq).append("\n");
+        }
+        final Path out = tempFile();
+        new ContigFilter(0).filter(writeFasta(fasta.toString()), out);
+        final Path dir = Files.createTempDirectory("ContigFilterTest");
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Path> files = AssemblySharder.shard(out,
+                    FastaIndex.read(FastaIndex.indexPath(out)), 4, dir, pool);
+            Assert.assertEquals(4, files.size());
+            final Set<String> seen = new HashSet<String>();
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (final Path f: files) {
+                final ContigFilter shard = new ContigFilter(0);
+                final Path copy = tempFile();
+                shard.filter(f, copy);
+                // the records are copied unchanged, headers included
+                Assert.assertTrue(Arrays.equals(Files.readAllBytes(f),
+                        Files.readAllBytes(copy)));
+                min = Math.min(min, shard.getInputStats().getTotalLength());
+                max = Math.max(max, shard.getInputStats().getTotalLength());
+                try (final FastaReader reader = new FastaReader(f)) {
+                    while (reader.next()) {
+                        Assert.assertEquals(reader.getId() + " contig " +
+                                reader.getId().substring(1), reader.getHeader());
+                        Assert.assertTrue(seen.add(reader.getId()));
+                    }
+                }
+                Files.delete(f);
+            }
+            Assert.assertEquals(40, seen.size());
+            Assert.assertTrue(max - min <= 150);
+
+            // more shards than contigs leaves out the empty shards
+            final Path small = tempFile();
+            new ContigFilter(0).filter(writeFasta(">a\nACGT\n>b\nAC\n"), small);
+            final List<Path> two = AssemblySharder.shard(small,
+                    FastaIndex.read(FastaIndex.indexPath(small)), 5, dir, pool);
+            Assert.assertEquals(2, two.size());
+            Assert.assertEquals(">a\nACGT\n", new String(Files.readAllBytes(two.get(0)),
+                    StandardCharsets.UTF_8));
+            Assert.assertEquals(">b\nAC\n", new String(Files.readAllBytes(two.get(1)),
+                    StandardCharsets.UTF_8));
+            for (final Path f: two) {
+                Files.delete(f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testKmerEntropy() throws Exception {
+        final KmerEntropy entropy = new KmerEntropy(2);
+        final byte[] homopolymer = "AAAAAAAAAAAAAAAAAAAA".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(0.0, entropy.entropy(homopolymer, homopolymer.length), 1e-12);
+        // 10 AC and 9 CA, out of at most 4 bits for 2-mers
+        final byte[] repeat = "ACACACACACACACACACAC".getBytes(StandardCharsets.US_ASCII);
+        final double h = -(10.0 / 19 * Math.log(10.0 / 19) + 9.0 / 19 * Math.log(9.0 / 19))
+                / Math.log(2);
+        Assert.assertEquals(h / 4, entropy.entropy(repeat, repeat.length), 1e-12);
+        // every 2-mer once, the most possible for 16 2-mers
+        final byte[] all = "AACAGATCCGCTGGTTA".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(1.0, entropy.entropy(all, all.length), 1e-12);
+        // the counts are reset between calls, and k-mers with an N are skipped
+        Assert.assertEquals(0.0, entropy.entropy(homopolymer, homopolymer.length), 1e-12);
+        final byte[] gapped = "aaaaNcccc".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(1.0 / Math.log(6) * Math.log(2),
+                entropy.entropy(gapped, gapped.length), 1e-12);
+        Assert.assertEquals(0.0, entropy.entropy(gapped, 1), 1e-12);
+
+        final Path in = writeFasta(">repeat\nATATATATATATATATATATATATATATATATAT\n" +
+                                   ">poly\nGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGG\n" +
+                                   ">ok\nAGCTTTTCATTCTGACTGCAACGGGCAATATGTC\n" +
+                                   ">ok copy\nAGCTTTTCATTCTGACTGCAACGGGCAATATGTC\n" +
+                                   ">short\nAAAA\n");
+        final Path out = tempFile();
+        final ContigFilter filter = new ContigFilter(10);
+        filter.setMinEntropy(3, 0.5);
+        filter.setDeduplicate(true);
+        filter.filter(in, out);
+        Assert.assertEquals(2L, filter.getLowComplexityContigs());
+        Assert.assertEquals(1L, filter.getDuplicateContigs());
+        Assert.assertEquals(4L, filter.getRemovedContigs());
+        Assert.assertEquals(">ok\nAGCTTTTCATTCTGACTGCAACGGGCAATATGTC\n",
+                new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+
+        try {
+            new KmerEntropy(9);
+            Assert.fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("k-mer size must be between 1 and 8 (9)", e.getMessage());
+        }
+        try {
+            filter.setMinEntropy(4, 1.5);
+            Assert.fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("min_kmer_entropy parameter must be between 0 and 1 (1.5)",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testAssemblyCache() throws Exception {
+        final Path dir = Files.createTempDirectory("ContigFilterTest");
+        final AssemblyCache cache = new AssemblyCache(dir.resolve("cache"), 20);
+        Assert.assertNull(cache.get("1/2/3"));
+        // 10 bytes each
+        final AssemblyCache.Lease a = cache.put("1/2/3", writeFasta(">a\nACGTAC\n"), "a");
+        Assert.assertTrue(a.isCached());
+        Assert.assertEquals("a", a.getAssemblyName());
+        Assert.assertEquals(">a\nACGTAC\n",
+                new String(Files.readAllBytes(a.getPath()), StandardCharsets.UTF_8));
+        a.close();
+        cache.put("1/3/1", writeFasta(">b\nACGTAC\n"), "b").close();
+        // touching a makes b the least recently used
+        cache.get("1/2/3").close();
+        final AssemblyCache.Lease c = cache.put("1/4/1", writeFasta(">c\nACGTAC\n"), "c");
+        Assert.assertEquals(20L, cache.getSize());
+        Assert.assertNull(cache.get("1/3/1"));
+        final AssemblyCache.Lease a2 = cache.get("1/2/3");
+        Assert.assertNotNull(a2);
+
+        // leased files are kept over the limit until their leases are closed
+        final AssemblyCache.Lease d = cache.put("1/5/1", writeFasta(">d\nACGTAC\n"), "d");
+        Assert.assertEquals(3, cache.getEntryCount());
+        Assert.assertEquals(30L, cache.getSize());
+        c.close();
+        Assert.assertFalse(Files.exists(c.getPath()));
+        Assert.assertEquals(20L, cache.getSize());
+        a2.close();
+        d.close();
+        Assert.assertEquals(2, cache.getEntryCount());
+        Assert.assertEquals(2L, cache.getHits());
+        Assert.assertEquals(2L, cache.getMisses());
+
+        // a file larger than the cache is handed out but not kept
+        final Path big = writeFasta(">big\nACGTACGTACGTACGTACGT\n");
+        final AssemblyCache.Lease b = cache.put("1/6/1", big, "big");
+        Assert.assertFalse(b.isCached());
+        Assert.assertEquals(big, b.getPath());
+        final AssemblyCache.Lease b2 = b.share();
+        b.close();
+        Assert.assertTrue(Files.exists(big));
+        // and is deleted with its last lease
+        b2.close();
+        Assert.assertFalse(Files.exists(big));
+        Assert.assertNull(cache.get("1/6/1"));
+
+        // closing deletes the files, and leased files once their leases close
+        final AssemblyCache.Lease kept = cache.get("1/5/1");
+        cache.close();
+        Assert.assertEquals(0, cache.getEntryCount());
+        Assert.assertEquals(0L, cache.getSize());
+        Assert.assertFalse(kept.isCached());
+        Assert.assertTrue(Files.exists(kept.getPath()));
+        kept.close();
+        Assert.assertFalse(Files.exists(kept.getPath()));
+        Assert.assertFalse(Files.exists(dir.resolve("cache")));
+
+        // and nothing more is cached
+        final AssemblyCache.Lease e = cache.put("1/7/1", writeFasta(">e\nACGTAC\n"), "e");
+        Assert.assertFalse(e.isCached());
+        e.close();
+        Assert.assertFalse(Files.exists(e.getPath()));
+        Assert.assertNull(cache.get("1/7/1"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final AtomicInteger shares = new AtomicInteger();
+        final List<String> released = Collections.synchronizedList(new ArrayList<String>());
+        final SingleFlight<String, String> flights = new SingleFlight<String, String>(
+                new SingleFlight.Sharing<String>() {
+                    @Override
+                    public String share(final String result) {
+                        return result + shares.incrementAndGet();
+                    }
+
+                    @Override
+                    public void release(final String result) {
+                        released.add(result);
+                    }
+                });
+        final AtomicInteger runs = new AtomicInteger();
+        final Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() {
+                runs.incrementAndGet();
+                return "other";
+            }
+        };
+        // callers that join an unfinished flight wait for it rather than running
+        final SingleFlight<String, String>.Flight leader1 = flights.join("key");
+        Assert.assertTrue(leader1.isLeader());
+        final ExecutorService pool = Executors.newFixedThreadPool(3);
+        final List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 3; i++) {
+            results.add(pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return flights.run("key", task);
+                }
+            }));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        leader1.addListener(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, pool);
+        Thread.sleep(50);
+        Assert.assertFalse(leader1.isDone());
+        Assert.assertEquals(1, flights.getInFlight());
+        leader1.complete("result");
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        final Set<String> got = new HashSet<String>();
+        for (final Future<String> f: results) {
+            got.add(f.get());
+        }
+        pool.shutdown();
+        Assert.assertEquals(0, runs.get());
+        Assert.assertEquals(3, got.size());
+        Assert.assertEquals(0, flights.getInFlight());
+        // the result is released once the last caller has its share
+        Assert.assertTrue(released.isEmpty());
+        Assert.assertEquals("result4", leader1.get());
+        Assert.assertEquals(Arrays.asList("result"), released);
+        Assert.assertEquals("other5", flights.run("key", task));
+        Assert.assertEquals(1, runs.get());
+
+        // failures reach every caller, and the next caller starts again
+        final SingleFlight<String, String>.Flight leader = flights.join("key");
+        final SingleFlight<String, String>.Flight follower = flights.join("key");
+        Assert.assertTrue(leader.isLeader());
+        leader.fail(new IllegalStateException("no"));
+        for (final SingleFlight<String, String>.Flight f: Arrays.asList(leader, follower)) {
+            try {
+                f.get();
+                Assert.fail("expected exception");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("no", e.getMessage());
+            }
+        }
+        Assert.assertTrue(flights.join("key").isLeader());
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        final ContigFilter filter = new ContigFilter(0);
+        filter.filter(writeFasta(""), tempFile());
+        Assert.assertEquals(0L, filter.getInitialContigs());
+        Assert.assertEquals(0L, filter.getInputStats().getN50());
+        Assert.assertEquals(0, filter.getInputStats().getLengthHistogram().size());
+    }
+}
@@ -0,0 +1,183 @@
+package sbmltools.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import sbmltools.JobControl;
+import sbmltools.MemoryAdmission;
+
+public class MemoryAdmissionTest {
+
+    private static Thread start(
+            final MemoryAdmission admission,
+            final String user,
+            final long bytes,
+            final String name,
+            final List<String> admitted) {
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try (final MemoryAdmission.Permit p = admission.acquire(user, bytes)) {
+                    admitted.add(name);
+                } catch (InterruptedException e) {
+                    admitted.add(name + " interrupted");
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    private static void waitForQueued(final MemoryAdmission admission, final int queued)
+            throws Exception {
+        for (int i = 0; i < 500 && admission.getQueued() != queued; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(queued, admission.getQueued());
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        final MemoryAdmission admission = new MemoryAdmission(100, 2);
+        final MemoryAdmission.Permit p1 = admission.acquire(60);
+        final MemoryAdmission.Permit p2 = admission.acquire(30);
+        Assert.assertEquals(90, admission.getAdmittedBytes());
+        Assert.assertEquals(2, admission.getRunning());
+
+        // the large job waits, and the small job behind it waits its turn
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        final Thread big = start(admission, null, 500, "big", admitted);
+        waitForQueued(admission, 1);
+        final Thread small = start(admission, null, 5, "small", admitted);
+        waitForQueued(admission, 2);
+        try {
+            admission.acquire(1);
+            Assert.fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            Assert.assertTrue(e.getMessage().contains("2 jobs are already waiting"));
+        }
+        Assert.assertEquals(1, admission.getRejected());
+
+        p1.close();
+        p1.close();
+        Thread.sleep(50);
+        Assert.assertTrue(admitted.isEmpty());
+        p2.close();
+        big.join(5000);
+        small.join(5000);
+        Assert.assertEquals("[big, small]", admitted.toString());
+        Assert.assertEquals(0, admission.getAdmittedBytes());
+        Assert.assertEquals(0, admission.getRunning());
+
+        // an estimate over the budget is reduced to it
+        try (final MemoryAdmission.Permit p = admission.acquire(500)) {
+            Assert.assertEquals(100, p.getBytes());
+        }
+
+        // an interrupted waiter leaves the queue
+        final MemoryAdmission.Permit p3 = admission.acquire(100);
+        final Thread waiting = start(admission, null, 10, "waiting", admitted);
+        waitForQueued(admission, 1);
+        waiting.interrupt();
+        waiting.join(5000);
+        Assert.assertEquals(0, admission.getQueued());
+        Assert.assertEquals("waiting interrupted", admitted.get(2));
+
+        // as does one that runs out of time
+        try {
+            admission.acquire("u", 10, new JobControl(50));
+            Assert.fail("expected exception");
+        } catch (JobControl.JobCancelledException e) {
+            Assert.assertTrue(e.getMessage().contains("time budget"));
+        }
+        Assert.assertEquals(0, admission.getQueued());
+        p3.close();
+    }
+
+    // queues jobs one by one, so they arrive in the order given
+    private static List<Thread> queue(
+            final MemoryAdmission admission,
+            final List<String> admitted,
+            final String... users)
+            throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (final String user: users) {
+            final int queued = admission.getQueued();
+            threads.add(start(admission, user, 10, user, admitted));
+            waitForQueued(admission, queued + 1);
+        }
+        return threads;
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        final MemoryAdmission admission = new MemoryAdmission(10, 32, 3);
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        MemoryAdmission.Permit p = admission.acquire("other", 10);
+        final List<Thread> threads = queue(admission, admitted, "bulk", "bulk", "bulk");
+        try {
+            admission.acquire("bulk", 10);
+            Assert.fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            Assert.assertTrue(e.getMessage().contains("3 of them yours"));
+        }
+        // a single job from another user does not wait for the whole bulk
+        threads.addAll(queue(admission, admitted, "single"));
+        Assert.assertEquals(3, admission.getQueued("bulk"));
+        p.close();
+        for (final Thread t: threads) {
+            t.join(5000);
+        }
+        Assert.assertEquals("[bulk, single, bulk, bulk]", admitted.toString());
+
+        // a user with twice the weight gets twice the admissions
+        final MemoryAdmission weighted = new MemoryAdmission(10, 32, 3);
+        weighted.setWeight("vip", 2);
+        Assert.assertEquals(1.0, weighted.getWeight("bulk"));
+        admitted.clear();
+        p = weighted.acquire("other", 10);
+        threads.clear();
+        threads.addAll(queue(weighted, admitted, "bulk", "bulk", "bulk", "vip", "vip", "vip"));
+        p.close();
+        for (final Thread t: threads) {
+            t.join(5000);
+        }
+        Assert.assertEquals("[bulk, vip, vip, bulk, vip, bulk]", admitted.toString());
+    }
+
+    @Test
+    public void testAbandonedTag() throws Exception {
+        // a job that stops waiting does not push back its user's next job
+        final MemoryAdmission admission = new MemoryAdmission(10, 32);
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        MemoryAdmission.Permit p = admission.acquire("other", 10);
+        final List<Thread> threads = queue(admission, admitted, "a");
+        threads.get(0).interrupt();
+        waitForQueued(admission, 0);
+        threads.addAll(queue(admission, admitted, "b", "b", "a"));
+        p.close();
+        for (final Thread t: threads) {
+            t.join(5000);
+        }
+        Assert.assertEquals("[a interrupted, b, a, b]", admitted.toString());
+
+        // nor do the user's jobs that wait behind it
+        admitted.clear();
+        p = admission.acquire("other", 10);
+        threads.clear();
+        threads.addAll(queue(admission, admitted, "a", "a", "b", "b"));
+        threads.get(0).interrupt();
+        waitForQueued(admission, 3);
+        p.close();
+        for (final Thread t: threads) {
+            t.join(5000);
+        }
+        Assert.assertEquals("[a interrupted, a, b, b]", admitted.toString());
+    }
+}
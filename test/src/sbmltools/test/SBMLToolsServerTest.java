@@ -6,7 +6,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import junit.framework.Assert;
 
@@ -17,10 +20,12 @@ import org.junit.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import us.kbase.common.service.ServerException;
 import assemblyutil.AssemblyUtilClient;
 import assemblyutil.FastaAssemblyFile;
 import assemblyutil.SaveAssemblyParams;
+import sbmltools.AssemblyStats;
+import sbmltools.FilterContigsBatchParams;
+import sbmltools.FilterContigsBatchResults;
 import sbmltools.FilterContigsParams;
 import sbmltools.FilterContigsResults;
 import sbmltools.SBMLToolsServer;
@@ -87,6 +92,9 @@ public class SBMLToolsServerTest {
                 ex.printStackTrace();
             }
         }
+        if (impl != null) {
+            impl.destroy();
+        }
     }
     
     private String loadFASTA(
@@ -120,7 +128,7 @@ public class SBMLToolsServerTest {
         final String ref = loadFASTA(scratch.resolve("test1.fasta"), "TestAssembly", fastaContent);
         
         // second, call the implementation
-        final FilterContigsResults ret = impl.filterContigs(new FilterContigsParams()
+        final FilterContigsResults ret = impl.filterContigsChanged(new FilterContigsParams()
                 .withWorkspaceName(getWsName())
                 .withAssemblyInputRef(ref)
                 .withMinLength(10L),
@@ -130,12 +138,124 @@ public class SBMLToolsServerTest {
         Assert.assertEquals(3L, (long)ret.getNInitialContigs());
         Assert.assertEquals(1L, (long)ret.getNContigsRemoved());
         Assert.assertEquals(2L, (long)ret.getNContigsRemaining());
+        
+        final AssemblyStats in = ret.getInputStats();
+        Assert.assertEquals(27L, (long)in.getTotalLength());
+        Assert.assertEquals(10L, (long)in.getN50());
+        Assert.assertEquals(2L, (long)in.getL50());
+        Assert.assertEquals(10.0 / 27, in.getGcContent(), 1e-9);
+        Assert.assertEquals(Arrays.asList(0L, 0L, 1L, 2L), in.getLengthHistogram());
+        final AssemblyStats out = ret.getOutputStats();
+        Assert.assertEquals(22L, (long)out.getTotalLength());
+        Assert.assertEquals(12L, (long)out.getN50());
+        Assert.assertEquals(1L, (long)out.getL50());
+        Assert.assertEquals(8.0 / 22, out.getGcContent(), 1e-9);
+
+        // the server's calls to other services are reported by status
+        final Set<Object> methods = new HashSet<Object>();
+        for (final Map<String, Object> m: impl.getClientMetrics()) {
+            methods.add(m.get("method"));
+        }
+        Assert.assertTrue(methods.toString(), methods.containsAll(Arrays.asList(
+                "AssemblyUtil.get_assembly_as_fasta", "AssemblyUtil.save_assembly_from_fasta",
+                "KBaseReport.create")));
+        Assert.assertEquals(impl.getClientMetrics().size(),
+                ((List<?>) impl.status().get("client_calls")).size());
+    }
+    
+    @Test
+    public void testFilterContigsNothingRemoved() throws Exception {
+        final String fastaContent = ">seq1\n" +
+                                    "agcttttcat\n" +
+                                    ">seq2\n" +
+                                    "agcttttcatgg";
+        final String ref = loadFASTA(scratch.resolve("test2.fasta"), "TestAssembly2",
+                fastaContent);
+        final FilterContigsResults ret = impl.filterContigsChanged(new FilterContigsParams()
+                .withWorkspaceName(getWsName())
+                .withAssemblyInputRef(ref)
+                .withMinLength(10L),
+                token, getContext());
+        
+        // the input assembly is returned rather than saving a copy
+        Assert.assertEquals(ref, ret.getAssemblyOutput());
+        Assert.assertEquals(0L, (long)ret.getNContigsRemoved());
+        Assert.assertEquals(2L, (long)ret.getNContigsRemaining());
+    }
+    
+    @Test
+    public void testFilterContigsSorted() throws Exception {
+        final String fastaContent = ">seq1\n" +
+                                    "agcttttcat\n" +
+                                    ">seq2\n" +
+                                    "agcttttcatgg";
+        final String ref = loadFASTA(scratch.resolve("test3.fasta"), "TestAssembly3",
+                fastaContent);
+        final FilterContigsResults ret = impl.filterContigsChanged(new FilterContigsParams()
+                .withWorkspaceName(getWsName())
+                .withAssemblyInputRef(ref)
+                .withMinLength(10L)
+                .withSortByLength(1L),
+                token, getContext());
+        
+        // nothing was removed, but the reordered contigs are saved as a new assembly
+        Assert.assertFalse(ref.equals(ret.getAssemblyOutput()));
+        Assert.assertEquals(0L, (long)ret.getNContigsRemoved());
+        Assert.assertEquals(2L, (long)ret.getNContigsRemaining());
+    }
+
+    @Test
+    public void testFilterContigsSharded() throws Exception {
+        final String fastaContent = ">seq1\n" +
+                                    "agcttttcatgg\n" +
+                                    ">seq2\n" +
+                                    "agcttttcat\n" +
+                                    ">seq3\n" +
+                                    "agcttt\n" +
+                                    ">seq4\n" +
+                                    "agcttttcatgga";
+        final String ref = loadFASTA(scratch.resolve("test4.fasta"), "TestAssembly4",
+                fastaContent);
+        final FilterContigsResults ret = impl.filterContigsChanged(new FilterContigsParams()
+                .withWorkspaceName(getWsName())
+                .withAssemblyInputRef(ref)
+                .withMinLength(10L)
+                .withNShards(2L),
+                token, getContext());
+        
+        Assert.assertNull(ret.getAssemblyOutput());
+        Assert.assertEquals(2, ret.getShardOutputs().size());
+        Assert.assertEquals(1L, (long)ret.getNContigsRemoved());
+        Assert.assertEquals(3L, (long)ret.getNContigsRemaining());
+    }
+
+    @Test
+    public void testFilterContigsBatch() throws Exception {
+        final String ref1 = loadFASTA(scratch.resolve("batch1.fasta"), "BatchAssembly1",
+                ">seq1\nagcttttcat\n>seq2\nagctt\n");
+        final String ref2 = loadFASTA(scratch.resolve("batch2.fasta"), "BatchAssembly2",
+                ">seq1\nagcttttcatgg\n");
+        final FilterContigsBatchResults ret = impl.filterContigsBatch(
+                new FilterContigsBatchParams()
+                    .withWorkspaceName(getWsName())
+                    .withAssemblyInputRefs(Arrays.asList(ref1, ref2))
+                    .withMinLength(10L),
+                token, getContext());
+        
+        Assert.assertNotNull(ret.getReportRef());
+        Assert.assertEquals(2, ret.getResults().size());
+        final FilterContigsResults r1 = ret.getResults().get(0);
+        Assert.assertEquals(1L, (long)r1.getNContigsRemoved());
+        Assert.assertFalse(ref1.equals(r1.getAssemblyOutput()));
+        final FilterContigsResults r2 = ret.getResults().get(1);
+        Assert.assertEquals(0L, (long)r2.getNContigsRemoved());
+        Assert.assertEquals(ref2, r2.getAssemblyOutput());
     }
     
     @Test
     public void test_filter_contigs_err1() throws Exception {
         try {
-            impl.filterContigs(new FilterContigsParams().withWorkspaceName(getWsName())
+            impl.filterContigsChanged(new FilterContigsParams().withWorkspaceName(getWsName())
                 .withAssemblyInputRef("fake/fake/1"), token, getContext());
             Assert.fail("Error is expected above");
         } catch (IllegalArgumentException ex) {
@@ -147,7 +267,7 @@ public class SBMLToolsServerTest {
     @Test
     public void test_filter_contigs_err2() throws Exception {
         try {
-            impl.filterContigs(new FilterContigsParams().withWorkspaceName(getWsName())
+            impl.filterContigsChanged(new FilterContigsParams().withWorkspaceName(getWsName())
                 .withAssemblyInputRef("fake/fake/1").withMinLength(-10L), token, getContext());
             Assert.fail("Error is expected above");
         } catch (IllegalArgumentException ex) {
@@ -158,10 +278,10 @@ public class SBMLToolsServerTest {
     @Test
     public void test_filter_contigs_err3() throws Exception {
         try {
-            impl.filterContigs(new FilterContigsParams().withWorkspaceName(getWsName())
+            impl.filterContigsChanged(new FilterContigsParams().withWorkspaceName(getWsName())
                 .withAssemblyInputRef("fake").withMinLength(10L), token, getContext());
             Assert.fail("Error is expected above");
-        } catch (ServerException ex) {
+        } catch (IllegalArgumentException ex) {
             Assert.assertEquals("Invalid workspace reference string! Found fake", ex.getMessage());
         }
     }